@@ -36,6 +36,7 @@ import org.json.JSONObject;
 import org.jsoup.select.Elements;
 
 import xyz.klinker.android.article.data.Article;
+import xyz.klinker.android.article.data.AsyncDataSource;
 import xyz.klinker.android.article.data.DataSource;
 import xyz.klinker.android.drag_dismiss.activity.DragDismissRecyclerViewActivity;
 
@@ -232,15 +233,7 @@ public final class ArticleActivity extends DragDismissRecyclerViewActivity
         article.saved = !article.saved;
         invalidateOptionsMenu();
 
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                DataSource source = DataSource.get(ArticleActivity.this);
-                source.open();
-                source.updateSavedArticleState(article);
-                source.close();
-            }
-        }).start();
+        AsyncDataSource.get(this).updateSavedArticleState(article);
 
         Intent intent = new Intent(ACTION_SAVED_ARTICLE);
         intent.setClassName(this, getIntent().getStringExtra(ArticleIntent.EXTRA_FAVORITE_SERVICE));
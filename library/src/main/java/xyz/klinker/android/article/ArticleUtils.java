@@ -200,10 +200,18 @@ public final class ArticleUtils {
     private Article loadArticleSync(final String url, final DataSource source,
                                     final ArticleLoadedListener callback, final Handler handler) {
         source.open();
-        Article loadedArticle = source.getArticle(url);
 
         final Article article;
-        if (loadedArticle != null && loadedArticle.content != null) {
+
+        // the api couldn't parse this recently, or it isn't an article, so skip straight to the
+        // fallback instead of waiting on it again. Storing the article with its content clears
+        // this, so one that the host app stored since is still found.
+        boolean failed = source.isFailedUrl(url);
+        Article loadedArticle = failed ? null : source.getArticle(url);
+
+        if (failed) {
+            article = null;
+        } else if (loadedArticle != null && loadedArticle.content != null) {
             article = loadedArticle;
         } else {
             article = api.article().parse(url);
@@ -214,14 +222,12 @@ public final class ArticleUtils {
                 // that url again later.
                 article.url = url;
 
-                if (loadedArticle != null && loadedArticle.content == null) {
-                    loadedArticle.content = article.content;
-                    source.updateArticleContent(loadedArticle);
-                    article.id = loadedArticle.id;
-                } else {
-                    article.id = source.insertArticle(article);
-                }
+                // also covers an article that is stored without its content, or one that
+                // another load inserted since we looked
+                article.id = source.upsertArticle(article);
             }
+
+            source.recordParseResult(url, article);
         }
 
         source.close();
@@ -393,7 +399,8 @@ public final class ArticleUtils {
         if (url == null) {
             return null;
         } else {
-            return url.split("\\?")[0];
+            int query = url.indexOf('?');
+            return query == -1 ? url : url.substring(0, query);
         }
     }
 
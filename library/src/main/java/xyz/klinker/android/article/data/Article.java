@@ -47,6 +47,7 @@ public final class Article implements DatabaseModel {
     public Long sourceId;
     public String sourceModelName;
     public String sourceModelImageUrl;
+    public long lastAccessedAt;
 
     /**
      * Creates a blank article that can be filled manually.
@@ -92,7 +93,7 @@ public final class Article implements DatabaseModel {
             } else if (column.equals(ArticleModel.COLUMN_IMAGE)) {
                 this.image = cursor.getString(i);
             } else if (column.equals(ContentModel.COLUMN_CONTENT)) {
-                this.content = cursor.getString(i);
+                this.content = ContentCompressor.read(cursor, i);
             } else if (column.equals(ArticleModel.COLUMN_AUTHOR)) {
                 this.author = cursor.getString(i);
             } else if (column.equals(ArticleModel.COLUMN_SOURCE)) {
@@ -113,6 +114,8 @@ public final class Article implements DatabaseModel {
                 this.sourceModelName = cursor.getString(i);
             } else if (column.equals(SourceModel.COLUMN_IMAGE_URL)) {
                 this.sourceModelImageUrl = cursor.getString(i);
+            } else if (column.equals(ArticleModel.COLUMN_LAST_ACCESSED_AT)) {
+                this.lastAccessedAt = cursor.getLong(i);
             }
         }
     }
@@ -159,4 +162,82 @@ public final class Article implements DatabaseModel {
         intent.putExtra(ArticleModel.COLUMN_SAVED, this.saved);
     }
 
+    /**
+     * Reads articles from a cursor, matching up the columns only once for the whole cursor.
+     * Building one costs more than reading a single row through the cursor constructor, so it
+     * only pays off when one mapper reads many rows.
+     */
+    public static final class Mapper extends CursorMapper<Article> {
+
+        private final int id;
+        private final int alias;
+        private final int url;
+        private final int title;
+        private final int description;
+        private final int image;
+        private final int content;
+        private final int author;
+        private final int source;
+        private final int domain;
+        private final int duration;
+        private final int insertedAt;
+        private final int isArticle;
+        private final int saved;
+        private final int sourceId;
+        private final int sourceModelName;
+        private final int sourceModelImageUrl;
+        private final int lastAccessedAt;
+
+        public Mapper(Cursor cursor) {
+            super(cursor);
+
+            id = index(ArticleModel.COLUMN_ID);
+            alias = index(ArticleModel.COLUMN_ALIAS);
+            url = index(ArticleModel.COLUMN_URL);
+            title = index(ArticleModel.COLUMN_TITLE);
+            description = index(ArticleModel.COLUMN_DESCRIPTION);
+            image = index(ArticleModel.COLUMN_IMAGE);
+            content = index(ContentModel.COLUMN_CONTENT);
+            author = index(ArticleModel.COLUMN_AUTHOR);
+            source = index(ArticleModel.COLUMN_SOURCE);
+            domain = index(ArticleModel.COLUMN_DOMAIN);
+            duration = index(ArticleModel.COLUMN_DURATION);
+            insertedAt = index(ArticleModel.COLUMN_INSERTED_AT);
+            isArticle = index(ArticleModel.COLUMN_IS_ARTICLE);
+            saved = index(ArticleModel.COLUMN_SAVED);
+            sourceId = index(ArticleModel.COLUMN_SOURCE_ID);
+            sourceModelName = index(SourceModel.COLUMN_NAME);
+            sourceModelImageUrl = index(SourceModel.COLUMN_IMAGE_URL);
+            lastAccessedAt = index(ArticleModel.COLUMN_LAST_ACCESSED_AT);
+        }
+
+        @Override
+        protected Article create() {
+            return new Article();
+        }
+
+        @Override
+        protected void fill(Article article, Cursor cursor) {
+            if (id != -1) article.id = cursor.getLong(id);
+            if (alias != -1) article.alias = cursor.getString(alias);
+            if (url != -1) article.url = cursor.getString(url);
+            if (title != -1) article.title = cursor.getString(title);
+            if (description != -1) article.description = cursor.getString(description);
+            if (image != -1) article.image = cursor.getString(image);
+            if (content != -1) article.content = ContentCompressor.read(cursor, content);
+            if (author != -1) article.author = cursor.getString(author);
+            if (source != -1) article.source = cursor.getString(source);
+            if (domain != -1) article.domain = cursor.getString(domain);
+            if (duration != -1) article.duration = cursor.getInt(duration);
+            if (insertedAt != -1) article.insertedAt = cursor.getLong(insertedAt);
+            if (isArticle != -1) article.isArticle = cursor.getInt(isArticle) == 1;
+            if (saved != -1) article.saved = cursor.getInt(saved) == 1;
+            if (sourceId != -1) article.sourceId = cursor.getLong(sourceId);
+            if (sourceModelName != -1) article.sourceModelName = cursor.getString(sourceModelName);
+            if (sourceModelImageUrl != -1) {
+                article.sourceModelImageUrl = cursor.getString(sourceModelImageUrl);
+            }
+            if (lastAccessedAt != -1) article.lastAccessedAt = cursor.getLong(lastAccessedAt);
+        }
+    }
 }
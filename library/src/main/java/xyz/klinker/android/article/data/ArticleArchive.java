@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+
+import xyz.klinker.android.article.data.model.ArticleModel;
+import xyz.klinker.android.article.data.model.ContentModel;
+
+/**
+ * Reads and writes the records of an article archive, see DataSource.exportSavedArticles(). An
+ * archive is a utf-8 text file with one article on each line, as a json object. The metadata uses
+ * the names of the article table's columns, and the html is under "content".
+ *
+ * Records are read and written one at a time, so an archive never has to fit in memory. Names
+ * that a reader doesn't know are skipped, so that later versions can add to a record without
+ * breaking the archives that older ones read.
+ */
+final class ArticleArchive {
+
+    private ArticleArchive() {
+
+    }
+
+    /**
+     * Writes an article as a single line.
+     *
+     * @param writer the writer for the archive. It isn't flushed.
+     * @param article the article, along with its content.
+     * @throws IOException if the writer fails.
+     */
+    static void write(Writer writer, Article article) throws IOException {
+        // a json writer only allows one top level value, so each line gets a new one. It doesn't
+        // buffer anything itself, so there is nothing to close.
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name(ArticleModel.COLUMN_URL).value(article.url);
+        json.name(ArticleModel.COLUMN_ALIAS).value(article.alias);
+        json.name(ArticleModel.COLUMN_TITLE).value(article.title);
+        json.name(ArticleModel.COLUMN_DESCRIPTION).value(article.description);
+        json.name(ArticleModel.COLUMN_IMAGE).value(article.image);
+        json.name(ArticleModel.COLUMN_AUTHOR).value(article.author);
+        json.name(ArticleModel.COLUMN_SOURCE).value(article.source);
+        json.name(ArticleModel.COLUMN_DOMAIN).value(article.domain);
+        json.name(ArticleModel.COLUMN_DURATION).value(article.duration);
+        json.name(ArticleModel.COLUMN_INSERTED_AT).value(article.insertedAt);
+        json.name(ArticleModel.COLUMN_IS_ARTICLE).value(article.isArticle);
+        json.name(ArticleModel.COLUMN_SAVED).value(article.saved);
+        json.name(ArticleModel.COLUMN_SOURCE_ID).value(article.sourceId);
+        json.name(ContentModel.COLUMN_CONTENT).value(article.content);
+        json.endObject();
+
+        writer.write('\n');
+    }
+
+    /**
+     * Reads the next article.
+     *
+     * @param reader the lenient reader for the archive, which allows a top level value on each
+     *               line.
+     * @return the article, or null at the end of the archive.
+     * @throws IOException if the reader fails or the archive is malformed.
+     */
+    static Article read(JsonReader reader) throws IOException {
+        try {
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                return null;
+            }
+        } catch (EOFException e) {
+            // an archive with no articles in it has no document at all, which is only reported
+            // this way
+            return null;
+        }
+
+        Article article = new Article();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (name.equals(ArticleModel.COLUMN_URL)) {
+                article.url = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_ALIAS)) {
+                article.alias = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_TITLE)) {
+                article.title = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_DESCRIPTION)) {
+                article.description = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_IMAGE)) {
+                article.image = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_AUTHOR)) {
+                article.author = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_SOURCE)) {
+                article.source = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_DOMAIN)) {
+                article.domain = reader.nextString();
+            } else if (name.equals(ArticleModel.COLUMN_DURATION)) {
+                article.duration = reader.nextInt();
+            } else if (name.equals(ArticleModel.COLUMN_INSERTED_AT)) {
+                article.insertedAt = reader.nextLong();
+            } else if (name.equals(ArticleModel.COLUMN_IS_ARTICLE)) {
+                article.isArticle = reader.nextBoolean();
+            } else if (name.equals(ArticleModel.COLUMN_SAVED)) {
+                article.saved = reader.nextBoolean();
+            } else if (name.equals(ArticleModel.COLUMN_SOURCE_ID)) {
+                article.sourceId = reader.nextLong();
+            } else if (name.equals(ContentModel.COLUMN_CONTENT)) {
+                article.content = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+        return article;
+    }
+}
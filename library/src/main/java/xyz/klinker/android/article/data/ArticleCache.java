@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the most recently read articles in memory, keyed by their url, so that opening an
+ * article again doesn't run the query and inflate its html a second time. Entries are weighed by
+ * the rough number of bytes that they hold, which is mostly the html.
+ *
+ * DataSource drops the entries that it writes to. A read can race a write though, so each read
+ * takes the cache's generation before it queries, and its result is only kept if nothing has
+ * been dropped since.
+ *
+ * Callers get their own copy of a cached article, so changing it doesn't change the cache.
+ */
+final class ArticleCache implements ComponentCallbacks2 {
+
+    /**
+     * A sixteenth of the heap, up to 8MB.
+     */
+    static final long DEFAULT_MAX_BYTES =
+            Math.min(Runtime.getRuntime().maxMemory() / 16, 8 * 1024 * 1024);
+
+    // the article object and its strings, before counting any characters
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final LinkedHashMap<String, Article> articles = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes;
+    private long generation;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes the most bytes of articles to keep, or 0 to keep none.
+     */
+    ArticleCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the current generation, to pass to put() once the article has been read.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets a copy of the cached article for a url.
+     *
+     * @param url the url, without its query parameters.
+     * @return the article, or null if it isn't cached.
+     */
+    synchronized Article get(String url) {
+        Article article = articles.get(url);
+        if (article == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return copy(article);
+    }
+
+    /**
+     * Caches an article that was read from the database.
+     *
+     * @param url the url, without its query parameters.
+     * @param article the article. A copy of it is kept.
+     * @param generation the generation from before the article was read. If anything was
+     *                   dropped since, the article may already be out of date and isn't kept.
+     */
+    synchronized void put(String url, Article article, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+
+        long size = sizeOf(article);
+        if (size > maxBytes) {
+            return;
+        }
+
+        Article previous = articles.put(url, copy(article));
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+
+        bytes += size;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Drops the provided articles.
+     *
+     * @param articleIds the ids of the articles that were written.
+     */
+    synchronized void remove(long... articleIds) {
+        generation++;
+
+        long[] sorted = articleIds.clone();
+        Arrays.sort(sorted);
+
+        Iterator<Article> iterator = articles.values().iterator();
+        while (iterator.hasNext()) {
+            Article article = iterator.next();
+            if (Arrays.binarySearch(sorted, article.id) >= 0) {
+                bytes -= sizeOf(article);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the article for a url.
+     *
+     * @param url the url that was written, without its query parameters.
+     */
+    synchronized void remove(String url) {
+        generation++;
+
+        Article article = articles.remove(url);
+        if (article != null) {
+            bytes -= sizeOf(article);
+        }
+    }
+
+    /**
+     * Drops every article, for writes that could have touched any of them.
+     */
+    synchronized void clear() {
+        generation++;
+        trimToSize(0);
+    }
+
+    /**
+     * Changes how much the cache can hold, dropping the least recently read articles if it
+     * holds more than that.
+     *
+     * @param maxBytes the most bytes of articles to keep, or 0 to keep none.
+     */
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Gets the number of reads that were answered from the cache.
+     */
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of reads that had to go to the database.
+     */
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Gets the rough number of bytes that the cached articles hold.
+     */
+    synchronized long getSize() {
+        return bytes;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // in the background we are likely to be killed anyway, so give back everything. While
+        // the app is still running, half is enough.
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            synchronized (this) {
+                trimToSize(0);
+            }
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(maxBytes / 2);
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        synchronized (this) {
+            trimToSize(0);
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {
+
+    }
+
+    private void trimToSize(long size) {
+        Iterator<Article> iterator = articles.values().iterator();
+        while (bytes > size && iterator.hasNext()) {
+            bytes -= sizeOf(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private static long sizeOf(Article article) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (length(article.alias) + length(article.url) +
+                length(article.title) + length(article.description) + length(article.image) +
+                length(article.content) + length(article.author) + length(article.source) +
+                length(article.domain) + length(article.sourceModelName) +
+                length(article.sourceModelImageUrl));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static Article copy(Article article) {
+        Article copy = new Article();
+        copy.id = article.id;
+        copy.alias = article.alias;
+        copy.url = article.url;
+        copy.title = article.title;
+        copy.description = article.description;
+        copy.image = article.image;
+        copy.content = article.content;
+        copy.author = article.author;
+        copy.source = article.source;
+        copy.domain = article.domain;
+        copy.duration = article.duration;
+        copy.insertedAt = article.insertedAt;
+        copy.isArticle = article.isArticle;
+        copy.saved = article.saved;
+        copy.sourceId = article.sourceId;
+        copy.sourceModelName = article.sourceModelName;
+        copy.sourceModelImageUrl = article.sourceModelImageUrl;
+        copy.lastAccessedAt = article.lastAccessedAt;
+        return copy;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import java.util.List;
+
+/**
+ * A single page of an article list, along with the token needed to load the page after it.
+ */
+public class ArticlePage {
+
+    private List<Article> articles;
+    private String nextPageToken;
+
+    public ArticlePage(List<Article> articles, String nextPageToken) {
+        this.articles = articles;
+        this.nextPageToken = nextPageToken;
+    }
+
+    /**
+     * Gets the articles on this page, newest first. The content is not loaded, use
+     * DataSource.getArticle() for that.
+     */
+    public List<Article> getArticles() {
+        return articles;
+    }
+
+    /**
+     * Gets the token to pass back to the DataSource for the next page, or null if this was the
+     * last one.
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+}
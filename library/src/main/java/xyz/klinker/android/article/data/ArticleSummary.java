@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.Cursor;
+
+import xyz.klinker.android.article.data.model.ArticleModel;
+import xyz.klinker.android.article.data.model.DatabaseModel;
+import xyz.klinker.android.article.data.model.SourceModel;
+
+/**
+ * The parts of an article that a row in an article list shows. Use the full Article for the
+ * detail screen.
+ */
+public final class ArticleSummary implements DatabaseModel {
+
+    public long id;
+    public String url;
+    public String title;
+    public String image;
+    public String domain;
+    public String sourceModelName;
+    public long insertedAt;
+    public boolean saved;
+
+    /**
+     * Creates a blank summary that can be filled manually.
+     */
+    public ArticleSummary() {
+
+    }
+
+    /**
+     * Creates a summary that is filled automatically from a provided cursor.
+     *
+     * @param cursor the cursor to fill the summary from.
+     */
+    public ArticleSummary(Cursor cursor) {
+        fillFromCursor(cursor);
+    }
+
+    @Override
+    public void fillFromCursor(Cursor cursor) {
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            String column = cursor.getColumnName(i);
+
+            if (column.equals(ArticleModel.COLUMN_ID)) {
+                this.id = cursor.getLong(i);
+            } else if (column.equals(ArticleModel.COLUMN_URL)) {
+                this.url = cursor.getString(i);
+            } else if (column.equals(ArticleModel.COLUMN_TITLE)) {
+                this.title = cursor.getString(i);
+            } else if (column.equals(ArticleModel.COLUMN_IMAGE)) {
+                this.image = cursor.getString(i);
+            } else if (column.equals(ArticleModel.COLUMN_DOMAIN)) {
+                this.domain = cursor.getString(i);
+            } else if (column.equals(SourceModel.COLUMN_NAME)) {
+                this.sourceModelName = cursor.getString(i);
+            } else if (column.equals(ArticleModel.COLUMN_INSERTED_AT)) {
+                this.insertedAt = cursor.getLong(i);
+            } else if (column.equals(ArticleModel.COLUMN_SAVED)) {
+                this.saved = cursor.getInt(i) == 1;
+            }
+        }
+    }
+
+    /**
+     * Reads summaries from a cursor, matching up the columns only once for the whole cursor.
+     */
+    public static final class Mapper extends CursorMapper<ArticleSummary> {
+
+        private final int id;
+        private final int url;
+        private final int title;
+        private final int image;
+        private final int domain;
+        private final int sourceModelName;
+        private final int insertedAt;
+        private final int saved;
+
+        public Mapper(Cursor cursor) {
+            super(cursor);
+
+            id = index(ArticleModel.COLUMN_ID);
+            url = index(ArticleModel.COLUMN_URL);
+            title = index(ArticleModel.COLUMN_TITLE);
+            image = index(ArticleModel.COLUMN_IMAGE);
+            domain = index(ArticleModel.COLUMN_DOMAIN);
+            sourceModelName = index(SourceModel.COLUMN_NAME);
+            insertedAt = index(ArticleModel.COLUMN_INSERTED_AT);
+            saved = index(ArticleModel.COLUMN_SAVED);
+        }
+
+        @Override
+        protected ArticleSummary create() {
+            return new ArticleSummary();
+        }
+
+        @Override
+        protected void fill(ArticleSummary summary, Cursor cursor) {
+            if (id != -1) summary.id = cursor.getLong(id);
+            if (url != -1) summary.url = cursor.getString(url);
+            if (title != -1) summary.title = cursor.getString(title);
+            if (image != -1) summary.image = cursor.getString(image);
+            if (domain != -1) summary.domain = cursor.getString(domain);
+            if (sourceModelName != -1) summary.sourceModelName = cursor.getString(sourceModelName);
+            if (insertedAt != -1) summary.insertedAt = cursor.getLong(insertedAt);
+            if (saved != -1) summary.saved = cursor.getInt(saved) == 1;
+        }
+    }
+}
@@ -0,0 +1,637 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+
+import xyz.klinker.android.article.data.model.ArticleModel;
+import xyz.klinker.android.article.data.model.CategoryModel;
+import xyz.klinker.android.article.data.model.SourceModel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs DataSource calls off of the calling thread. Reads run on a small pool of threads, which
+ * can all read at once with the database in write-ahead-log mode. Writes run one at a time, in
+ * the order they were made, on a single writer thread.
+ *
+ * Each call returns a future for its result. It can also take a callback, along with the
+ * executor to run the callback on, such as mainThread(). The DataSource is opened and closed
+ * around every call, so there is no need to open it first.
+ *
+ * Changes to an article's saved state are held back for a moment before they are written, and
+ * only the latest state of each article is stored, so toggling it back and forth only writes
+ * once. Any other write flushes them first, so writes are still stored in the order they were
+ * made.
+ *
+ * observe() keeps a query's results up to date, running it again after writes to the tables it
+ * reads from.
+ */
+public class AsyncDataSource {
+
+    private static final String TAG = "AsyncDataSource";
+    private static final int READER_THREADS = 2;
+    private static final long COALESCE_WINDOW_MILLIS = 300;
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private static volatile AsyncDataSource instance;
+    private static volatile Executor mainThread;
+
+    private final DataSource source;
+    private final ExecutorService readers;
+    private final ScheduledExecutorService writer;
+    private final long coalesceWindowMillis;
+    private final long debounceMillis;
+
+    private final Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+
+    /**
+     * Gets the process wide instance, backed by the shared DataSource.
+     *
+     * @param context the current application context.
+     * @return the shared instance.
+     */
+    public static AsyncDataSource get(Context context) {
+        AsyncDataSource source = instance;
+        if (source == null) {
+            synchronized (AsyncDataSource.class) {
+                source = instance;
+                if (source == null) {
+                    source = new AsyncDataSource(DataSource.get(context),
+                            Executors.newFixedThreadPool(READER_THREADS, new NamedThreadFactory("reader")),
+                            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("writer")),
+                            COALESCE_WINDOW_MILLIS, DEBOUNCE_MILLIS);
+                    instance = source;
+                }
+            }
+        }
+
+        return source;
+    }
+
+    /**
+     * Gets an executor that runs callbacks on the main thread.
+     */
+    public static Executor mainThread() {
+        Executor executor = mainThread;
+        if (executor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            executor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+
+            mainThread = executor;
+        }
+
+        return executor;
+    }
+
+    /**
+     * Constructor to help with testing.
+     */
+    @VisibleForTesting
+    AsyncDataSource(DataSource source, ExecutorService readers, ScheduledExecutorService writer,
+                    long coalesceWindowMillis, long debounceMillis) {
+        this.source = source;
+        this.readers = readers;
+        this.writer = writer;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Stops the worker threads once everything that has been queued is done, writing any held
+     * back writes first.
+     */
+    @VisibleForTesting
+    void shutdown() {
+        readers.shutdown();
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                flushPendingWrites();
+            }
+        });
+        writer.shutdown();
+    }
+
+    /**
+     * Gets a single article, see DataSource.getArticle().
+     */
+    public Future<Article> getArticle(final String url, DataSourceCallback<Article> callback,
+                                      Executor callbackExecutor) {
+        return read(new Callable<Article>() {
+            @Override
+            public Article call() {
+                return source.getArticle(url);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Gets a page of all articles, see DataSource.getArticlesPage().
+     */
+    public Future<ArticlePage> getArticlesPage(final String pageToken, final int pageSize,
+                                               DataSourceCallback<ArticlePage> callback,
+                                               Executor callbackExecutor) {
+        return read(new Callable<ArticlePage>() {
+            @Override
+            public ArticlePage call() {
+                return source.getArticlesPage(pageToken, pageSize);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Gets a page of saved articles, see DataSource.getSavedArticlesPage().
+     */
+    public Future<ArticlePage> getSavedArticlesPage(final String pageToken, final int pageSize,
+                                                    DataSourceCallback<ArticlePage> callback,
+                                                    Executor callbackExecutor) {
+        return read(new Callable<ArticlePage>() {
+            @Override
+            public ArticlePage call() {
+                return source.getSavedArticlesPage(pageToken, pageSize);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Gets a page of the articles for a source, see DataSource.getArticlesForSourcePage().
+     */
+    public Future<ArticlePage> getArticlesForSourcePage(final long remoteSourceId,
+                                                        final String pageToken, final int pageSize,
+                                                        DataSourceCallback<ArticlePage> callback,
+                                                        Executor callbackExecutor) {
+        return read(new Callable<ArticlePage>() {
+            @Override
+            public ArticlePage call() {
+                return source.getArticlesForSourcePage(remoteSourceId, pageToken, pageSize);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Searches the cached articles, see DataSource.searchArticles().
+     */
+    public Future<List<SearchResult>> searchArticles(final String query, final int limit,
+                                                     final int offset,
+                                                     DataSourceCallback<List<SearchResult>> callback,
+                                                     Executor callbackExecutor) {
+        return read(new Callable<List<SearchResult>>() {
+            @Override
+            public List<SearchResult> call() {
+                return source.searchArticles(query, limit, offset);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Gets all of the sources, see DataSource.getSources().
+     */
+    public Future<List<Source>> getSources(DataSourceCallback<List<Source>> callback,
+                                           Executor callbackExecutor) {
+        return read(new Callable<List<Source>>() {
+            @Override
+            public List<Source> call() {
+                return source.getSources();
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Gets the article counts for each category, see DataSource.getCategoryCounts().
+     */
+    public Future<CategoryCounts> getCategoryCounts(final long timestamp,
+                                                    DataSourceCallback<CategoryCounts> callback,
+                                                    Executor callbackExecutor) {
+        return read(new Callable<CategoryCounts>() {
+            @Override
+            public CategoryCounts call() {
+                return source.getCategoryCounts(timestamp);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Gets the category counts for several windows at once, see DataSource.getCategoryCounts().
+     */
+    public Future<List<CategoryCounts>> getCategoryCounts(final long[] timestamps,
+                                                          DataSourceCallback<List<CategoryCounts>> callback,
+                                                          Executor callbackExecutor) {
+        return read(new Callable<List<CategoryCounts>>() {
+            @Override
+            public List<CategoryCounts> call() {
+                return source.getCategoryCounts(timestamps);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Inserts an article, see DataSource.insertArticle().
+     */
+    public Future<Long> insertArticle(final Article article, DataSourceCallback<Long> callback,
+                                      Executor callbackExecutor) {
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return source.insertArticle(article);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Inserts a batch of articles, see DataSource.insertArticles().
+     */
+    public Future<long[]> insertArticles(final Collection<Article> articles,
+                                         DataSourceCallback<long[]> callback,
+                                         Executor callbackExecutor) {
+        return write(new Callable<long[]>() {
+            @Override
+            public long[] call() {
+                return source.insertArticles(articles);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Stores a downloaded article, see DataSource.upsertArticle().
+     */
+    public Future<Long> upsertArticle(final Article article, DataSourceCallback<Long> callback,
+                                      Executor callbackExecutor) {
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return source.upsertArticle(article);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Updates an article's content, see DataSource.updateArticleContent().
+     */
+    public Future<Void> updateArticleContent(final Article article, DataSourceCallback<Void> callback,
+                                             Executor callbackExecutor) {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                source.updateArticleContent(article);
+                return null;
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Deletes an article and its content, see DataSource.deleteArticle().
+     */
+    public Future<Void> deleteArticle(final long articleId, DataSourceCallback<Void> callback,
+                                      Executor callbackExecutor) {
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                source.deleteArticle(articleId);
+                return null;
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Deletes articles and their content, see DataSource.deleteArticles().
+     */
+    public Future<Integer> deleteArticles(final long[] articleIds, DataSourceCallback<Integer> callback,
+                                          Executor callbackExecutor) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return source.deleteArticles(articleIds);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Deletes the articles inserted before a time, see DataSource.deleteArticlesOlderThan().
+     */
+    public Future<Integer> deleteArticlesOlderThan(final long timestamp, final boolean keepSaved,
+                                                   DataSourceCallback<Integer> callback,
+                                                   Executor callbackExecutor) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return source.deleteArticlesOlderThan(timestamp, keepSaved);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Replaces the stored sources, see DataSource.syncSources().
+     */
+    public Future<Integer> syncSources(final List<Source> sources, DataSourceCallback<Integer> callback,
+                                       Executor callbackExecutor) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return source.syncSources(sources);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Writes the saved articles to a stream, see DataSource.exportSavedArticles(). If the stream
+     * fails, the future fails with the IOException and the callback isn't called.
+     */
+    public Future<Integer> exportSavedArticles(final OutputStream output,
+                                               DataSourceCallback<Integer> callback,
+                                               Executor callbackExecutor) {
+        return read(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return source.exportSavedArticles(output);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Reads exported articles back in, see DataSource.importArticles(). If the stream fails, the
+     * future fails with the IOException and the callback isn't called.
+     */
+    public Future<Integer> importArticles(final InputStream input,
+                                          DataSourceCallback<Integer> callback,
+                                          Executor callbackExecutor) {
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return source.importArticles(input);
+            }
+        }, callback, callbackExecutor);
+    }
+
+    /**
+     * Updates an article's saved state. The write is held back for a moment, and if the state
+     * changes again in the meantime, only the latest one is written.
+     *
+     * @param article the article, with its new saved state.
+     * @return a future that completes once the latest state has been written. If the write
+     *         fails, the future fails with the exception. Since this is often called without
+     *         waiting on the result, the failure is logged as well.
+     */
+    public Future<Void> updateSavedArticleState(Article article) {
+        final Article update = new Article();
+        update.id = article.id;
+        update.saved = article.saved;
+
+        return coalesce("saved/" + article.id, new Runnable() {
+            @Override
+            public void run() {
+                source.updateSavedArticleState(update);
+            }
+        });
+    }
+
+    /**
+     * Runs a query now, and again after every burst of writes to the provided tables, until the
+     * returned handle is stopped.
+     *
+     * @param query the query to run. It is called on a reader thread, with the DataSource open.
+     * @param callback the callback for each result.
+     * @param callbackExecutor the executor to call back on, or null to call back on the reader.
+     * @param tables the names of the tables that the query reads from.
+     * @return the handle for stopping the query.
+     */
+    public <T> ObservableQuery<T> observe(Callable<T> query, DataSourceCallback<T> callback,
+                                          Executor callbackExecutor, String... tables) {
+        ObservableQuery<T> observable = new ObservableQuery<>(source.getInvalidationTracker(),
+                tables, opened(query), readers, writer, debounceMillis, callback,
+                callbackExecutor);
+        observable.start();
+        return observable;
+    }
+
+    /**
+     * Keeps the first page of saved articles up to date.
+     */
+    public ObservableQuery<ArticlePage> observeSavedArticles(final int pageSize,
+                                                             DataSourceCallback<ArticlePage> callback,
+                                                             Executor callbackExecutor) {
+        return observe(new Callable<ArticlePage>() {
+            @Override
+            public ArticlePage call() {
+                return source.getSavedArticlesPage(null, pageSize);
+            }
+        }, callback, callbackExecutor, ArticleModel.TABLE, SourceModel.TABLE);
+    }
+
+    /**
+     * Keeps the article counts for each category up to date.
+     */
+    public ObservableQuery<CategoryCounts> observeCategoryCounts(final long timestamp,
+                                                                 DataSourceCallback<CategoryCounts> callback,
+                                                                 Executor callbackExecutor) {
+        return observe(new Callable<CategoryCounts>() {
+            @Override
+            public CategoryCounts call() {
+                return source.getCategoryCounts(timestamp);
+            }
+        }, callback, callbackExecutor, ArticleModel.TABLE, SourceModel.TABLE, CategoryModel.TABLE);
+    }
+
+    private <T> Future<T> read(final Callable<T> work, final DataSourceCallback<T> callback,
+                               final Executor callbackExecutor) {
+        return readers.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                T result = run(work);
+                deliver(result, callback, callbackExecutor);
+                return result;
+            }
+        });
+    }
+
+    private <T> Future<T> write(final Callable<T> work, final DataSourceCallback<T> callback,
+                                final Executor callbackExecutor) {
+        return writer.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                flushPendingWrites();
+
+                T result = run(work);
+                deliver(result, callback, callbackExecutor);
+                return result;
+            }
+        });
+    }
+
+    private synchronized Future<Void> coalesce(final String key, Runnable work) {
+        PendingWrite pending = pendingWrites.get(key);
+        if (pending != null) {
+            pending.work = work;
+            return pending.task;
+        }
+
+        pending = new PendingWrite(key, work);
+        pendingWrites.put(key, pending);
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                PendingWrite pending;
+                synchronized (AsyncDataSource.this) {
+                    pending = pendingWrites.remove(key);
+                }
+
+                if (pending != null) {
+                    pending.task.run();
+                }
+            }
+        }, coalesceWindowMillis, TimeUnit.MILLISECONDS);
+
+        return pending.task;
+    }
+
+    // only called on the writer thread
+    private void flushPendingWrites() {
+        List<PendingWrite> writes;
+        synchronized (this) {
+            writes = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+        }
+
+        for (PendingWrite pending : writes) {
+            pending.task.run();
+        }
+    }
+
+    private <T> T run(Callable<T> work) throws Exception {
+        source.open();
+        try {
+            return work.call();
+        } finally {
+            source.close();
+        }
+    }
+
+    private <T> Callable<T> opened(final Callable<T> work) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return run(work);
+            }
+        };
+    }
+
+    static <T> void deliver(final T result, final DataSourceCallback<T> callback,
+                                    Executor callbackExecutor) {
+        if (callback == null) {
+            return;
+        }
+
+        if (callbackExecutor == null) {
+            callback.onResult(result);
+        } else {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            });
+        }
+    }
+
+    /**
+     * A write that is being held back. Later writes with the same key replace its work, and the
+     * latest work is what runs once the task does. A failure fails the task's future, and is
+     * logged for the callers that don't wait on it.
+     */
+    private class PendingWrite {
+
+        private volatile Runnable work;
+        private final FutureTask<Void> task;
+
+        PendingWrite(final String key, Runnable initialWork) {
+            this.work = initialWork;
+            this.task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    run(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            work.run();
+                            return null;
+                        }
+                    });
+
+                    return null;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        return;
+                    }
+
+                    try {
+                        get();
+                    } catch (ExecutionException e) {
+                        Log.e(TAG, "couldn't write " + key, e.getCause());
+                    } catch (InterruptedException e) {
+                        // can't happen, the task is already done
+                    }
+                }
+            };
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "article-db-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
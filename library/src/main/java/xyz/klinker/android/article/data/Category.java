@@ -57,4 +57,31 @@ public class Category implements DatabaseModel {
             }
         }
     }
+
+    /**
+     * Reads categories from a cursor, matching up the columns only once for the whole cursor.
+     */
+    public static final class Mapper extends CursorMapper<Category> {
+
+        private final int name;
+        private final int numberArticles;
+
+        public Mapper(Cursor cursor) {
+            super(cursor);
+
+            name = index(CategoryModel.COLUMN_NAME);
+            numberArticles = index("count");
+        }
+
+        @Override
+        protected Category create() {
+            return new Category();
+        }
+
+        @Override
+        protected void fill(Category category, Cursor cursor) {
+            if (name != -1) category.name = cursor.getString(name);
+            if (numberArticles != -1) category.numberArticles = cursor.getInt(numberArticles);
+        }
+    }
 }
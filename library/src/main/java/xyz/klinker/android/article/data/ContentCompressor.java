@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.Cursor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates article html before it is written to the content table and inflates it again on the
+ * way out. Rows written before compression was added are still plain text, so reads accept both.
+ *
+ * The html is also hashed, so that identical content can be recognized without comparing the
+ * bodies themselves.
+ */
+final class ContentCompressor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentCompressor() {
+
+    }
+
+    /**
+     * Compresses the provided html.
+     *
+     * @param content the html to compress.
+     * @return the deflated bytes, or null if there was no content.
+     */
+    static byte[] compress(String content) {
+        if (content == null) {
+            return null;
+        }
+
+        byte[] input = content.getBytes(UTF_8);
+        Deflater deflater = new Deflater();
+
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 4 + 16);
+            byte[] buffer = new byte[Math.min(BUFFER_SIZE, input.length + 64)];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates content that was compressed with compress().
+     *
+     * @param compressed the deflated bytes.
+     * @return the html, or null if there was no content.
+     */
+    static String decompress(byte[] compressed) {
+        if (compressed == null) {
+            return null;
+        }
+
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(compressed);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && !inflater.finished() &&
+                        (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("truncated article content");
+                }
+
+                output.write(buffer, 0, length);
+            }
+
+            return new String(output.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt article content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Hashes the provided html.
+     *
+     * @param content the html to hash.
+     * @return the sha-1 of the html as a hex string, or null if there was no content.
+     */
+    static String hash(String content) {
+        if (content == null) {
+            return null;
+        }
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(content.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Reads a content column, whether it holds compressed bytes or legacy plain text.
+     *
+     * @param cursor the cursor positioned on the row to read.
+     * @param index the index of the content column.
+     * @return the html.
+     */
+    static String read(Cursor cursor, int index) {
+        if (cursor.getType(index) == Cursor.FIELD_TYPE_BLOB) {
+            return decompress(cursor.getBlob(index));
+        } else {
+            return cursor.getString(index);
+        }
+    }
+}
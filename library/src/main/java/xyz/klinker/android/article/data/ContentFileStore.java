@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the compressed bodies that are too large for the content table in files of their own,
+ * one per article, so that reading them doesn't have to copy megabytes through a cursor window.
+ * The content row only holds the name of the file and its length.
+ *
+ * A file is named after the article and the hash of its body, so a new body never overwrites
+ * the file that the committed row still points at. DataSource deletes the old file once the new
+ * row is committed, or the new one if the transaction rolls back.
+ *
+ * The files live in the cache directory, so the system may delete them when it runs low on
+ * space. A missing file reads back as no content, the same as content that was evicted.
+ */
+final class ContentFileStore {
+
+    /**
+     * Compressed bodies at least this large are written to a file.
+     */
+    static final int DEFAULT_MIN_BYTES = 256 * 1024;
+
+    private static final String DIRECTORY = "article_content";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File directory;
+    private final int minBytes;
+
+    /**
+     * Creates a store under the provided cache directory.
+     *
+     * @param cacheDirectory the app's cache directory.
+     * @param minBytes compressed bodies at least this large are written to a file.
+     */
+    ContentFileStore(File cacheDirectory, int minBytes) {
+        this.directory = new File(cacheDirectory, DIRECTORY);
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Gets the name of the file that holds an article's body.
+     *
+     * @param articleId the id of the article.
+     * @param hash the hash of the body's html.
+     * @return the file name.
+     */
+    static String name(long articleId, String hash) {
+        return articleId + "-" + hash;
+    }
+
+    /**
+     * Checks whether a compressed body is large enough to go to a file.
+     *
+     * @param body the compressed body.
+     * @return true if it should be written with write().
+     */
+    boolean accepts(byte[] body) {
+        return body != null && body.length >= minBytes;
+    }
+
+    /**
+     * Writes an article's compressed body to a file of its own, leaving the file of the body it
+     * had before alone. The bytes go to a temporary file first, so a reader never sees a partly
+     * written body.
+     *
+     * @param articleId the id of the article.
+     * @param hash the hash of the body's html.
+     * @param body the compressed body.
+     * @return the name of the file, or null if it couldn't be written and the body should be
+     *         kept in the database instead.
+     */
+    String write(long articleId, String hash, byte[] body) {
+        String name = name(articleId, hash);
+        File file = new File(directory, name);
+        File temp = new File(directory, name + ".tmp");
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return null;
+            }
+
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                output.write(body);
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+
+            if (temp.renameTo(file)) {
+                return name;
+            }
+        } catch (IOException e) {
+            // fall through and keep the body in the database
+        }
+
+        temp.delete();
+        return null;
+    }
+
+    /**
+     * Reads and inflates a body, streaming it from the file rather than loading the compressed
+     * bytes first.
+     *
+     * @param name the name of the file, from write().
+     * @param length the length of the compressed body, used to size the buffer.
+     * @return the html, or null if the file is gone.
+     */
+    String read(String name, long length) {
+        InputStream input;
+        try {
+            input = new InflaterInputStream(new FileInputStream(new File(directory, name)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    (int) Math.min(Integer.MAX_VALUE / 4, Math.max(length, BUFFER_SIZE)) * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+
+            return new String(output.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            // a truncated or corrupt file is no better than a missing one
+            return null;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Deletes the provided files.
+     *
+     * @param names the names of the files, from write().
+     */
+    void delete(Collection<String> names) {
+        for (String name : names) {
+            new File(directory, name).delete();
+        }
+    }
+
+    /**
+     * Deletes the files that no content row points at, which a crash or a rolled back transaction
+     * can leave behind, along with any temporary files that were never renamed.
+     *
+     * @param referenced the names of the files that content rows point at.
+     * @param modifiedBefore files modified at or after this time, in milliseconds, are kept, since
+     *                       the row for one may not be committed yet.
+     * @return the number of files that were deleted.
+     */
+    int deleteUnreferenced(Set<String> referenced, long modifiedBefore) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        int deleted = 0;
+        for (File file : files) {
+            if (!referenced.contains(file.getName()) && file.lastModified() < modifiedBefore &&
+                    file.delete()) {
+                deleted++;
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Deletes every file in the store.
+     */
+    void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads model objects out of a cursor. The column names are matched up once, when the mapper is
+ * created, and every row after that is read straight from the column indexes. Use one mapper for
+ * all of the rows in a cursor, rather than a new model constructor for each row.
+ *
+ * @param <T> the type of model that the rows are read into.
+ */
+public abstract class CursorMapper<T> {
+
+    private final Cursor cursor;
+    private final Map<String, Integer> indexes;
+
+    protected CursorMapper(Cursor cursor) {
+        this.cursor = cursor;
+        this.indexes = new HashMap<>();
+
+        // when a join returns two columns with the same name, the last one wins, the same as it
+        // always has when the models were filled column by column
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            indexes.put(cursor.getColumnName(i), i);
+        }
+    }
+
+    /**
+     * Gets the index of a column in the cursor.
+     *
+     * @param column the name of the column.
+     * @return the index of the column, or -1 if the cursor doesn't have it.
+     */
+    protected int index(String column) {
+        Integer index = indexes.get(column);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Creates a blank model to read a row into.
+     */
+    protected abstract T create();
+
+    /**
+     * Fills the provided model from the current row of the cursor.
+     *
+     * @param model the model to fill.
+     * @param cursor the cursor, positioned on the row to read.
+     */
+    protected abstract void fill(T model, Cursor cursor);
+
+    /**
+     * Reads the row that the cursor is currently positioned on.
+     *
+     * @return the model for the row.
+     */
+    public T read() {
+        T model = create();
+        fill(model, cursor);
+        return model;
+    }
+
+    /**
+     * Reads every row after the current position of the cursor. Does not close the cursor.
+     *
+     * @return the models for each of the rows.
+     */
+    public List<T> readAll() {
+        List<T> models = new ArrayList<>(Math.max(0, cursor.getCount() - cursor.getPosition() - 1));
+        while (cursor.moveToNext()) {
+            models.add(read());
+        }
+
+        return models;
+    }
+}
@@ -19,37 +19,396 @@ package xyz.klinker.android.article.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.JsonReader;
 import androidx.annotation.VisibleForTesting;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import xyz.klinker.android.article.ArticleUtils;
+import xyz.klinker.android.article.data.DataSourceMetrics.Operation;
+import xyz.klinker.android.article.data.model.ArticleCountModel;
 import xyz.klinker.android.article.data.model.ArticleModel;
+import xyz.klinker.android.article.data.model.ArticleSearchModel;
 import xyz.klinker.android.article.data.model.CategoryModel;
 import xyz.klinker.android.article.data.model.ContentModel;
+import xyz.klinker.android.article.data.model.ContentSizeModel;
+import xyz.klinker.android.article.data.model.FailedUrlModel;
 import xyz.klinker.android.article.data.model.SourceModel;
 
 /**
  * Handles interactions with database models.
+ *
+ * A single instance is shared across the whole process so that every caller goes through the
+ * same connection pool. The database runs in write-ahead-log mode, which gives one primary
+ * connection that serializes all writes and a pool of reader connections that never wait on it.
  */
 public class DataSource {
 
+    private static final String INSERT_ARTICLE = "insert or ignore into " + ArticleModel.TABLE +
+            " (" +
+            ArticleModel.COLUMN_ALIAS + ", " +
+            ArticleModel.COLUMN_URL + ", " +
+            ArticleModel.COLUMN_TITLE + ", " +
+            ArticleModel.COLUMN_DESCRIPTION + ", " +
+            ArticleModel.COLUMN_IMAGE + ", " +
+            ArticleModel.COLUMN_AUTHOR + ", " +
+            ArticleModel.COLUMN_SOURCE + ", " +
+            ArticleModel.COLUMN_DOMAIN + ", " +
+            ArticleModel.COLUMN_DURATION + ", " +
+            ArticleModel.COLUMN_IS_ARTICLE + ", " +
+            ArticleModel.COLUMN_SAVED + ", " +
+            ArticleModel.COLUMN_SOURCE_ID + ", " +
+            ArticleModel.COLUMN_INSERTED_AT + ", " +
+            ArticleModel.COLUMN_LAST_ACCESSED_AT + ", " +
+            ArticleModel.COLUMN_URL_HASH +
+            ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_CONTENT = "insert into " + ContentModel.TABLE + " (" +
+            ContentModel.COLUMN_ARTICLE_ID + ", " +
+            ContentModel.COLUMN_CONTENT + ", " +
+            ContentModel.COLUMN_CONTENT_HASH + ", " +
+            ContentModel.COLUMN_CONTENT_PATH + ", " +
+            ContentModel.COLUMN_CONTENT_LENGTH + ", " +
+            ContentModel.COLUMN_SEARCH_TEXT +
+            ") values (?, ?, ?, ?, ?, ?)";
+
+    private static final String COUNT_CONTENT_BODIES = "select count(*) from " +
+            ContentModel.TABLE + " where " + ContentModel.COLUMN_CONTENT_HASH + "=? and " +
+            ContentModel.COLUMN_CONTENT + " not null";
+
+    private static final String COUNT_UNCHANGED_CONTENT = "select count(*) from " +
+            ContentModel.TABLE + " where " + ContentModel.COLUMN_ARTICLE_ID + "=? and " +
+            ContentModel.COLUMN_CONTENT_HASH + "=?";
+
+    // "is" rather than "=" so that a column that is still null counts as unchanged
+    private static final String COUNT_UNCHANGED_SEARCH_METADATA = "select count(*) from " +
+            ArticleModel.TABLE + " where " + ArticleModel.COLUMN_ID + "=? and " +
+            ArticleModel.COLUMN_TITLE + " is ? and " +
+            ArticleModel.COLUMN_DESCRIPTION + " is ? and " +
+            ArticleModel.COLUMN_AUTHOR + " is ?";
+
+    private static final String SELECT_ARTICLE = "select " +
+            "a." + ArticleModel.COLUMN_ID + " as " + ArticleModel.COLUMN_ID + ", " +
+            "a." + ArticleModel.COLUMN_ALIAS + " as " + ArticleModel.COLUMN_ALIAS + ", " +
+            "a." + ArticleModel.COLUMN_URL + " as " + ArticleModel.COLUMN_URL + ", " +
+            "a." + ArticleModel.COLUMN_TITLE + " as " + ArticleModel.COLUMN_TITLE + ", " +
+            "a." + ArticleModel.COLUMN_DESCRIPTION + " as " + ArticleModel.COLUMN_DESCRIPTION + ", " +
+            "a." + ArticleModel.COLUMN_IMAGE + " as " + ArticleModel.COLUMN_IMAGE + ", " +
+            "a." + ArticleModel.COLUMN_AUTHOR + " as " + ArticleModel.COLUMN_AUTHOR + ", " +
+            "a." + ArticleModel.COLUMN_SOURCE + " as " + ArticleModel.COLUMN_SOURCE + ", " +
+            "a." + ArticleModel.COLUMN_DOMAIN + " as " + ArticleModel.COLUMN_DOMAIN + ", " +
+            "a." + ArticleModel.COLUMN_DURATION + " as " + ArticleModel.COLUMN_DURATION + ", " +
+            "a." + ArticleModel.COLUMN_INSERTED_AT + " as " + ArticleModel.COLUMN_INSERTED_AT + ", " +
+            "a." + ArticleModel.COLUMN_IS_ARTICLE + " as " + ArticleModel.COLUMN_IS_ARTICLE + ", " +
+            "a." + ArticleModel.COLUMN_SAVED + " as " + ArticleModel.COLUMN_SAVED + ", " +
+            "a." + ArticleModel.COLUMN_LAST_ACCESSED_AT + " as " + ArticleModel.COLUMN_LAST_ACCESSED_AT + ", " +
+            "coalesce(c." + ContentModel.COLUMN_CONTENT + ", (select b." + ContentModel.COLUMN_CONTENT +
+            " from " + ContentModel.TABLE + " b where b." + ContentModel.COLUMN_CONTENT_HASH +
+            " = c." + ContentModel.COLUMN_CONTENT_HASH + " and b." + ContentModel.COLUMN_CONTENT +
+            " not null limit 1)) as " + ContentModel.COLUMN_CONTENT + ", " +
+            "c." + ContentModel.COLUMN_CONTENT_PATH + " as " + ContentModel.COLUMN_CONTENT_PATH + ", " +
+            "c." + ContentModel.COLUMN_CONTENT_LENGTH + " as " + ContentModel.COLUMN_CONTENT_LENGTH + " " +
+            "from " + ArticleModel.TABLE + " a left outer join " + ContentModel.TABLE + " c " +
+            "on a." + ArticleModel.COLUMN_ID + " = c." + ContentModel.COLUMN_ARTICLE_ID + " ";
+
+    // the url is only compared against the row that the hash finds, the unary + keeps sqlite from
+    // picking the larger url index for it instead
+    private static final String GET_ARTICLE = SELECT_ARTICLE + "where a." +
+            ArticleModel.COLUMN_URL_HASH + "=? and +a." + ArticleModel.COLUMN_URL + "=?";
+
+    // for while the urls stored before the hash was added are still being hashed
+    private static final String GET_ARTICLE_BY_URL = SELECT_ARTICLE + "where a." +
+            ArticleModel.COLUMN_URL + "=?";
+
+    private static final String UPDATE_SAVED = "update " + ArticleModel.TABLE + " set " +
+            ArticleModel.COLUMN_SAVED + "=? where " + ArticleModel.COLUMN_ID + "=?";
+
+    private static final String UPDATE_INSERTED_AT = "update " + ArticleModel.TABLE + " set " +
+            ArticleModel.COLUMN_INSERTED_AT + "=? where " + ArticleModel.COLUMN_ID + "=?";
+
+    private static final String UPDATE_LAST_ACCESSED_AT = "update " + ArticleModel.TABLE +
+            " set " + ArticleModel.COLUMN_LAST_ACCESSED_AT + "=? where " + ArticleModel.COLUMN_ID + "=?";
+
+    private static final String UPDATE_CONTENT = "update " + ContentModel.TABLE + " set " +
+            ContentModel.COLUMN_CONTENT + "=?, " + ContentModel.COLUMN_CONTENT_HASH + "=?, " +
+            ContentModel.COLUMN_CONTENT_PATH + "=?, " + ContentModel.COLUMN_CONTENT_LENGTH + "=?, " +
+            ContentModel.COLUMN_SEARCH_TEXT + "=? where " + ContentModel.COLUMN_ARTICLE_ID + "=?";
+
+    // the body for one article, from its own row, another row that shares it, or its file
+    private static final String GET_CONTENT = "select coalesce(c." +
+            ContentModel.COLUMN_CONTENT + ", (select b." + ContentModel.COLUMN_CONTENT + " from " +
+            ContentModel.TABLE + " b where b." + ContentModel.COLUMN_CONTENT_HASH + " = c." +
+            ContentModel.COLUMN_CONTENT_HASH + " and b." + ContentModel.COLUMN_CONTENT +
+            " not null limit 1)), c." + ContentModel.COLUMN_CONTENT_PATH + ", c." +
+            ContentModel.COLUMN_CONTENT_LENGTH + " from " + ContentModel.TABLE + " c where c." +
+            ContentModel.COLUMN_ARTICLE_ID + "=?";
+
+    // the search table reads the text it indexed back from the article and content rows, so a
+    // row is deleted before that text changes and indexed again afterwards, see ArticleSearchModel
+    private static final String DELETE_SEARCH = "delete from " + ArticleSearchModel.TABLE +
+            " where " + ArticleSearchModel.COLUMN_DOCID + "=?";
+
+    private static final String INDEX_SEARCH = ArticleSearchModel.getIndexStatement("rowid=?");
+
+    private static final String GET_ARTICLE_ID = "select " + ArticleModel.COLUMN_ID + " from " +
+            ArticleModel.TABLE + " where " + ArticleModel.COLUMN_URL + "=?";
+
+    // the saved state and insert time belong to the user's copy, a fresh download doesn't reset them
+    private static final String UPDATE_ARTICLE_METADATA = "update " + ArticleModel.TABLE + " set " +
+            ArticleModel.COLUMN_ALIAS + "=?, " +
+            ArticleModel.COLUMN_TITLE + "=?, " +
+            ArticleModel.COLUMN_DESCRIPTION + "=?, " +
+            ArticleModel.COLUMN_IMAGE + "=?, " +
+            ArticleModel.COLUMN_AUTHOR + "=?, " +
+            ArticleModel.COLUMN_SOURCE + "=?, " +
+            ArticleModel.COLUMN_DOMAIN + "=?, " +
+            ArticleModel.COLUMN_DURATION + "=?, " +
+            ArticleModel.COLUMN_IS_ARTICLE + "=?, " +
+            ArticleModel.COLUMN_SOURCE_ID + "=coalesce(?, " + ArticleModel.COLUMN_SOURCE_ID + ") " +
+            "where " + ArticleModel.COLUMN_ID + "=?";
+
+    private static final String INSERT_CATEGORY = "insert into " + CategoryModel.TABLE + " (" +
+            CategoryModel.COLUMN_NAME + ") values (?)";
+
+    private static final String INSERT_SOURCE = "insert into " + SourceModel.TABLE + " (" +
+            SourceModel.COLUMN_REMOTE_ID + ", " +
+            SourceModel.COLUMN_NAME + ", " +
+            SourceModel.COLUMN_IMAGE_URL + ", " +
+            SourceModel.COLUMN_CATEGORY_ID +
+            ") values (?, ?, ?, ?)";
+
+    private static final String UPDATE_SOURCE = "update " + SourceModel.TABLE + " set " +
+            SourceModel.COLUMN_NAME + "=?, " +
+            SourceModel.COLUMN_IMAGE_URL + "=?, " +
+            SourceModel.COLUMN_CATEGORY_ID + "=? " +
+            "where " + SourceModel.COLUMN_ID + "=?";
+
+    private static final String DELETE_SOURCE = "delete from " + SourceModel.TABLE + " where " +
+            SourceModel.COLUMN_ID + "=?";
+
+    private static final String INSERT_FAILED_URL = "insert or replace into " +
+            FailedUrlModel.TABLE + " (" +
+            FailedUrlModel.COLUMN_URL + ", " +
+            FailedUrlModel.COLUMN_NOT_ARTICLE + ", " +
+            FailedUrlModel.COLUMN_FAILURES + ", " +
+            FailedUrlModel.COLUMN_RETRY_AT +
+            ") values (?, ?, ?, ?)";
+
+    private static final String DELETE_FAILED_URL = "delete from " + FailedUrlModel.TABLE +
+            " where " + FailedUrlModel.COLUMN_URL + "=?";
+
+    private static final String SEARCH_RANK = "search_rank";
+
+    // the inner select ranks every match and keeps one page of them, only the rows on that page
+    // have their article and snippet read. SearchIndex builds the rank, the page is added after.
+    private static final String SEARCH_PAGE_START = "select a.*, snippet(" +
+            ArticleSearchModel.TABLE + ", '<b>', '</b>', '...', -1, 15) as snippet, p." +
+            SEARCH_RANK + " as " + SEARCH_RANK + " from (select " +
+            ArticleSearchModel.COLUMN_DOCID + ", ";
+
+    private static final String SEARCH_PAGE_RANKED = " as " + SEARCH_RANK + " from " +
+            ArticleSearchModel.TABLE + " where " + ArticleSearchModel.TABLE + " match ?1 " +
+            "order by " + SEARCH_RANK + " desc, " + ArticleSearchModel.COLUMN_DOCID + " desc";
+
+    private static final String SEARCH_PAGE_END = ") p join " + ArticleSearchModel.TABLE +
+            " s on s." + ArticleSearchModel.COLUMN_DOCID + " = p." +
+            ArticleSearchModel.COLUMN_DOCID + " join " + ArticleModel.TABLE + " a on a." +
+            ArticleModel.COLUMN_ID + " = p." + ArticleSearchModel.COLUMN_DOCID + " where " +
+            ArticleSearchModel.TABLE + " match ?1 order by p." + SEARCH_RANK + " desc, p." +
+            ArticleSearchModel.COLUMN_DOCID + " desc";
+
+    @VisibleForTesting
+    static final String ARTICLE_SOURCE_JOIN = ArticleModel.TABLE + " a left outer join " +
+            SourceModel.TABLE + " s on a." + ArticleModel.COLUMN_SOURCE_ID + " = s." +
+            SourceModel.COLUMN_REMOTE_ID;
+
+    // only what a row in an article list shows, see ArticleSummary
+    private static final String[] ARTICLE_SUMMARY_COLUMNS = new String[] {
+            "a." + ArticleModel.COLUMN_ID,
+            "a." + ArticleModel.COLUMN_URL,
+            "a." + ArticleModel.COLUMN_TITLE,
+            "a." + ArticleModel.COLUMN_IMAGE,
+            "a." + ArticleModel.COLUMN_DOMAIN,
+            "s." + SourceModel.COLUMN_NAME,
+            "a." + ArticleModel.COLUMN_INSERTED_AT,
+            "a." + ArticleModel.COLUMN_SAVED
+    };
+
+    private static final String ARTICLE_PAGE = "select a.*, s." + SourceModel.COLUMN_NAME +
+            ", s." + SourceModel.COLUMN_IMAGE_URL + " from " + ARTICLE_SOURCE_JOIN + " where ";
+
+    // the inserted_at <= ? bound lets the list indexes seek straight to the start of the page,
+    // the rest only has to skip past the articles that share a timestamp with the last one
+    private static final String ARTICLE_PAGE_AFTER = " and a." + ArticleModel.COLUMN_INSERTED_AT +
+            " <= ? and (a." + ArticleModel.COLUMN_INSERTED_AT + " < ? or a." +
+            ArticleModel.COLUMN_ID + " < ?)";
+
+    private static final String ARTICLE_PAGE_ORDER = " order by a." +
+            ArticleModel.COLUMN_INSERTED_AT + " desc, a." + ArticleModel.COLUMN_ID + " desc limit ";
+
+    // whole hours after the start of the window come from the bucketed counts, only the articles
+    // in the partial hour that it starts in are counted one by one
+    private static final String CATEGORY_COUNTS = "select c." + CategoryModel.COLUMN_ID + ", c." +
+            CategoryModel.COLUMN_NAME + " as " + CategoryModel.COLUMN_NAME + ", sum(t.n) as count " +
+            "from (select " + ArticleCountModel.COLUMN_SOURCE_ID + ", " +
+            ArticleCountModel.COLUMN_COUNT + " as n from " + ArticleCountModel.TABLE + " where " +
+            ArticleCountModel.COLUMN_HOUR + " > ? union all select " +
+            ArticleModel.COLUMN_SOURCE_ID + ", 1 as n from " + ArticleModel.TABLE + " where " +
+            ArticleModel.COLUMN_INSERTED_AT + " > ? and " + ArticleModel.COLUMN_INSERTED_AT +
+            " < ? and " + ArticleModel.COLUMN_SOURCE_ID + " not null) t join " + SourceModel.TABLE +
+            " s on t." + ArticleCountModel.COLUMN_SOURCE_ID + " = s." + SourceModel.COLUMN_REMOTE_ID +
+            " join " + CategoryModel.TABLE + " c on s." + SourceModel.COLUMN_CATEGORY_ID + " = c." +
+            CategoryModel.COLUMN_ID + " group by c." + CategoryModel.COLUMN_ID + " order by count desc";
+
+    // the buckets and the articles in each window's partial hour, for counting several windows at
+    // once. Article rows carry their timestamp, bucket rows leave it null.
+    private static final String CATEGORY_WINDOW_ROWS = " from (select " +
+            ArticleCountModel.COLUMN_SOURCE_ID + ", " + ArticleCountModel.COLUMN_HOUR + ", " +
+            ArticleCountModel.COLUMN_COUNT + " as n, null as at from " + ArticleCountModel.TABLE +
+            " where " + ArticleCountModel.COLUMN_HOUR + " > ? union all select " +
+            ArticleModel.COLUMN_SOURCE_ID + ", " + ArticleModel.COLUMN_INSERTED_AT + " / " +
+            ArticleCountModel.BUCKET_MILLIS + ", 1, " + ArticleModel.COLUMN_INSERTED_AT + " from " +
+            ArticleModel.TABLE + " where " + ArticleModel.COLUMN_SOURCE_ID + " not null and (";
+
+    private static final String CATEGORY_WINDOW_GROUP = ")) t join " + SourceModel.TABLE +
+            " s on t." + ArticleCountModel.COLUMN_SOURCE_ID + " = s." + SourceModel.COLUMN_REMOTE_ID +
+            " join " + CategoryModel.TABLE + " c on s." + SourceModel.COLUMN_CATEGORY_ID + " = c." +
+            CategoryModel.COLUMN_ID + " group by c." + CategoryModel.COLUMN_ID;
+
+    private static final Comparator<Category> CATEGORY_COUNT_ORDER = new Comparator<Category>() {
+        @Override
+        public int compare(Category first, Category second) {
+            return second.numberArticles - first.numberArticles;
+        }
+    };
+
+    // the least recently read articles come first, saved ones are never evicted
+    private static final String EVICTION_ORDER = " order by a." +
+            ArticleModel.COLUMN_LAST_ACCESSED_AT + ", a." + ArticleModel.COLUMN_INSERTED_AT +
+            " limit ";
+
+    // reading an article only bumps its access time when the stored one is older than this, so
+    // that opening the same article again and again doesn't cause a write every time
+    private static final long ACCESS_TIME_GRANULARITY = 60 * 60 * 1000;
+
+    // access times are held in memory, once this many articles' are waiting they are written out
+    // on a background thread rather than growing until the next eviction
+    private static final int ACCESS_TIME_FLUSH_SIZE = 100;
+
+    private static final int EVICTION_BATCH_SIZE = 50;
+
+    // body files modified within this long before the database was opened might belong to a
+    // write that hasn't committed yet, file systems can also round modification times down
+    private static final long ORPHANED_FILE_MIN_AGE = 10 * 1000;
+
+    // reclaiming starts out with small steps, then sizes each one from how long the last took
+    private static final int RECLAIM_FIRST_STEP_PAGES = 16;
+    private static final int RECLAIM_MAX_STEP_PAGES = 4096;
+
+    // how many articles an export reads, or an import writes in one transaction, at a time
+    private static final int ARCHIVE_BATCH_SIZE = 50;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // keeps each delete statement's id list well within sqlite's statement length limit
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    private static final String[] ARTICLE_TABLES = new String[] {
+            ArticleModel.TABLE, ContentModel.TABLE, ArticleSearchModel.TABLE
+    };
+
+    private static final String[] METRICS_TABLES = new String[] {
+            ArticleModel.TABLE, ContentModel.TABLE, SourceModel.TABLE, CategoryModel.TABLE,
+            ArticleCountModel.TABLE
+    };
+
+    private static volatile DataSource instance;
+
     protected Context context;
-    private SQLiteDatabase database;
+    private volatile SQLiteDatabase database;
     private DatabaseSQLiteHelper dbHelper;
     private AtomicInteger openCounter = new AtomicInteger();
+    private final StatementCache statements = new StatementCache();
+
+    private volatile long maxContentBytes = 0;
+    private volatile int maxArticles = 0;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final AtomicBoolean orphanedFilesChecked = new AtomicBoolean();
+    private volatile ContentFileStore contentFiles;
+    private final ArticleCache articleCache = new ArticleCache(ArticleCache.DEFAULT_MAX_BYTES);
+    private final FailedUrls failedUrls = new FailedUrls();
+
+    private final InvalidationTracker invalidationTracker = new InvalidationTracker();
+    private final DataSourceMetrics metrics = new DataSourceMetrics();
+    // each thread's transaction commits or rolls back on its own, so the tables written inside
+    // one are held for that thread alone
+    private final ThreadLocal<Set<String>> pendingInvalidations =
+            new ThreadLocal<Set<String>>() {
+                @Override
+                protected Set<String> initialValue() {
+                    return new HashSet<>();
+                }
+            };
+    private final Map<Long, Long> pendingAccessTimes = new HashMap<>();
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<>();
 
     /**
-     * Gets a new instance of the DataSource.
+     * Gets the process wide instance of the DataSource.
      *
      * @param context the current application instance.
      * @return the data source.
      */
     public static DataSource get(Context context) {
-        return new DataSource(context);
+        DataSource source = instance;
+        if (source == null) {
+            synchronized (DataSource.class) {
+                source = instance;
+                if (source == null) {
+                    source = new DataSource(context.getApplicationContext());
+                    instance = source;
+                }
+            }
+        }
+
+        return source;
+    }
+
+    /**
+     * Closes and forgets the shared instance, so that the next call to get() creates a new one.
+     */
+    @VisibleForTesting
+    static synchronized void resetInstance() {
+        if (instance != null) {
+            if (instance.isOpen()) {
+                instance.statements.clear();
+                instance.dbHelper.close();
+            }
+
+            instance.openCounter.set(0);
+            instance = null;
+        }
     }
 
     /**
@@ -60,6 +419,11 @@ public class DataSource {
     private DataSource(Context context) {
         this.context = context;
         this.dbHelper = new DatabaseSQLiteHelper(context);
+        this.contentFiles = new ContentFileStore(context.getCacheDir(),
+                ContentFileStore.DEFAULT_MIN_BYTES);
+
+        // gives the cached articles back when the system runs low on memory
+        context.registerComponentCallbacks(articleCache);
     }
 
     /**
@@ -83,12 +447,54 @@ public class DataSource {
     }
 
     /**
-     * Opens the database.
+     * Sets where bodies that are too large for the database are written. Without one, which is
+     * the case for the testing constructors, every body is kept in the database.
+     *
+     * @param contentFiles the store for large bodies, or null to keep them all in the database.
+     */
+    @VisibleForTesting
+    void setContentFileStore(ContentFileStore contentFiles) {
+        this.contentFiles = contentFiles;
+    }
+
+    /**
+     * Opens the database. Every call should be balanced with a call to close(), the connection
+     * is only released once all of the callers in the process have closed it.
      */
     public synchronized void open() {
         if (openCounter.incrementAndGet() == 1) {
             database = dbHelper.getWritableDatabase();
+            deleteOrphanedContentFilesInBackground();
+        }
+    }
+
+    /**
+     * Deletes the body files that no content row points at on a background thread, once per
+     * instance. Those are left behind when the process dies between writing a file and
+     * committing its row, or by writes made inside a transaction that was begun on the database
+     * directly rather than through beginTransaction().
+     */
+    private void deleteOrphanedContentFilesInBackground() {
+        final ContentFileStore files = contentFiles;
+        if (files == null || !orphanedFilesChecked.compareAndSet(false, true)) {
+            return;
         }
+
+        final long modifiedBefore = System.currentTimeMillis() - ORPHANED_FILE_MIN_AGE;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // hold the connection open, the caller may close it while we are still working
+                open();
+
+                try {
+                    Set<String> referenced = new HashSet<>(queryContentFiles("1", null));
+                    files.deleteUnreferenced(referenced, modifiedBefore);
+                } finally {
+                    close();
+                }
+            }
+        }).start();
     }
 
     /**
@@ -103,6 +509,8 @@ public class DataSource {
      */
     public synchronized void close() {
         if (openCounter.decrementAndGet() == 0) {
+            flushAccessTimes();
+            statements.clear();
             dbHelper.close();
         }
     }
@@ -117,254 +525,1729 @@ public class DataSource {
         return database;
     }
 
+    /**
+     * Gets the number of times a compiled statement was reused instead of being compiled again.
+     */
+    public long getStatementCacheHits() {
+        return statements.getHitCount();
+    }
+
+    /**
+     * Gets the number of times a statement had to be compiled.
+     */
+    public long getStatementCacheMisses() {
+        return statements.getMissCount();
+    }
+
+    /**
+     * Sets how much memory the cache of recently read articles can use. getArticle() answers
+     * from it without going to the database, until the article is written again.
+     *
+     * @param maxBytes roughly the most bytes of articles to keep in memory, or 0 to turn the
+     *                 cache off.
+     */
+    public void setArticleCacheSize(long maxBytes) {
+        articleCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Gets the number of times getArticle() was answered from the cache of recently read
+     * articles.
+     */
+    public long getArticleCacheHits() {
+        return articleCache.getHitCount();
+    }
+
+    /**
+     * Gets the number of times getArticle() had to go to the database.
+     */
+    public long getArticleCacheMisses() {
+        return articleCache.getMissCount();
+    }
+
+    /**
+     * Gets the timings for the database operations, where a listener can be set to forward each
+     * one to the app's telemetry.
+     *
+     * The methods that hand back a Cursor aren't timed. Their query runs when the cursor is first
+     * read, which happens outside of the DataSource.
+     */
+    public DataSourceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the operation timings along with the number of rows in each table and the size of the
+     * database. The row counts go through every table, so don't call this on the main thread.
+     */
+    public DataSourceMetrics.Snapshot getMetricsSnapshot() {
+        Map<String, Long> tableRows = new HashMap<>();
+        for (String table : METRICS_TABLES) {
+            tableRows.put(table, queryLong("select count(*) from " + table));
+        }
+
+        long pageSize = queryLong("pragma page_size");
+        long databaseBytes = queryLong("pragma page_count") * pageSize;
+        long freeBytes = queryLong("pragma freelist_count") * pageSize;
+        return metrics.snapshot(tableRows, databaseBytes, freeBytes);
+    }
+
+    private long queryLong(String sql) {
+        Cursor cursor = database.rawQuery(sql, null);
+        long value = 0;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                value = cursor.getLong(0);
+            }
+
+            cursor.close();
+        }
+
+        return value;
+    }
+
+    /**
+     * Gets the tracker that is told about every write made through this DataSource.
+     */
+    public InvalidationTracker getInvalidationTracker() {
+        return invalidationTracker;
+    }
+
+    /**
+     * Publishes the tables that a write touched. Inside a transaction that was started with
+     * beginTransaction(), they are held until the outermost transaction on the same thread
+     * commits, so that observers don't query for the changes before they are visible, and they
+     * are dropped if it rolls back.
+     */
+    private void invalidate(String... tables) {
+        if (!invalidationTracker.hasObservers()) {
+            return;
+        }
+
+        Set<String> pending = pendingInvalidations.get();
+        pending.addAll(Arrays.asList(tables));
+        if (pending.isEmpty() || database.inTransaction()) {
+            return;
+        }
+
+        Set<String> invalidated = new HashSet<>(pending);
+        pending.clear();
+        invalidationTracker.notifyInvalidated(invalidated);
+    }
+
     /**
      * Deletes all data from the tables.
      */
     public void clearTables() {
+        // inside a transaction, a rollback would bring the rows back, so only the files that they
+        // point at are deleted, and only once it commits
+        ContentFileStore files = contentFiles;
+        boolean inTransaction = database.inTransaction();
+        if (files != null && inTransaction) {
+            deleteAfterCommit(queryContentFiles("1", null));
+        }
+
+        database.delete(ArticleSearchModel.TABLE, null, null);
         database.delete(ContentModel.TABLE, null, null);
         database.delete(ArticleModel.TABLE, null, null);
         database.delete(CategoryModel.TABLE, null, null);
         database.delete(SourceModel.TABLE, null, null);
+        database.delete(FailedUrlModel.TABLE, null, null);
+        failedUrls.clear();
+
+        if (files != null && !inTransaction) {
+            files.clear();
+        }
+
+        articleCache.clear();
+        invalidate(ArticleSearchModel.TABLE, ContentModel.TABLE, ArticleModel.TABLE,
+                CategoryModel.TABLE, SourceModel.TABLE);
+    }
+
+    /**
+     * Begins a bulk transaction on the database. The files of the bodies that writes inside it
+     * replace or delete are only removed once it commits.
+     */
+    public void beginTransaction() {
+        begin();
+    }
+
+    /**
+     * Executes a raw sql statement on the database. Can be used in conjunction with
+     * beginTransaction and endTransaction if bulk. Writes made here aren't published to the
+     * invalidation tracker, so call its notifyInvalidated() with the tables that were changed.
+     * They do drop the cache of recently read articles, since any of them could have changed.
+     *
+     * @param sql the sql statement.
+     */
+    public void execSql(String sql) {
+        database.execSQL(sql);
+        articleCache.clear();
+    }
+
+    /**
+     * Execute a raw sql query on the database.
+     *
+     * @param sql the sql statement
+     * @return cursor for the data
+     */
+    public Cursor rawQuery(String sql) {
+        return database.rawQuery(sql, null);
+    }
+
+    /**
+     * Sets the transaction into a successful state so that it can be committed to the database.
+     * Should be used in conjunction with beginTransaction() and endTransaction().
+     */
+    public void setTransactionSuccessful() {
+        markSuccessful();
+    }
+
+    /**
+     * Ends a bulk transaction on the database.
+     */
+    public void endTransaction() {
+        end();
+
+        // the cached articles were only dropped as the writes were made, so a read in between
+        // could have cached what was there before they were committed
+        articleCache.clear();
+
+        // publish anything that was held back while the transaction was open
+        invalidate();
+    }
+
+    // every transaction goes through these three, so that the body files that its writes replaced
+    // are only deleted once the outermost one commits, and the files it wrote if it rolls back
+    private void begin() {
+        boolean inTransaction = database.inTransaction();
+        database.beginTransaction();
+
+        Transaction transaction = transactions.get();
+        if (transaction == null) {
+            transaction = new Transaction(inTransaction);
+            transactions.set(transaction);
+        }
+
+        transaction.begin();
+    }
+
+    private void markSuccessful() {
+        database.setTransactionSuccessful();
+
+        Transaction transaction = transactions.get();
+        if (transaction != null) {
+            transaction.markSuccessful();
+        }
+    }
+
+    private void end() {
+        Transaction transaction = transactions.get();
+        if (transaction == null || !transaction.end()) {
+            database.endTransaction();
+            return;
+        }
+
+        transactions.remove();
+        boolean committed = false;
+        try {
+            database.endTransaction();
+            committed = transaction.isSuccessful();
+        } finally {
+            // the outcome of a transaction begun on the database directly can't be seen from
+            // here, so its files are left to the sweep in deleteOrphanedContentFilesInBackground()
+            if (!transaction.untracked) {
+                deleteContentFiles(committed ? transaction.replaced : transaction.written);
+                if (!committed) {
+                    pendingInvalidations.get().clear();
+                }
+            }
+        }
+    }
+
+    // the files that the rows pointed at before a write, to delete once the write commits
+    private void deleteAfterCommit(List<String> names) {
+        Transaction transaction = transactions.get();
+        if (transaction != null) {
+            transaction.replaced.addAll(names);
+        } else if (!database.inTransaction()) {
+            deleteContentFiles(names);
+        }
+    }
+
+    // a file that a write just made, to delete if the write rolls back
+    private void deleteAfterRollback(String name) {
+        Transaction transaction = transactions.get();
+        if (name != null && transaction != null) {
+            transaction.written.add(name);
+        }
+    }
+
+    /**
+     * Inserts a single article into the database for caching purposes.
+     *
+     * @return the id of the inserted item.
+     */
+    public long insertArticle(Article article) {
+        long start = System.nanoTime();
+        // remove any extra query parameters from the url
+        article.url = ArticleUtils.removeUrlParameters(article.url);
+
+        ContentValues values = new ContentValues(15);
+        values.put(ArticleModel.COLUMN_ALIAS, article.alias);
+        values.put(ArticleModel.COLUMN_URL, article.url);
+        if (article.url != null) {
+            values.put(ArticleModel.COLUMN_URL_HASH, UrlHasher.hash(article.url));
+        }
+        values.put(ArticleModel.COLUMN_TITLE, article.title);
+        values.put(ArticleModel.COLUMN_DESCRIPTION, article.description);
+        values.put(ArticleModel.COLUMN_IMAGE, article.image);
+        values.put(ArticleModel.COLUMN_AUTHOR, article.author);
+        values.put(ArticleModel.COLUMN_SOURCE, article.source);
+        values.put(ArticleModel.COLUMN_DOMAIN, article.domain);
+        values.put(ArticleModel.COLUMN_DURATION, article.duration);
+        values.put(ArticleModel.COLUMN_IS_ARTICLE, article.isArticle);
+        values.put(ArticleModel.COLUMN_SAVED, article.saved);
+        values.put(ArticleModel.COLUMN_SOURCE_ID, article.sourceId);
+        if (article.insertedAt == 0) {
+            values.put(ArticleModel.COLUMN_INSERTED_AT, System.currentTimeMillis());
+        } else {
+            values.put(ArticleModel.COLUMN_INSERTED_AT, article.insertedAt);
+        }
+        values.put(ArticleModel.COLUMN_LAST_ACCESSED_AT, System.currentTimeMillis());
+
+        // the article, its content and its search row are written together, so that an article
+        // is never left without its content
+        long id;
+        begin();
+        try {
+            id = database.insert(ArticleModel.TABLE, null, values);
+            if (id != -1) {
+                String hash = ContentCompressor.hash(article.content);
+                byte[] content = storedContent(article.content, hash);
+                String path = writeContentFile(id, hash, content);
+                deleteAfterRollback(path);
+
+                values = new ContentValues(6);
+                values.put(ContentModel.COLUMN_ARTICLE_ID, id);
+                values.put(ContentModel.COLUMN_CONTENT_HASH, hash);
+                values.put(ContentModel.COLUMN_SEARCH_TEXT, SearchIndex.plainText(article.content));
+                if (path == null) {
+                    values.put(ContentModel.COLUMN_CONTENT, content);
+                } else {
+                    values.put(ContentModel.COLUMN_CONTENT_PATH, path);
+                    values.put(ContentModel.COLUMN_CONTENT_LENGTH, content.length);
+                }
+
+                database.insertOrThrow(ContentModel.TABLE, null, values);
+                indexSearch(id);
+            }
+
+            markSuccessful();
+        } finally {
+            end();
+        }
+
+        if (id == -1) {
+            // the url is already stored, so nothing was written
+            metrics.record(Operation.INSERT, start);
+            return id;
+        }
+
+        articleCache.remove(article.url);
+        if (article.content != null) {
+            forgetFailedUrl(article.url);
+        }
+
+        invalidate(ARTICLE_TABLES);
+        evictInBackgroundIfNeeded();
+        metrics.record(Operation.INSERT, start);
+        return id;
+    }
+
+    /**
+     * Inserts a batch of articles and their content inside a single transaction. The insert
+     * statements are compiled once per batch and rebound for every row, so this is much cheaper
+     * than calling insertArticle() in a loop when caching a whole feed.
+     *
+     * @param articles the articles to insert.
+     * @return the ids of the inserted articles, in iteration order. An article whose url is
+     *         already stored gets an id of -1.
+     */
+    public long[] insertArticles(Collection<Article> articles) {
+        long start = System.nanoTime();
+        long[] ids = new long[articles.size()];
+        long now = System.currentTimeMillis();
+
+        // compiled for this batch alone and closed once it is done, so the cache's copies stay
+        // free for the single writes that run alongside it
+        SQLiteStatement articleStatement = database.compileStatement(INSERT_ARTICLE);
+        SQLiteStatement contentStatement = database.compileStatement(INSERT_CONTENT);
+        SQLiteStatement searchStatement = database.compileStatement(INDEX_SEARCH);
+
+        begin();
+        try {
+            int i = 0;
+            for (Article article : articles) {
+                // remove any extra query parameters from the url
+                article.url = ArticleUtils.removeUrlParameters(article.url);
+
+                bindArticle(articleStatement, article, now);
+                long id = articleStatement.executeInsert();
+
+                if (id != -1) {
+                    String hash = ContentCompressor.hash(article.content);
+                    byte[] content = storedContent(article.content, hash);
+                    String path = writeContentFile(id, hash, content);
+                    deleteAfterRollback(path);
+
+                    contentStatement.bindLong(1, id);
+                    bindContent(contentStatement, 2, content, hash, path,
+                            SearchIndex.plainText(article.content));
+                    contentStatement.executeInsert();
+
+                    searchStatement.bindLong(1, id);
+                    searchStatement.executeInsert();
+                }
+
+                ids[i++] = id;
+            }
+
+            markSuccessful();
+        } finally {
+            end();
+            articleStatement.close();
+            contentStatement.close();
+            searchStatement.close();
+        }
+
+        int i = 0;
+        for (Article article : articles) {
+            if (ids[i++] != -1 && article.content != null) {
+                forgetFailedUrl(article.url);
+            }
+        }
+
+        invalidate(ARTICLE_TABLES);
+        evictInBackgroundIfNeeded();
+        metrics.record(Operation.INSERT, start);
+        return ids;
+    }
+
+    /**
+     * Stores a freshly downloaded article, whether or not its url is already in the database.
+     *
+     * A new url is inserted along with its content. For a url that is already stored, the
+     * metadata and content are replaced, but its saved state and insert time are kept. Both
+     * happen inside one transaction, so two loads of the same url racing each other end up with
+     * a single article that has its content, rather than a constraint failure or an article
+     * without a content row.
+     *
+     * @param article the article to store. The url will have its query parameters removed.
+     * @return the id of the stored article.
+     */
+    public long upsertArticle(Article article) {
+        long start = System.nanoTime();
+        // remove any extra query parameters from the url
+        article.url = ArticleUtils.removeUrlParameters(article.url);
+
+        String hash = ContentCompressor.hash(article.content);
+        long now = System.currentTimeMillis();
+        long id;
+
+        begin();
+        try {
+            SQLiteStatement statement = statements.acquire(database, INSERT_ARTICLE);
+            try {
+                bindArticle(statement, article, now);
+                id = statement.executeInsert();
+            } finally {
+                statements.release(INSERT_ARTICLE, statement);
+            }
+
+            boolean inserted = id != -1;
+            boolean searchChanged = true;
+            if (!inserted) {
+                statement = statements.acquire(database, GET_ARTICLE_ID);
+                try {
+                    statement.bindString(1, article.url);
+                    id = statement.simpleQueryForLong();
+                } finally {
+                    statements.release(GET_ARTICLE_ID, statement);
+                }
+
+                searchChanged = !isSearchMetadataUnchanged(id, article);
+            }
+
+            // the same body as the one already stored leaves the content alone, only the metadata
+            // below is rewritten
+            boolean contentChanged = !isContentUnchanged(id, hash);
+
+            // the search row indexes the title, description and author as well as the body, so it
+            // is written again when either of them changes
+            if (!inserted && (searchChanged || contentChanged)) {
+                deleteSearch(id);
+            }
+
+            if (!inserted) {
+                statement = statements.acquire(database, UPDATE_ARTICLE_METADATA);
+                try {
+                    bindArticleMetadata(statement, article);
+                    statement.bindLong(11, id);
+                    statement.executeUpdateDelete();
+                } finally {
+                    statements.release(UPDATE_ARTICLE_METADATA, statement);
+                }
+            }
+
+            if (contentChanged) {
+                byte[] content = storedContent(article.content, hash);
+                String text = SearchIndex.plainText(article.content);
+                deleteAfterCommit(queryContentFiles(ContentModel.COLUMN_ARTICLE_ID + "=" + id,
+                        null));
+                String path = writeContentFile(id, hash, content);
+                deleteAfterRollback(path);
+
+                int updated;
+                statement = statements.acquire(database, UPDATE_CONTENT);
+                try {
+                    bindContent(statement, 1, content, hash, path, text);
+                    statement.bindLong(6, id);
+                    updated = statement.executeUpdateDelete();
+                } finally {
+                    statements.release(UPDATE_CONTENT, statement);
+                }
+
+                if (updated == 0) {
+                    statement = statements.acquire(database, INSERT_CONTENT);
+                    try {
+                        statement.bindLong(1, id);
+                        bindContent(statement, 2, content, hash, path, text);
+                        statement.executeInsert();
+                    } finally {
+                        statements.release(INSERT_CONTENT, statement);
+                    }
+                }
+            }
+
+            if (searchChanged || contentChanged) {
+                indexSearch(id);
+            }
+
+            markSuccessful();
+        } finally {
+            end();
+        }
+
+        articleCache.remove(article.url);
+        if (article.content != null) {
+            forgetFailedUrl(article.url);
+        }
+
+        invalidate(ARTICLE_TABLES);
+        evictInBackgroundIfNeeded();
+        metrics.record(Operation.INSERT, start);
+        return id;
+    }
+
+    /**
+     * Gets the compressed body to store for some content.
+     *
+     * @param content the html to store.
+     * @param hash the hash of the html.
+     * @return the compressed html, or null when another row already holds the same body and this
+     *         one can share it.
+     */
+    private byte[] storedContent(String content, String hash) {
+        if (hash == null) {
+            return null;
+        }
+
+        long bodies;
+        SQLiteStatement statement = statements.acquire(database, COUNT_CONTENT_BODIES);
+        try {
+            statement.bindString(1, hash);
+            bodies = statement.simpleQueryForLong();
+        } finally {
+            statements.release(COUNT_CONTENT_BODIES, statement);
+        }
+
+        return bodies > 0 ? null : ContentCompressor.compress(content);
+    }
+
+    /**
+     * Writes a compressed body to a file when it is too large to keep in the database.
+     *
+     * @param articleId the id of the article the body belongs to.
+     * @param hash the hash of the body's html.
+     * @param content the compressed body, from storedContent().
+     * @return the name of the file, or null when the body belongs in the content table.
+     */
+    private String writeContentFile(long articleId, String hash, byte[] content) {
+        ContentFileStore files = contentFiles;
+        if (files == null || !files.accepts(content)) {
+            return null;
+        }
+
+        return files.write(articleId, hash, content);
+    }
+
+    // the names of the files that hold the bodies of the matching content rows
+    private List<String> queryContentFiles(String where, String[] args) {
+        List<String> names = new ArrayList<>();
+        if (contentFiles == null) {
+            return names;
+        }
+
+        Cursor cursor = database.rawQuery("select " + ContentModel.COLUMN_CONTENT_PATH +
+                " from " + ContentModel.TABLE + " where " + ContentModel.COLUMN_CONTENT_PATH +
+                " not null and " + where, args);
+        if (cursor == null) {
+            return names;
+        }
+
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(0));
+        }
+
+        cursor.close();
+        return names;
+    }
+
+    private void deleteContentFiles(List<String> names) {
+        ContentFileStore files = contentFiles;
+        if (files != null && !names.isEmpty()) {
+            files.delete(names);
+        }
+    }
+
+    private boolean isContentUnchanged(long articleId, String hash) {
+        if (hash == null) {
+            return false;
+        }
+
+        SQLiteStatement statement = statements.acquire(database, COUNT_UNCHANGED_CONTENT);
+        try {
+            statement.bindLong(1, articleId);
+            statement.bindString(2, hash);
+            return statement.simpleQueryForLong() > 0;
+        } finally {
+            statements.release(COUNT_UNCHANGED_CONTENT, statement);
+        }
+    }
+
+    private boolean isSearchMetadataUnchanged(long articleId, Article article) {
+        SQLiteStatement statement = statements.acquire(database, COUNT_UNCHANGED_SEARCH_METADATA);
+        try {
+            statement.bindLong(1, articleId);
+            bindString(statement, 2, article.title);
+            bindString(statement, 3, article.description);
+            bindString(statement, 4, article.author);
+            return statement.simpleQueryForLong() > 0;
+        } finally {
+            statements.release(COUNT_UNCHANGED_SEARCH_METADATA, statement);
+        }
+    }
+
+    private void deleteSearch(long articleId) {
+        SQLiteStatement statement = statements.acquire(database, DELETE_SEARCH);
+        try {
+            statement.bindLong(1, articleId);
+            statement.executeUpdateDelete();
+        } finally {
+            statements.release(DELETE_SEARCH, statement);
+        }
+    }
+
+    private void indexSearch(long articleId) {
+        SQLiteStatement statement = statements.acquire(database, INDEX_SEARCH);
+        try {
+            statement.bindLong(1, articleId);
+            statement.executeInsert();
+        } finally {
+            statements.release(INDEX_SEARCH, statement);
+        }
+    }
+
+    private static void bindArticleMetadata(SQLiteStatement statement, Article article) {
+        bindString(statement, 1, article.alias);
+        bindString(statement, 2, article.title);
+        bindString(statement, 3, article.description);
+        bindString(statement, 4, article.image);
+        bindString(statement, 5, article.author);
+        bindString(statement, 6, article.source);
+        bindString(statement, 7, article.domain);
+        statement.bindLong(8, article.duration);
+        statement.bindLong(9, article.isArticle ? 1 : 0);
+
+        if (article.sourceId == null) {
+            statement.bindNull(10);
+        } else {
+            statement.bindLong(10, article.sourceId);
+        }
+    }
+
+    private static void bindArticle(SQLiteStatement statement, Article article, long now) {
+        bindString(statement, 1, article.alias);
+        bindString(statement, 2, article.url);
+        bindString(statement, 3, article.title);
+        bindString(statement, 4, article.description);
+        bindString(statement, 5, article.image);
+        bindString(statement, 6, article.author);
+        bindString(statement, 7, article.source);
+        bindString(statement, 8, article.domain);
+        statement.bindLong(9, article.duration);
+        statement.bindLong(10, article.isArticle ? 1 : 0);
+        statement.bindLong(11, article.saved ? 1 : 0);
+
+        if (article.sourceId == null) {
+            statement.bindNull(12);
+        } else {
+            statement.bindLong(12, article.sourceId);
+        }
+
+        statement.bindLong(13, article.insertedAt == 0 ? now : article.insertedAt);
+        statement.bindLong(14, now);
+
+        if (article.url == null) {
+            statement.bindNull(15);
+        } else {
+            statement.bindLong(15, UrlHasher.hash(article.url));
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // binds the content, content_hash, content_path, content_length and search_text columns, in
+    // that order
+    private static void bindContent(SQLiteStatement statement, int index, byte[] content,
+                                    String hash, String path, String text) {
+        if (path == null) {
+            bindBlob(statement, index, content);
+            statement.bindNull(index + 2);
+            statement.bindNull(index + 3);
+        } else {
+            statement.bindNull(index);
+            statement.bindString(index + 2, path);
+            statement.bindLong(index + 3, content.length);
+        }
+
+        bindString(statement, index + 1, hash);
+        bindString(statement, index + 4, text);
+    }
+
+    private static void bindBlob(SQLiteStatement statement, int index, byte[] value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindBlob(index, value);
+        }
+    }
+
+    /**
+     * Updates an article's saved state.
+     */
+    public int updateSavedArticleState(Article article) {
+        long start = System.nanoTime();
+        int updated;
+        SQLiteStatement statement = statements.acquire(database, UPDATE_SAVED);
+        try {
+            statement.bindLong(1, article.saved ? 1 : 0);
+            statement.bindLong(2, article.id);
+            updated = statement.executeUpdateDelete();
+        } finally {
+            statements.release(UPDATE_SAVED, statement);
+        }
+
+        articleCache.remove(article.id);
+        invalidate(ArticleModel.TABLE);
+        metrics.record(Operation.UPDATE, start);
+        return updated;
+    }
+
+    /**
+     * Updates an article's timestamp.
+     */
+    public int updateArticleInsertedAtTimestamp(Article article) {
+        long start = System.nanoTime();
+        int updated;
+        SQLiteStatement statement = statements.acquire(database, UPDATE_INSERTED_AT);
+        try {
+            statement.bindLong(1, article.insertedAt);
+            statement.bindLong(2, article.id);
+            updated = statement.executeUpdateDelete();
+        } finally {
+            statements.release(UPDATE_INSERTED_AT, statement);
+        }
+
+        articleCache.remove(article.id);
+        invalidate(ArticleModel.TABLE);
+        metrics.record(Operation.UPDATE, start);
+        return updated;
+    }
+
+    /**
+     * Updates an article's content. Nothing is written when the content is the same as what is
+     * already stored.
+     */
+    public void updateArticleContent(Article article) {
+        long start = System.nanoTime();
+        String hash = ContentCompressor.hash(article.content);
+        if (isContentUnchanged(article.id, hash)) {
+            metrics.record(Operation.UPDATE, start);
+            return;
+        }
+
+        byte[] content = storedContent(article.content, hash);
+
+        begin();
+        try {
+            deleteAfterCommit(queryContentFiles(ContentModel.COLUMN_ARTICLE_ID + "=" +
+                    article.id, null));
+            String path = writeContentFile(article.id, hash, content);
+            deleteAfterRollback(path);
+
+            deleteSearch(article.id);
+
+            SQLiteStatement statement = statements.acquire(database, UPDATE_CONTENT);
+            try {
+                bindContent(statement, 1, content, hash, path,
+                        SearchIndex.plainText(article.content));
+                statement.bindLong(6, article.id);
+                statement.executeUpdateDelete();
+            } finally {
+                statements.release(UPDATE_CONTENT, statement);
+            }
+
+            indexSearch(article.id);
+
+            markSuccessful();
+        } finally {
+            end();
+        }
+
+        articleCache.remove(article.id);
+        invalidate(ContentModel.TABLE, ArticleSearchModel.TABLE);
+        metrics.record(Operation.UPDATE, start);
+    }
+
+    /**
+     * Gets a single article from the database. If there are multiple with the same URL, only the
+     * first is returned. Articles that were read recently are answered from memory.
+     */
+    public Article getArticle(String url) {
+        long start = System.nanoTime();
+
+        // remove any extra query parameters from the url
+        url = ArticleUtils.removeUrlParameters(url);
+
+        // taken before the cache is checked, so that a write racing this read keeps it from
+        // caching what it read
+        long generation = articleCache.getGeneration();
+        Article cached = articleCache.get(url);
+        if (cached != null) {
+            long lastAccessedAt = cached.lastAccessedAt;
+            recordAccess(cached);
+            if (cached.lastAccessedAt != lastAccessedAt) {
+                articleCache.put(url, cached, generation);
+            }
+
+            metrics.record(Operation.GET_ARTICLE_HIT, start);
+            return cached;
+        }
+
+        DatabaseSQLiteHelper helper = dbHelper;
+        Cursor cursor;
+        if (helper != null && helper.isUrlHashPending()) {
+            cursor = database.rawQuery(GET_ARTICLE_BY_URL, new String[] { url });
+        } else {
+            cursor = database.rawQuery(GET_ARTICLE,
+                    new String[] { Long.toString(UrlHasher.hash(url)), url });
+        }
+
+        if (cursor != null && cursor.moveToFirst()) {
+            Article article = new Article(cursor);
+
+            // a large body is streamed straight from its file, not through the cursor window
+            String path = null;
+            long length = 0;
+            if (article.content == null) {
+                path = cursor.getString(cursor.getColumnIndex(ContentModel.COLUMN_CONTENT_PATH));
+                length = cursor.getLong(cursor.getColumnIndex(ContentModel.COLUMN_CONTENT_LENGTH));
+            }
+
+            cursor.close();
+
+            ContentFileStore files = contentFiles;
+            if (path != null && files != null) {
+                article.content = files.read(path, length);
+            }
+
+            recordAccess(article);
+            articleCache.put(url, article, generation);
+            metrics.record(Operation.GET_ARTICLE_HIT, start);
+            return article;
+        } else {
+            metrics.record(Operation.GET_ARTICLE_MISS, start);
+            return null;
+        }
+    }
+
+    private void recordAccess(Article article) {
+        long now = System.currentTimeMillis();
+        if (now - article.lastAccessedAt < ACCESS_TIME_GRANULARITY) {
+            return;
+        }
+
+        // only eviction reads the access time, so it is kept in memory until eviction or close()
+        // write it out, rather than this read waiting behind whatever write is in progress. It
+        // isn't published to the invalidation tracker either, otherwise every read would re-run
+        // the observed article lists.
+        boolean flush;
+        synchronized (pendingAccessTimes) {
+            pendingAccessTimes.put(article.id, now);
+            flush = pendingAccessTimes.size() >= ACCESS_TIME_FLUSH_SIZE;
+        }
+
+        article.lastAccessedAt = now;
+        if (flush) {
+            evictInBackground();
+        }
+    }
+
+    // writes the access times that recordAccess() held back, in a single transaction
+    private void flushAccessTimes() {
+        Map<Long, Long> accessTimes;
+        synchronized (pendingAccessTimes) {
+            if (pendingAccessTimes.isEmpty()) {
+                return;
+            }
+
+            accessTimes = new HashMap<>(pendingAccessTimes);
+            pendingAccessTimes.clear();
+        }
+
+        begin();
+        SQLiteStatement statement = statements.acquire(database, UPDATE_LAST_ACCESSED_AT);
+        try {
+            for (Map.Entry<Long, Long> accessTime : accessTimes.entrySet()) {
+                statement.bindLong(1, accessTime.getValue());
+                statement.bindLong(2, accessTime.getKey());
+                statement.executeUpdateDelete();
+            }
+
+            markSuccessful();
+        } finally {
+            statements.release(UPDATE_LAST_ACCESSED_AT, statement);
+            end();
+        }
+    }
+
+    /**
+     * Gets all articles in the database.
+     *
+     * NOTE: this method does not return the content associated with the article, that would be
+     *       slow as some articles can get very large.
+     */
+    public Cursor getAllArticles() {
+        return database.query(
+                ARTICLE_SOURCE_JOIN,
+                null,
+                null,
+                null,
+                null,
+                null,
+                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    }
+
+    /**
+     * Gets all saved articles in the database.
+     *
+     * NOTE: this method does not return the content associated with the article, that would be
+     *       slow as some articles can get very large.
+     */
+    public Cursor getSavedArticles() {
+        return database.query(
+                ARTICLE_SOURCE_JOIN,
+                null,
+                ArticleModel.COLUMN_SAVED + "=1",
+                null,
+                null,
+                null,
+                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    }
+
+    /**
+     * Gets all articles for a particular source.
+     *
+     * NOTE: this method does not return the content associated with the article, that would be
+     *       slow as some articles can get very large.
+     *
+     * @param remoteSourceId the source to get articles for.
+     * @return a cursor of articles.
+     */
+    public Cursor getArticlesForSource(long remoteSourceId) {
+        return database.query(
+                ARTICLE_SOURCE_JOIN,
+                null,
+                ArticleModel.COLUMN_SOURCE_ID + "=?",
+                new String[] {Long.toString(remoteSourceId)},
+                null,
+                null,
+                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    }
+
+    /**
+     * Gets a summary of all articles in the database, newest first. Read each row with an
+     * ArticleSummary. This skips every column that a list doesn't show, so it is much lighter
+     * than getAllArticles().
+     */
+    public Cursor getAllArticleSummaries() {
+        return database.query(
+                ARTICLE_SOURCE_JOIN,
+                ARTICLE_SUMMARY_COLUMNS,
+                null,
+                null,
+                null,
+                null,
+                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    }
+
+    /**
+     * Gets a summary of all saved articles, newest first. Read each row with an ArticleSummary.
+     */
+    public Cursor getSavedArticleSummaries() {
+        return database.query(
+                ARTICLE_SOURCE_JOIN,
+                ARTICLE_SUMMARY_COLUMNS,
+                ArticleModel.COLUMN_SAVED + "=1",
+                null,
+                null,
+                null,
+                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    }
+
+    /**
+     * Gets a summary of all articles for a particular source, newest first. Read each row with an
+     * ArticleSummary.
+     *
+     * @param remoteSourceId the source to get articles for.
+     * @return a cursor of article summaries.
+     */
+    public Cursor getArticleSummariesForSource(long remoteSourceId) {
+        return database.query(
+                ARTICLE_SOURCE_JOIN,
+                ARTICLE_SUMMARY_COLUMNS,
+                ArticleModel.COLUMN_SOURCE_ID + "=?",
+                new String[] {Long.toString(remoteSourceId)},
+                null,
+                null,
+                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    }
+
+    /**
+     * Gets a page of all articles in the database, newest first.
+     *
+     * Each page picks up right after the last article of the previous one, rather than
+     * skipping an offset, so loading a page costs the same no matter how far down the list it is.
+     *
+     * @param pageToken the token from the previous page, or null for the first page.
+     * @param pageSize the maximum number of articles on the page.
+     * @return the page of articles. The article content is not included.
+     */
+    public ArticlePage getArticlesPage(String pageToken, int pageSize) {
+        return getArticlesPage("1=1", new String[0], pageToken, pageSize);
+    }
+
+    /**
+     * Gets a page of saved articles, newest first.
+     *
+     * @param pageToken the token from the previous page, or null for the first page.
+     * @param pageSize the maximum number of articles on the page.
+     * @return the page of articles. The article content is not included.
+     */
+    public ArticlePage getSavedArticlesPage(String pageToken, int pageSize) {
+        return getArticlesPage("a." + ArticleModel.COLUMN_SAVED + "=1", new String[0],
+                pageToken, pageSize);
+    }
+
+    /**
+     * Gets a page of the articles for a particular source, newest first.
+     *
+     * @param remoteSourceId the source to get articles for.
+     * @param pageToken the token from the previous page, or null for the first page.
+     * @param pageSize the maximum number of articles on the page.
+     * @return the page of articles. The article content is not included.
+     */
+    public ArticlePage getArticlesForSourcePage(long remoteSourceId, String pageToken, int pageSize) {
+        return getArticlesPage("a." + ArticleModel.COLUMN_SOURCE_ID + "=?",
+                new String[] { Long.toString(remoteSourceId) }, pageToken, pageSize);
+    }
+
+    private ArticlePage getArticlesPage(String selection, String[] selectionArgs,
+                                        String pageToken, int pageSize) {
+        long start = System.nanoTime();
+        List<Article> articles = new ArrayList<>();
+        if (pageSize <= 0) {
+            return new ArticlePage(articles, null);
+        }
+
+        String sql = ARTICLE_PAGE + selection;
+        String[] args = selectionArgs;
+
+        if (pageToken != null) {
+            long[] position = parsePageToken(pageToken);
+            sql += ARTICLE_PAGE_AFTER;
+            args = Arrays.copyOf(selectionArgs, selectionArgs.length + 3);
+            args[selectionArgs.length] = Long.toString(position[0]);
+            args[selectionArgs.length + 1] = Long.toString(position[0]);
+            args[selectionArgs.length + 2] = Long.toString(position[1]);
+        }
+
+        // one extra row tells us whether there is another page without a count query
+        Cursor cursor = database.rawQuery(sql + ARTICLE_PAGE_ORDER + (pageSize + 1), args);
+        if (cursor == null) {
+            metrics.record(Operation.LIST, start);
+            return new ArticlePage(articles, null);
+        }
+
+        Article.Mapper mapper = new Article.Mapper(cursor);
+        boolean hasNextPage = false;
+        while (cursor.moveToNext()) {
+            if (articles.size() == pageSize) {
+                hasNextPage = true;
+                break;
+            }
+
+            articles.add(mapper.read());
+        }
+
+        cursor.close();
+
+        String nextPageToken = null;
+        if (hasNextPage) {
+            Article last = articles.get(articles.size() - 1);
+            nextPageToken = last.insertedAt + ":" + last.id;
+        }
+
+        metrics.record(Operation.LIST, start);
+        return new ArticlePage(articles, nextPageToken);
+    }
+
+    private static long[] parsePageToken(String pageToken) {
+        int separator = pageToken.indexOf(':');
+
+        try {
+            return new long[] {
+                    Long.parseLong(pageToken.substring(0, separator)),
+                    Long.parseLong(pageToken.substring(separator + 1))
+            };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid page token: " + pageToken, e);
+        }
+    }
+
+    /**
+     * Searches the title, description, author and text of every cached article.
+     *
+     * The matches are ranked and paged inside sqlite, and only the requested page has its article
+     * and snippet loaded, so nothing is read into memory for the matches that aren't returned.
+     *
+     * @param query the words to search for. All of them have to match.
+     * @param limit the maximum number of results to return.
+     * @param offset the number of results to skip, for paging.
+     * @return the matching articles, most relevant first. The article content is not included.
+     */
+    public List<SearchResult> searchArticles(String query, int limit, int offset) {
+        long start = System.nanoTime();
+        List<SearchResult> results = new ArrayList<>();
+        List<String> terms = SearchIndex.terms(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return results;
+        }
+
+        // ties go to the newer article
+        Cursor cursor = database.rawQuery(SEARCH_PAGE_START + SearchIndex.rankExpression(terms) +
+                SEARCH_PAGE_RANKED + " limit " + limit + " offset " + Math.max(0, offset) +
+                SEARCH_PAGE_END, SearchIndex.queryArguments(terms));
+        if (cursor != null) {
+            Article.Mapper mapper = new Article.Mapper(cursor);
+            int snippetIndex = cursor.getColumnIndex("snippet");
+            int rankIndex = cursor.getColumnIndex(SEARCH_RANK);
+            while (cursor.moveToNext()) {
+                results.add(new SearchResult(mapper.read(), cursor.getString(snippetIndex),
+                        cursor.getDouble(rankIndex)));
+            }
+
+            cursor.close();
+        }
+
+        metrics.record(Operation.SEARCH, start);
+        return results;
+    }
+
+    /**
+     * Sets how much the article cache is allowed to hold. Once it grows past either limit, the
+     * least recently read articles are trimmed in the background after each insert. Saved
+     * articles are never touched.
+     *
+     * @param maxContentBytes the most bytes of stored content to keep, or 0 for no limit. Over
+     *                        this, the content of old articles is dropped first and will be
+     *                        downloaded again if the article is opened.
+     * @param maxArticles the most articles to keep, or 0 for no limit. Over this, old articles
+     *                    are deleted entirely.
+     */
+    public void setStorageBudget(long maxContentBytes, int maxArticles) {
+        this.maxContentBytes = maxContentBytes;
+        this.maxArticles = maxArticles;
+    }
+
+    /**
+     * Runs a single bounded eviction batch against the storage budget. The access times of the
+     * articles read since the last batch are written out first, so that they are evicted in the
+     * right order. This does disk I/O, so don't call it on the UI thread.
+     *
+     * @param batchSize the most articles to trim in this batch.
+     * @return the number of articles that were trimmed, 0 once the cache fits the budget.
+     */
+    public int evict(int batchSize) {
+        flushAccessTimes();
+
+        long contentBudget = maxContentBytes;
+        if (contentBudget > 0 && getStoredContentBytes() > contentBudget) {
+            return evictContent(batchSize);
+        }
+
+        int articleBudget = maxArticles;
+        if (articleBudget > 0) {
+            long count = DatabaseUtils.queryNumEntries(database, ArticleModel.TABLE);
+            if (count > articleBudget) {
+                return evictArticles((int) Math.min(batchSize, count - articleBudget));
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Trims the cache down to the storage budget on a background thread, one batch at a time,
+     * after writing out the access times of recently read articles. Does nothing if a trim is
+     * already running.
+     */
+    public void evictInBackground() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // hold the connection open, the caller may close it while we are still working
+                boolean shared = dbHelper != null;
+                if (shared) {
+                    open();
+                }
+
+                try {
+                    while (evict(EVICTION_BATCH_SIZE) > 0) {
+                        Thread.yield();
+                    }
+                } finally {
+                    evicting.set(false);
+                    if (shared) {
+                        close();
+                    }
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Gives the free pages that deletes and rewrites left in the database file back to the file
+     * system, so that the file shrinks instead of staying at its largest size.
+     *
+     * This works a step at a time, and each step is its own write transaction, so other writes
+     * only ever wait for one step. Steps start small and are then sized from how long the last
+     * one took, to keep each within maxStepMillis. It can still take a while on a large database,
+     * so run it when the device is idle, such as from a job that requires it. Interrupting the
+     * thread stops it after the current step.
+     *
+     * Databases only support this once DatabaseSQLiteHelper has switched them to incremental auto
+     * vacuum. Before that, nothing is reclaimed.
+     *
+     * @param maxStepMillis the longest that a single step should hold the write lock.
+     * @return the number of bytes that were given back.
+     */
+    public long reclaimFreePages(long maxStepMillis) {
+        long pageSize = queryLong("pragma page_size");
+        long maxStepNanos = maxStepMillis * 1000000;
+        long freePages = queryLong("pragma freelist_count");
+        long reclaimed = 0;
+        int stepPages = RECLAIM_FIRST_STEP_PAGES;
+
+        while (freePages > 0 && !Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            Cursor cursor = database.rawQuery("pragma incremental_vacuum(" +
+                    Math.min(stepPages, freePages) + ")", null);
+            if (cursor != null) {
+                // the pragma frees a page each time that it is stepped, which filling the
+                // cursor does until it is done
+                cursor.getCount();
+                cursor.close();
+            }
+
+            long elapsed = System.nanoTime() - start;
+            metrics.record(Operation.RECLAIM, start);
+
+            long remaining = queryLong("pragma freelist_count");
+            if (remaining >= freePages) {
+                // not in incremental mode, or another writer filled the pages back up
+                break;
+            }
+
+            reclaimed += (freePages - remaining) * pageSize;
+            freePages = remaining;
+
+            // aim for half of the budget, and grow by at most double, so that one quick step
+            // can't make the next one overshoot
+            long target = elapsed <= 0 ? Long.MAX_VALUE : stepPages * (maxStepNanos / 2) / elapsed;
+            stepPages = (int) Math.max(1, Math.min(Math.min(target, stepPages * 2L),
+                    RECLAIM_MAX_STEP_PAGES));
+
+            Thread.yield();
+        }
+
+        return reclaimed;
+    }
+
+    private void evictInBackgroundIfNeeded() {
+        if (maxContentBytes > 0 || maxArticles > 0) {
+            evictInBackground();
+        }
+    }
+
+    private long getStoredContentBytes() {
+        return queryLong("select " + ContentSizeModel.COLUMN_BYTES + " from " +
+                ContentSizeModel.TABLE);
+    }
+
+    private int evictContent(int batchSize) {
+        long[] ids = queryIds("select a." + ArticleModel.COLUMN_ID + " from " + ArticleModel.TABLE +
+                " a join " + ContentModel.TABLE + " c on a." + ArticleModel.COLUMN_ID + " = c." +
+                ContentModel.COLUMN_ARTICLE_ID + " where a." + ArticleModel.COLUMN_SAVED + " = 0 " +
+                "and (c." + ContentModel.COLUMN_CONTENT + " not null or c." +
+                ContentModel.COLUMN_CONTENT_PATH + " not null)" + EVICTION_ORDER + batchSize);
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        String in = toInClause(ids);
+        begin();
+        try {
+            deleteAfterCommit(queryContentFiles(ContentModel.COLUMN_ARTICLE_ID + " in " + in, null));
+
+            // the articles stay searchable by their title, description and author. If other
+            // articles share the body, the trigger on the content table hands it over.
+            database.delete(ArticleSearchModel.TABLE, ArticleSearchModel.COLUMN_DOCID + " in " + in,
+                    null);
+            database.execSQL("update " + ContentModel.TABLE + " set " + ContentModel.COLUMN_CONTENT +
+                    " = null, " + ContentModel.COLUMN_CONTENT_HASH + " = null, " +
+                    ContentModel.COLUMN_CONTENT_PATH + " = null, " +
+                    ContentModel.COLUMN_CONTENT_LENGTH + " = null, " +
+                    ContentModel.COLUMN_SEARCH_TEXT + " = null where " +
+                    ContentModel.COLUMN_ARTICLE_ID + " in " + in);
+            database.execSQL(ArticleSearchModel.getIndexStatement("rowid in " + in));
+            markSuccessful();
+        } finally {
+            end();
+        }
+
+        articleCache.remove(ids);
+        invalidate(ContentModel.TABLE, ArticleSearchModel.TABLE);
+        return ids.length;
+    }
+
+    private int evictArticles(int batchSize) {
+        long[] ids = queryIds("select a." + ArticleModel.COLUMN_ID + " from " +
+                ArticleModel.TABLE + " a where a." + ArticleModel.COLUMN_SAVED + " = 0" +
+                EVICTION_ORDER + batchSize);
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        deleteArticles(ids);
+        return ids.length;
+    }
+
+    private long[] queryIds(String sql) {
+        Cursor cursor = database.rawQuery(sql, null);
+        if (cursor == null) {
+            return new long[0];
+        }
+
+        long[] ids = new long[cursor.getCount()];
+        while (cursor.moveToNext()) {
+            ids[cursor.getPosition()] = cursor.getLong(0);
+        }
+
+        cursor.close();
+        return ids;
     }
 
-    /**
-     * Begins a bulk transaction on the database.
-     */
-    public void beginTransaction() {
-        database.beginTransaction();
+    private static String toInClause(long[] ids) {
+        StringBuilder in = new StringBuilder("(");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                in.append(",");
+            }
+
+            in.append(ids[i]);
+        }
+
+        return in.append(")").toString();
     }
 
     /**
-     * Executes a raw sql statement on the database. Can be used in conjunction with
-     * beginTransaction and endTransaction if bulk.
+     * Deletes an article and its content.
      *
-     * @param sql the sql statement.
+     * @param article The article to delete.
      */
-    public void execSql(String sql) {
-        database.execSQL(sql);
+    public void deleteArticle(Article article) {
+        deleteArticle(article.id);
     }
 
     /**
-     * Execute a raw sql query on the database.
+     * Deletes an article and its content.
      *
-     * @param sql the sql statement
-     * @return cursor for the data
+     * @param articleId the id of the article to delete.
      */
-    public Cursor rawQuery(String sql) {
-        return database.rawQuery(sql, null);
+    public void deleteArticle(long articleId) {
+        deleteArticles(new long[] { articleId });
     }
 
     /**
-     * Sets the transaction into a successful state so that it can be committed to the database.
-     * Should be used in conjunction with beginTransaction() and endTransaction().
+     * Deletes articles and their content, in one transaction. The content rows are removed by
+     * the foreign key, only the search index and the files of large bodies need to be cleaned up
+     * separately.
+     *
+     * @param articleIds the ids of the articles to delete.
+     * @return the number of articles that were deleted.
      */
-    public void setTransactionSuccessful() {
-        database.setTransactionSuccessful();
+    public int deleteArticles(long[] articleIds) {
+        long start = System.nanoTime();
+        if (articleIds.length == 0) {
+            return 0;
+        }
+
+        int deleted = 0;
+        begin();
+        try {
+            for (int from = 0; from < articleIds.length; from += DELETE_BATCH_SIZE) {
+                String in = toInClause(Arrays.copyOfRange(articleIds, from,
+                        Math.min(articleIds.length, from + DELETE_BATCH_SIZE)));
+                deleteAfterCommit(queryContentFiles(ContentModel.COLUMN_ARTICLE_ID + " in " + in,
+                        null));
+                database.delete(ArticleSearchModel.TABLE, ArticleSearchModel.COLUMN_DOCID + " in " + in, null);
+                deleted += database.delete(ArticleModel.TABLE, ArticleModel.COLUMN_ID + " in " + in, null);
+            }
+
+            markSuccessful();
+        } finally {
+            end();
+        }
+
+        articleCache.remove(articleIds);
+        invalidate(ARTICLE_TABLES);
+        metrics.record(Operation.DELETE, start);
+        return deleted;
     }
 
     /**
-     * Ends a bulk transaction on the database.
+     * Deletes every article that was inserted before the provided time, along with its content,
+     * in one transaction.
+     *
+     * @param timestamp articles inserted before this time are deleted.
+     * @param keepSaved true to leave the articles that the user saved.
+     * @return the number of articles that were deleted.
      */
-    public void endTransaction() {
-        database.endTransaction();
+    public int deleteArticlesOlderThan(long timestamp, boolean keepSaved) {
+        long start = System.nanoTime();
+        String where = ArticleModel.COLUMN_INSERTED_AT + " < ?" +
+                (keepSaved ? " and " + ArticleModel.COLUMN_SAVED + " = 0" : "");
+        String[] args = new String[] { Long.toString(timestamp) };
+
+        int deleted;
+        begin();
+        try {
+            deleteAfterCommit(queryContentFiles(ContentModel.COLUMN_ARTICLE_ID + " in (select " +
+                    ArticleModel.COLUMN_ID + " from " + ArticleModel.TABLE + " where " + where + ")",
+                    args));
+            database.delete(ArticleSearchModel.TABLE, ArticleSearchModel.COLUMN_DOCID + " in " +
+                    "(select " + ArticleModel.COLUMN_ID + " from " + ArticleModel.TABLE + " where " +
+                    where + ")", args);
+            deleted = database.delete(ArticleModel.TABLE, where, args);
+            markSuccessful();
+        } finally {
+            end();
+        }
+
+        articleCache.clear();
+        invalidate(ARTICLE_TABLES);
+        metrics.record(Operation.DELETE, start);
+        return deleted;
     }
 
     /**
-     * Inserts a single article into the database for caching purposes.
+     * Writes every saved article, along with its content, to a stream, for backing them up or
+     * moving them to another device. See ArticleArchive for the format. The articles are read a
+     * batch at a time and written out as they go, so memory use stays the same however many
+     * there are. This does disk I/O, so don't call it on the UI thread.
      *
-     * @return the id of the inserted item.
+     * @param output the stream to write to. It is flushed, but left open.
+     * @return the number of articles that were written.
+     * @throws IOException if the stream couldn't be written to.
      */
-    public long insertArticle(Article article) {
-        // remove any extra query parameters from the url
-        article.url = ArticleUtils.removeUrlParameters(article.url);
+    public int exportSavedArticles(OutputStream output) throws IOException {
+        Writer writer = new OutputStreamWriter(output, UTF_8);
+        int exported = 0;
+        long lastArticleId = 0;
 
-        ContentValues values = new ContentValues(11);
-        values.put(ArticleModel.COLUMN_ALIAS, article.alias);
-        values.put(ArticleModel.COLUMN_URL, article.url);
-        values.put(ArticleModel.COLUMN_TITLE, article.title);
-        values.put(ArticleModel.COLUMN_DESCRIPTION, article.description);
-        values.put(ArticleModel.COLUMN_IMAGE, article.image);
-        values.put(ArticleModel.COLUMN_AUTHOR, article.author);
-        values.put(ArticleModel.COLUMN_SOURCE, article.source);
-        values.put(ArticleModel.COLUMN_DOMAIN, article.domain);
-        values.put(ArticleModel.COLUMN_DURATION, article.duration);
-        values.put(ArticleModel.COLUMN_IS_ARTICLE, article.isArticle);
-        values.put(ArticleModel.COLUMN_SAVED, article.saved);
-        values.put(ArticleModel.COLUMN_SOURCE_ID, article.sourceId);
-        if (article.insertedAt == 0) {
-            values.put(ArticleModel.COLUMN_INSERTED_AT, System.currentTimeMillis());
-        } else {
-            values.put(ArticleModel.COLUMN_INSERTED_AT, article.insertedAt);
-        }
+        while (true) {
+            List<Article> articles = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+            Cursor cursor = database.query(ArticleModel.TABLE, null,
+                    ArticleModel.COLUMN_SAVED + "=1 and " + ArticleModel.COLUMN_ID + " > ?",
+                    new String[] { Long.toString(lastArticleId) }, null, null,
+                    ArticleModel.COLUMN_ID, Integer.toString(ARCHIVE_BATCH_SIZE));
+            if (cursor != null) {
+                Article.Mapper mapper = new Article.Mapper(cursor);
+                int sourceId = cursor.getColumnIndex(ArticleModel.COLUMN_SOURCE_ID);
+                while (cursor.moveToNext()) {
+                    Article article = mapper.read();
+                    if (cursor.isNull(sourceId)) {
+                        article.sourceId = null;
+                    }
 
-        long id = database.insert(ArticleModel.TABLE, null, values);
+                    articles.add(article);
+                }
 
-        values = new ContentValues(2);
-        values.put(ContentModel.COLUMN_ARTICLE_ID, id);
-        values.put(ContentModel.COLUMN_CONTENT, article.content);
+                cursor.close();
+            }
 
-        database.insert(ContentModel.TABLE, null, values);
-        return id;
-    }
+            if (articles.isEmpty()) {
+                break;
+            }
 
-    /**
-     * Updates an article's saved state.
-     */
-    public int updateSavedArticleState(Article article) {
-        ContentValues values = new ContentValues(1);
-        values.put(ArticleModel.COLUMN_SAVED, article.saved);
+            // only one body is held at a time, the rest of the batch is just its metadata
+            for (Article article : articles) {
+                article.content = getContent(article.id);
+                ArticleArchive.write(writer, article);
+                article.content = null;
+                lastArticleId = article.id;
+                exported++;
+            }
+        }
 
-        return database.update(
-                ArticleModel.TABLE, values, "_id=?", new String[] {Long.toString(article.id)});
+        writer.flush();
+        return exported;
     }
 
     /**
-     * Updates an article's timestamp.
+     * Reads articles that were written by exportSavedArticles() back in. Articles whose url is
+     * already stored have their metadata and content replaced, the same as upsertArticle(), and
+     * are marked as saved again. The articles are written a batch at a time, each batch in its
+     * own transaction, so memory use stays the same however large the archive is.
+     *
+     * @param input the stream to read from. It is left open.
+     * @return the number of articles that were stored.
+     * @throws IOException if the stream couldn't be read, or isn't an archive. The batches that
+     *                     were read before that point are kept.
      */
-    public int updateArticleInsertedAtTimestamp(Article article) {
-        ContentValues values = new ContentValues(1);
-        values.put(ArticleModel.COLUMN_INSERTED_AT, article.insertedAt);
+    public int importArticles(InputStream input) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(input, UTF_8));
+        // every line of the archive is its own top level value
+        reader.setLenient(true);
 
-        return database.update(
-                ArticleModel.TABLE, values, "_id=?", new String[] {Long.toString(article.id)});
-    }
+        List<Article> batch = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+        int imported = 0;
+        Article article;
+        while ((article = ArticleArchive.read(reader)) != null) {
+            if (article.url == null) {
+                continue;
+            }
 
-    /**
-     * Updates an article's content.
-     */
-    public void updateArticleContent(Article article) {
-        ContentValues values = new ContentValues(1);
-        values.put(ContentModel.COLUMN_CONTENT, article.content);
+            batch.add(article);
+            if (batch.size() == ARCHIVE_BATCH_SIZE) {
+                imported += importBatch(batch);
+                batch.clear();
+            }
+        }
 
-        database.update(
-                ContentModel.TABLE,
-                values,
-                "article_id=?",
-                new String[] {Long.toString(article.id)});
+        return imported + importBatch(batch);
     }
 
-    /**
-     * Gets a single article from the database. If there are multiple with the same URL, only the
-     * first is returned.
-     */
-    public Article getArticle(String url) {
-        // remove any extra query parameters from the url
-        url = ArticleUtils.removeUrlParameters(url);
+    private int importBatch(List<Article> articles) {
+        if (articles.isEmpty()) {
+            return 0;
+        }
 
-        Cursor cursor = database.query(
-                ArticleModel.TABLE + " a left outer join " + ContentModel.TABLE + " c " +
-                        "on a." + ArticleModel.COLUMN_ID + " = c." + ContentModel.COLUMN_ARTICLE_ID,
-                new String[] {
-                        "a." + ArticleModel.COLUMN_ID + " as " + ArticleModel.COLUMN_ID,
-                        "a." + ArticleModel.COLUMN_ALIAS + " as " + ArticleModel.COLUMN_ALIAS,
-                        "a." + ArticleModel.COLUMN_URL + " as " + ArticleModel.COLUMN_URL,
-                        "a." + ArticleModel.COLUMN_TITLE + " as " + ArticleModel.COLUMN_TITLE,
-                        "a." + ArticleModel.COLUMN_DESCRIPTION + " as " + ArticleModel.COLUMN_DESCRIPTION,
-                        "a." + ArticleModel.COLUMN_IMAGE + " as " + ArticleModel.COLUMN_IMAGE,
-                        "a." + ArticleModel.COLUMN_AUTHOR + " as " + ArticleModel.COLUMN_AUTHOR,
-                        "a." + ArticleModel.COLUMN_SOURCE + " as " + ArticleModel.COLUMN_SOURCE,
-                        "a." + ArticleModel.COLUMN_DOMAIN + " as " + ArticleModel.COLUMN_DOMAIN,
-                        "a." + ArticleModel.COLUMN_DURATION + " as " + ArticleModel.COLUMN_DURATION,
-                        "a." + ArticleModel.COLUMN_INSERTED_AT + " as " + ArticleModel.COLUMN_INSERTED_AT,
-                        "a." + ArticleModel.COLUMN_IS_ARTICLE + " as " + ArticleModel.COLUMN_IS_ARTICLE,
-                        "a." + ArticleModel.COLUMN_SAVED + " as " + ArticleModel.COLUMN_SAVED,
-                        "c." + ContentModel.COLUMN_CONTENT + " as " + ContentModel.COLUMN_CONTENT,
-                },
-                ArticleModel.COLUMN_URL + "=?",
-                new String[] { url },
-                null,
-                null,
-                null);
+        // compiled once for the whole batch, and closed once it is done
+        SQLiteStatement updateSaved = database.compileStatement(UPDATE_SAVED);
 
-        if (cursor != null && cursor.moveToFirst()) {
-            Article article = new Article(cursor);
-            cursor.close();
-            return article;
-        } else {
-            return null;
+        // the upserts nest inside this transaction, so the files of the bodies they replace are
+        // only deleted if the whole batch commits
+        beginTransaction();
+        try {
+            for (Article article : articles) {
+                long id = upsertArticle(article);
+
+                // an upsert keeps the saved state of an article that was already stored
+                if (article.saved) {
+                    updateSaved.bindLong(1, 1);
+                    updateSaved.bindLong(2, id);
+                    updateSaved.executeUpdateDelete();
+                }
+            }
+
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+            updateSaved.close();
         }
+
+        return articles.size();
     }
 
-    /**
-     * Gets all articles in the database.
-     *
-     * NOTE: this method does not return the content associated with the article, that would be
-     *       slow as some articles can get very large.
-     */
-    public Cursor getAllArticles() {
-        return database.query(
-                ArticleModel.TABLE + " a left outer join " + SourceModel.TABLE + " s " +
-                    "on a." + ArticleModel.COLUMN_SOURCE_ID + " = s." + SourceModel.COLUMN_REMOTE_ID,
-                null,
-                null,
-                null,
-                null,
-                null,
-                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    // the html for an article, without going through the cache or counting as a read
+    private String getContent(long articleId) {
+        Cursor cursor = database.rawQuery(GET_CONTENT, new String[] { Long.toString(articleId) });
+        String content = null;
+        String path = null;
+        long length = 0;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                content = ContentCompressor.read(cursor, 0);
+                if (content == null) {
+                    path = cursor.getString(1);
+                    length = cursor.getLong(2);
+                }
+            }
+
+            cursor.close();
+        }
+
+        ContentFileStore files = contentFiles;
+        if (path != null && files != null) {
+            content = files.read(path, length);
+        }
+
+        return content;
     }
 
     /**
-     * Gets all saved articles in the database.
+     * Checks whether a url recently failed to parse, or turned out not to be an article, so that
+     * it can go straight to the browser instead of asking the article api about it again.
      *
-     * NOTE: this method does not return the content associated with the article, that would be
-     *       slow as some articles can get very large.
+     * @param url the url to check.
+     * @return true until the url is due to be parsed again.
      */
-    public Cursor getSavedArticles() {
-        return database.query(
-                ArticleModel.TABLE + " a left outer join " + SourceModel.TABLE + " s " +
-                    "on a." + ArticleModel.COLUMN_SOURCE_ID + " = s." + SourceModel.COLUMN_REMOTE_ID,
-                null,
-                ArticleModel.COLUMN_SAVED + "=1",
-                null,
-                null,
-                null,
-                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    public boolean isFailedUrl(String url) {
+        loadFailedUrls();
+        return failedUrls.isFailed(ArticleUtils.removeUrlParameters(url),
+                System.currentTimeMillis());
     }
 
     /**
-     * Gets all articles for a particular source.
-     *
-     * NOTE: this method does not return the content associated with the article, that would be
-     *       slow as some articles can get very large.
+     * Records what the article api returned for a url. A url that isn't an article is left alone
+     * for a week. One that couldn't be parsed is retried after a minute, backing off to a day if
+     * it keeps failing. An article clears whatever was recorded before.
      *
-     * @param remoteSourceId the source to get articles for.
-     * @return a cursor of articles.
+     * @param url the url that was parsed.
+     * @param article the parsed article, or null if it couldn't be parsed.
      */
-    public Cursor getArticlesForSource(long remoteSourceId) {
-        return database.query(
-                ArticleModel.TABLE + " a left outer join " + SourceModel.TABLE + " s " +
-                    "on a." + ArticleModel.COLUMN_SOURCE_ID + " = s." + SourceModel.COLUMN_REMOTE_ID,
-                null,
-                ArticleModel.COLUMN_SOURCE_ID + "=?",
-                new String[] {Long.toString(remoteSourceId)},
-                null,
-                null,
-                ArticleModel.COLUMN_INSERTED_AT + " desc");
+    public void recordParseResult(String url, Article article) {
+        // remove any extra query parameters from the url
+        url = ArticleUtils.removeUrlParameters(url);
+        loadFailedUrls();
+
+        if (article != null && article.isArticle) {
+            forgetFailedUrl(url);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        FailedUrls.Entry entry = article == null ?
+                failedUrls.failed(url, now) : failedUrls.notArticle(url, now);
+
+        SQLiteStatement statement = statements.acquire(database, INSERT_FAILED_URL);
+        try {
+            statement.bindString(1, url);
+            statement.bindLong(2, entry.notArticle ? 1 : 0);
+            statement.bindLong(3, entry.failures);
+            statement.bindLong(4, entry.retryAt);
+            statement.executeInsert();
+        } finally {
+            statements.release(INSERT_FAILED_URL, statement);
+        }
     }
 
-    /**
-     * Deletes an article and its content.
-     *
-     * @param article The article to delete.
-     */
-    public void deleteArticle(Article article) {
-        deleteArticle(article.id);
+    // loadArticleSync() checks for a failed url before the database, so once an article is
+    // stored with its content, the url isn't left looking like it failed
+    private void forgetFailedUrl(String url) {
+        if (url == null) {
+            return;
+        }
+
+        loadFailedUrls();
+        if (!failedUrls.remove(url)) {
+            return;
+        }
+
+        SQLiteStatement statement = statements.acquire(database, DELETE_FAILED_URL);
+        try {
+            statement.bindString(1, url);
+            statement.executeUpdateDelete();
+        } finally {
+            statements.release(DELETE_FAILED_URL, statement);
+        }
     }
 
-    /**
-     * Deletes an article and its content.
-     *
-     * @param articleId the id of the article to delete.
-     */
-    public void deleteArticle(long articleId) {
-        database.delete(
-                ArticleModel.TABLE,
-                ArticleModel.COLUMN_ID + "=?",
-                new String[] {Long.toString(articleId)});
-        database.delete(
-                ContentModel.TABLE,
-                ContentModel.COLUMN_ARTICLE_ID + "=?",
-                new String[] {Long.toString(articleId)});
+    // the failed urls are read once, the first time that one is checked or recorded
+    private void loadFailedUrls() {
+        if (failedUrls.isLoaded()) {
+            return;
+        }
+
+        // the rows that FailedUrls would drop, see FailedUrls.isStale()
+        long now = System.currentTimeMillis();
+        database.delete(FailedUrlModel.TABLE, "(" + FailedUrlModel.COLUMN_NOT_ARTICLE +
+                " = 1 and " + FailedUrlModel.COLUMN_RETRY_AT + " <= ?) or " +
+                FailedUrlModel.COLUMN_RETRY_AT + " <= ?", new String[] { Long.toString(now),
+                Long.toString(now - FailedUrls.MAX_RETRY_MILLIS) });
+
+        Map<String, FailedUrls.Entry> stored = new HashMap<>();
+        Cursor cursor = database.query(FailedUrlModel.TABLE, null, null, null, null, null, null);
+        if (cursor != null) {
+            int url = cursor.getColumnIndex(FailedUrlModel.COLUMN_URL);
+            int notArticle = cursor.getColumnIndex(FailedUrlModel.COLUMN_NOT_ARTICLE);
+            int failures = cursor.getColumnIndex(FailedUrlModel.COLUMN_FAILURES);
+            int retryAt = cursor.getColumnIndex(FailedUrlModel.COLUMN_RETRY_AT);
+
+            while (cursor.moveToNext()) {
+                stored.put(cursor.getString(url), new FailedUrls.Entry(
+                        cursor.getInt(notArticle) == 1, cursor.getInt(failures),
+                        cursor.getLong(retryAt)));
+            }
+
+            cursor.close();
+        }
+
+        failedUrls.load(stored, now);
     }
 
     /**
@@ -376,7 +2259,10 @@ public class DataSource {
     public long insertCategory(String categoryName) {
         ContentValues values = new ContentValues(1);
         values.put(CategoryModel.COLUMN_NAME, categoryName);
-        return database.insert(CategoryModel.TABLE, null, values);
+        long id = database.insert(CategoryModel.TABLE, null, values);
+
+        invalidate(CategoryModel.TABLE);
+        return id;
     }
 
     /**
@@ -432,6 +2318,8 @@ public class DataSource {
         values.put(SourceModel.COLUMN_REMOTE_ID, source.remoteId);
         values.put(SourceModel.COLUMN_CATEGORY_ID, source.categoryId);
         database.insert(SourceModel.TABLE, null, values);
+
+        invalidate(SourceModel.TABLE);
     }
 
     /**
@@ -439,6 +2327,134 @@ public class DataSource {
      */
     public void deleteSource(String name) {
         database.delete(SourceModel.TABLE, SourceModel.COLUMN_NAME + "=?", new String[] {name});
+
+        invalidate(SourceModel.TABLE);
+    }
+
+    /**
+     * Replaces the stored sources with the provided list. The list is compared against what is
+     * already stored, matching sources up by their remote id, so only the sources that were
+     * added, changed or removed are written. Categories that don't exist yet are created.
+     * Everything happens in one transaction.
+     *
+     * @param sources the full list of sources. Each one is given its local id and category id.
+     * @return the number of sources that were inserted, updated or deleted.
+     * @throws IllegalArgumentException if a source is missing its name, image url or category
+     *                                  name. Nothing is written in that case.
+     */
+    public int syncSources(List<Source> sources) {
+        // every column is required, so a source that is missing one is turned away before
+        // anything is written, rather than failing the transaction part of the way through
+        for (Source source : sources) {
+            if (source.name == null || source.imageUrl == null || source.categoryName == null) {
+                throw new IllegalArgumentException("source " + source.remoteId +
+                        " needs a name, an image url and a category name");
+            }
+        }
+
+        int changes = 0;
+        boolean categoriesChanged = false;
+
+        // compiled for this sync alone, so that nothing else can rebind them while it runs
+        SQLiteStatement insertCategory = database.compileStatement(INSERT_CATEGORY);
+        SQLiteStatement insertSource = database.compileStatement(INSERT_SOURCE);
+        SQLiteStatement updateSource = database.compileStatement(UPDATE_SOURCE);
+        SQLiteStatement deleteSource = database.compileStatement(DELETE_SOURCE);
+
+        begin();
+        try {
+            Map<String, Long> categoryIds = new HashMap<>();
+            Cursor cursor = database.rawQuery("select " + CategoryModel.COLUMN_ID + ", " +
+                    CategoryModel.COLUMN_NAME + " from " + CategoryModel.TABLE, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    categoryIds.put(cursor.getString(1), cursor.getLong(0));
+                }
+
+                cursor.close();
+            }
+
+            Map<Long, Source> stored = new HashMap<>();
+            cursor = database.rawQuery("select " + SourceModel.COLUMN_ID + " as s" +
+                    SourceModel.COLUMN_ID + ", " + SourceModel.COLUMN_REMOTE_ID + " as s" +
+                    SourceModel.COLUMN_REMOTE_ID + ", " + SourceModel.COLUMN_NAME + " as s" +
+                    SourceModel.COLUMN_NAME + ", " + SourceModel.COLUMN_IMAGE_URL + " as s" +
+                    SourceModel.COLUMN_IMAGE_URL + ", " + SourceModel.COLUMN_CATEGORY_ID + " as c" +
+                    CategoryModel.COLUMN_ID + " from " + SourceModel.TABLE, null);
+            if (cursor != null) {
+                for (Source source : new Source.Mapper(cursor).readAll()) {
+                    stored.put(source.remoteId, source);
+                }
+
+                cursor.close();
+            }
+
+            Map<Long, Source> synced = new HashMap<>();
+            for (Source source : sources) {
+                Long categoryId = categoryIds.get(source.categoryName);
+                if (categoryId == null) {
+                    insertCategory.bindString(1, source.categoryName);
+                    categoryId = insertCategory.executeInsert();
+                    categoryIds.put(source.categoryName, categoryId);
+                    categoriesChanged = true;
+                }
+
+                source.categoryId = categoryId;
+                Source existing = stored.remove(source.remoteId);
+                if (existing == null) {
+                    // the same source listed twice, the last one wins
+                    existing = synced.get(source.remoteId);
+                }
+
+                if (existing == null) {
+                    insertSource.bindLong(1, source.remoteId);
+                    insertSource.bindString(2, source.name);
+                    insertSource.bindString(3, source.imageUrl);
+                    insertSource.bindLong(4, categoryId);
+                    source.id = insertSource.executeInsert();
+                    changes++;
+                } else {
+                    source.id = existing.id;
+
+                    if (!existing.name.equals(source.name) ||
+                            !existing.imageUrl.equals(source.imageUrl) ||
+                            !existing.categoryId.equals(categoryId)) {
+                        updateSource.bindString(1, source.name);
+                        updateSource.bindString(2, source.imageUrl);
+                        updateSource.bindLong(3, categoryId);
+                        updateSource.bindLong(4, existing.id);
+                        updateSource.executeUpdateDelete();
+                        changes++;
+                    }
+                }
+
+                synced.put(source.remoteId, source);
+            }
+
+            for (Source removed : stored.values()) {
+                deleteSource.bindLong(1, removed.id);
+                deleteSource.executeUpdateDelete();
+                changes++;
+            }
+
+            markSuccessful();
+        } finally {
+            end();
+            insertCategory.close();
+            insertSource.close();
+            updateSource.close();
+            deleteSource.close();
+        }
+
+        if (categoriesChanged) {
+            invalidate(CategoryModel.TABLE);
+        }
+
+        if (changes > 0) {
+            invalidate(SourceModel.TABLE);
+        }
+
+        return changes;
     }
 
     /**
@@ -466,10 +2482,8 @@ public class DataSource {
                 "s" + SourceModel.COLUMN_NAME + " asc");
 
         List<Source> sources = new ArrayList<>();
-        if (cursor != null && cursor.moveToFirst()) {
-            do {
-                sources.add(new Source(cursor));
-            } while (cursor.moveToNext());
+        if (cursor != null) {
+            sources = new Source.Mapper(cursor).readAll();
             cursor.close();
         }
 
@@ -518,34 +2532,136 @@ public class DataSource {
      * @return a list of categories.
      */
     public CategoryCounts getCategoryCounts(long timestamp) {
-        Cursor cursor = database.query(
-                ArticleModel.TABLE + " a join " + SourceModel.TABLE + " s on a." +
-                        ArticleModel.COLUMN_SOURCE_ID + " = s." + SourceModel.COLUMN_REMOTE_ID +
-                        " join " + CategoryModel.TABLE + " c on s." +
-                        SourceModel.COLUMN_CATEGORY_ID + " = c." + CategoryModel.COLUMN_ID,
-                new String[] {
-                        "c." + CategoryModel.COLUMN_NAME + " as " + CategoryModel.COLUMN_NAME,
-                        "count(c." + CategoryModel.COLUMN_ID + ") as count"
-                },
-                "a." + ArticleModel.COLUMN_INSERTED_AT + " > ? and " +
-                        "a." + ArticleModel.COLUMN_SOURCE_ID + " not null",
-                new String[] { Long.toString(timestamp) },
-                "c." + CategoryModel.COLUMN_ID,
-                null,
-                "count desc"
-        );
+        long start = System.nanoTime();
+        long hour = timestamp / ArticleCountModel.BUCKET_MILLIS;
+        Cursor cursor = database.rawQuery(CATEGORY_COUNTS, new String[] {
+                Long.toString(hour),
+                Long.toString(timestamp),
+                Long.toString((hour + 1) * ArticleCountModel.BUCKET_MILLIS)
+        });
 
         List<Category> categories = new ArrayList<>();
         int total = 0;
-        if (cursor != null & cursor.moveToFirst()) {
-            do {
-                Category category = new Category(cursor);
+        if (cursor != null) {
+            categories = new Category.Mapper(cursor).readAll();
+            for (Category category : categories) {
                 total += category.numberArticles;
-                categories.add(category);
-            } while (cursor.moveToNext());
+            }
+
             cursor.close();
         }
 
+        metrics.record(Operation.CATEGORY_COUNTS, start);
         return new CategoryCounts(categories, total);
     }
+
+    /**
+     * Gets the category counts for several windows at once, such as the last hour, day and week.
+     * The articles are only gone through once, rather than once for each window.
+     *
+     * @param timestamps the timestamps that each window starts after.
+     * @return the counts for each window, in the same order as the timestamps.
+     */
+    public List<CategoryCounts> getCategoryCounts(long[] timestamps) {
+        long start = System.nanoTime();
+        if (timestamps.length == 0) {
+            return new ArrayList<>();
+        }
+
+        long firstHour = Long.MAX_VALUE;
+        StringBuilder columns = new StringBuilder("select c." + CategoryModel.COLUMN_NAME);
+        StringBuilder partialHours = new StringBuilder();
+        for (int i = 0; i < timestamps.length; i++) {
+            long hour = timestamps[i] / ArticleCountModel.BUCKET_MILLIS;
+            firstHour = Math.min(firstHour, hour);
+
+            // the buckets after the window's first hour, and the articles inside of that hour
+            columns.append(", sum(case when t.at is null then (t.")
+                    .append(ArticleCountModel.COLUMN_HOUR).append(" > ").append(hour)
+                    .append(") * t.n else (t.").append(ArticleCountModel.COLUMN_HOUR)
+                    .append(" = ").append(hour).append(" and t.at > ").append(timestamps[i])
+                    .append(") end)");
+
+            if (i > 0) {
+                partialHours.append(" or ");
+            }
+
+            partialHours.append("(").append(ArticleModel.COLUMN_INSERTED_AT).append(" > ")
+                    .append(timestamps[i]).append(" and ").append(ArticleModel.COLUMN_INSERTED_AT)
+                    .append(" < ").append((hour + 1) * ArticleCountModel.BUCKET_MILLIS).append(")");
+        }
+
+        Cursor cursor = database.rawQuery(columns + CATEGORY_WINDOW_ROWS + partialHours +
+                CATEGORY_WINDOW_GROUP, new String[] { Long.toString(firstHour) });
+
+        List<List<Category>> windows = new ArrayList<>(timestamps.length);
+        int[] totals = new int[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            windows.add(new ArrayList<Category>());
+        }
+
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < timestamps.length; i++) {
+                    int count = cursor.getInt(i + 1);
+                    if (count > 0) {
+                        Category category = new Category();
+                        category.name = cursor.getString(0);
+                        category.numberArticles = count;
+                        windows.get(i).add(category);
+                        totals[i] += count;
+                    }
+                }
+            }
+
+            cursor.close();
+        }
+
+        List<CategoryCounts> counts = new ArrayList<>(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            Collections.sort(windows.get(i), CATEGORY_COUNT_ORDER);
+            counts.add(new CategoryCounts(windows.get(i), totals[i]));
+        }
+
+        metrics.record(Operation.CATEGORY_COUNTS, start);
+        return counts;
+    }
+
+    /**
+     * The transactions that a thread has open through the DataSource. Android only commits once
+     * the outermost one ends, and rolls all of them back if any ended without being marked
+     * successful, so the files that their writes replaced or wrote are held here until then.
+     */
+    private static final class Transaction {
+
+        // begun inside a transaction that was started on the database directly
+        private final boolean untracked;
+        private final BitSet successful = new BitSet();
+        private final List<String> replaced = new ArrayList<>();
+        private final List<String> written = new ArrayList<>();
+        private int depth;
+        private boolean failed;
+
+        Transaction(boolean untracked) {
+            this.untracked = untracked;
+        }
+
+        void begin() {
+            successful.clear(++depth);
+        }
+
+        void markSuccessful() {
+            successful.set(depth);
+        }
+
+        // true once the outermost transaction has ended
+        boolean end() {
+            failed |= !successful.get(depth);
+            return --depth == 0;
+        }
+
+        boolean isSuccessful() {
+            return !failed;
+        }
+    }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long each kind of DataSource operation takes, so that host apps can see how the
+ * local cache behaves in production.
+ *
+ * Timings go into a fixed set of power-of-two buckets held in atomic arrays, so recording one
+ * doesn't allocate or lock. A listener can be set to pass every timing on to the app's own
+ * telemetry, and snapshot() copies the current totals out for reporting.
+ */
+public class DataSourceMetrics {
+
+    /**
+     * The kinds of operation that are timed.
+     */
+    public enum Operation {
+        GET_ARTICLE_HIT,
+        GET_ARTICLE_MISS,
+        INSERT,
+        UPDATE,
+        DELETE,
+        LIST,
+        SEARCH,
+        CATEGORY_COUNTS,
+        RECLAIM
+    }
+
+    /**
+     * Called on the thread that ran the operation, right after it finishes. Keep it quick and
+     * allocation free, it is on the database hot path.
+     */
+    public interface Listener {
+        void onOperation(Operation operation, long durationNanos);
+    }
+
+    // bucket 0 holds anything under a microsecond, bucket i holds [2^(i-1), 2^i) microseconds.
+    // The last one also takes anything slower, which is over half an hour.
+    static final int BUCKETS = 32;
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final AtomicLongArray buckets = new AtomicLongArray(OPERATIONS.length * BUCKETS);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(OPERATIONS.length);
+
+    private volatile Listener listener;
+
+    /**
+     * Sets the listener to pass each timing to, or null to stop.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Records an operation that started at the provided System.nanoTime() and just finished.
+     */
+    public void record(Operation operation, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        int index = operation.ordinal();
+
+        buckets.incrementAndGet(index * BUCKETS + bucket(duration));
+        totalNanos.addAndGet(index, duration);
+
+        long max = maxNanos.get(index);
+        while (duration > max && !maxNanos.compareAndSet(index, max, duration)) {
+            max = maxNanos.get(index);
+        }
+
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onOperation(operation, duration);
+        }
+    }
+
+    /**
+     * Copies out the timings recorded so far.
+     *
+     * @return the timings for each operation. The table sizes are left empty, see
+     *         DataSource.getMetricsSnapshot() for a snapshot that includes them.
+     */
+    public Snapshot snapshot() {
+        return snapshot(Collections.<String, Long>emptyMap(), 0, 0);
+    }
+
+    Snapshot snapshot(Map<String, Long> tableRows, long databaseBytes, long freeBytes) {
+        Map<Operation, Timings> timings = new HashMap<>();
+        for (Operation operation : OPERATIONS) {
+            int index = operation.ordinal();
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(index * BUCKETS + i);
+            }
+
+            timings.put(operation, new Timings(counts, totalNanos.get(index), maxNanos.get(index)));
+        }
+
+        return new Snapshot(timings, tableRows, databaseBytes, freeBytes);
+    }
+
+    /**
+     * Clears everything recorded so far.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            totalNanos.set(i, 0);
+            maxNanos.set(i, 0);
+        }
+    }
+
+    static int bucket(long durationNanos) {
+        long micros = durationNanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * The timings recorded for one kind of operation.
+     */
+    public static class Timings {
+
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Timings(long[] buckets, long totalNanos, long maxNanos) {
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Estimates a percentile of the timings. The answer is the upper edge of the bucket that
+         * the percentile falls in, so it is within a factor of two of the real value.
+         *
+         * @param percentile the percentile to get, between 0 and 100.
+         * @return the estimated duration, or 0 if nothing was recorded.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(maxNanos, (1L << i) * 1000);
+                }
+            }
+
+            return maxNanos;
+        }
+    }
+
+    /**
+     * The metrics at one point in time.
+     */
+    public static class Snapshot {
+
+        private final Map<Operation, Timings> timings;
+        private final Map<String, Long> tableRows;
+        private final long databaseBytes;
+        private final long freeBytes;
+
+        Snapshot(Map<Operation, Timings> timings, Map<String, Long> tableRows, long databaseBytes,
+                 long freeBytes) {
+            this.timings = timings;
+            this.tableRows = tableRows;
+            this.databaseBytes = databaseBytes;
+            this.freeBytes = freeBytes;
+        }
+
+        public Timings getTimings(Operation operation) {
+            return timings.get(operation);
+        }
+
+        /**
+         * Gets the number of rows in each table, by table name.
+         */
+        public Map<String, Long> getTableRows() {
+            return tableRows;
+        }
+
+        /**
+         * Gets the size of the database file, not including the write-ahead log.
+         */
+        public long getDatabaseBytes() {
+            return databaseBytes;
+        }
+
+        /**
+         * Gets how much of the database file is free pages, which DataSource.reclaimFreePages()
+         * can give back.
+         */
+        public long getFreeBytes() {
+            return freeBytes;
+        }
+    }
+}
@@ -16,31 +16,58 @@
 
 package xyz.klinker.android.article.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import androidx.annotation.VisibleForTesting;
 
+import xyz.klinker.android.article.data.model.ArticleCountModel;
 import xyz.klinker.android.article.data.model.ArticleModel;
+import xyz.klinker.android.article.data.model.ArticleSearchModel;
 import xyz.klinker.android.article.data.model.CategoryModel;
 import xyz.klinker.android.article.data.model.ContentModel;
+import xyz.klinker.android.article.data.model.ContentSizeModel;
 import xyz.klinker.android.article.data.model.DatabaseTable;
+import xyz.klinker.android.article.data.model.FailedUrlModel;
 import xyz.klinker.android.article.data.model.SourceModel;
 
 /**
- * Handles creating and updating a database.
+ * Handles creating and updating a database. The database is opened in write-ahead-log mode so
+ * that reads can run on their own connections while a write is in progress, and with foreign keys
+ * turned on so that deleting an article deletes its content.
  */
 public class DatabaseSQLiteHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "articles.db";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 16;
+
+    private static final int CONTENT_COMPRESSION_CHUNK = 25;
+    private static final int SEARCH_INDEX_CHUNK = 25;
+    private static final int SEARCH_REBUILD_CHUNK = 200;
+    private static final int URL_HASH_CHUNK = 500;
 
     private DatabaseTable[] tables = {
             new ArticleModel(),
             new ContentModel(),
             new SourceModel(),
-            new CategoryModel()
+            new CategoryModel(),
+            new ArticleSearchModel(),
+            new ArticleCountModel(),
+            new FailedUrlModel(),
+            new ContentSizeModel()
     };
 
+    private volatile boolean contentCompressionPending = false;
+    private volatile boolean searchIndexPending = false;
+    private volatile boolean searchRebuildPending = false;
+    private volatile boolean autoVacuumPending = false;
+    private volatile boolean urlHashPending = false;
+    private volatile boolean created = false;
+
     /**
      * Construct a new database helper.
      *
@@ -48,6 +75,46 @@ public class DatabaseSQLiteHelper extends SQLiteOpenHelper {
      */
     public DatabaseSQLiteHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+
+        // runs for every connection in the pool, the setting doesn't carry over between them.
+        // Older versions never call this, onOpen turns foreign keys on for them instead.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.setForeignKeyConstraintsEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // before jelly bean, write-ahead-logging can only be turned on once the database is open,
+        // and onConfigure isn't called, so foreign keys are turned on here as well
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA foreign_keys = ON");
+        }
+
+        // the tables onCreate just made are still empty, so rebuilding the file only copies a
+        // handful of pages and can happen right here, rather than on a background thread
+        if (created && !db.isReadOnly()) {
+            created = false;
+            enableIncrementalVacuum(db);
+        }
+
+        if ((urlHashPending || contentCompressionPending || searchRebuildPending ||
+                searchIndexPending || autoVacuumPending) && !db.isReadOnly()) {
+            startBackgroundMigrations(db);
+        }
     }
 
     @Override
@@ -59,6 +126,19 @@ public class DatabaseSQLiteHelper extends SQLiteOpenHelper {
                 db.execSQL(index);
             }
         }
+
+        db.execSQL(ArticleSearchModel.getSourceStatement());
+
+        for (DatabaseTable table : tables) {
+            for (String trigger : table.getTriggerStatements()) {
+                db.execSQL(trigger);
+            }
+        }
+
+        // android has already written its metadata table by the time onConfigure or onCreate
+        // run, and auto vacuum can only be switched on before the first table exists. A vacuum
+        // is still needed, but it runs in onOpen, once this transaction has been committed.
+        created = true;
     }
 
     @Override
@@ -77,15 +157,454 @@ public class DatabaseSQLiteHelper extends SQLiteOpenHelper {
                 db.execSQL(tables[2].getIndexStatements()[1]);
                 db.execSQL(tables[3].getIndexStatements()[0]);
                 db.execSQL("ALTER TABLE article ADD COLUMN source_id integer");
+                db.execSQL("create index if not exists source_id_article_index on article (source_id);");
+            } catch(Exception e) { }
+        }
+
+        if (oldVersion < 4) {
+            try {
+                db.execSQL("drop index if exists url_article_index");
+                db.execSQL("drop index if exists source_id_article_index");
+                db.execSQL(tables[0].getIndexStatements()[0]);
                 db.execSQL(tables[0].getIndexStatements()[1]);
+                db.execSQL(tables[0].getIndexStatements()[2]);
+            } catch(Exception e) { }
+        }
+
+        if (oldVersion < 5) {
+            // compressing every stored article here would hold up the first open for a long
+            // time, so the existing text rows are converted in the background once it is open
+            contentCompressionPending = true;
+        }
+
+        if (oldVersion < 6) {
+            try {
+                db.execSQL(tables[4].getCreateStatement());
+                db.execSQL("insert into " + ArticleSearchModel.TABLE + " (" +
+                        ArticleSearchModel.COLUMN_DOCID + ", " +
+                        ArticleSearchModel.COLUMN_TITLE + ", " +
+                        ArticleSearchModel.COLUMN_DESCRIPTION + ", " +
+                        ArticleSearchModel.COLUMN_AUTHOR + ") select " +
+                        ArticleModel.COLUMN_ID + ", " +
+                        ArticleModel.COLUMN_TITLE + ", " +
+                        ArticleModel.COLUMN_DESCRIPTION + ", " +
+                        ArticleModel.COLUMN_AUTHOR + " from " + ArticleModel.TABLE);
+            } catch(Exception e) { }
+
+            // the body text has to be pulled out of the html in java, so like the compression
+            // above, that part happens in the background
+            searchIndexPending = true;
+        }
+
+        if (oldVersion < 7) {
+            try {
+                // existing rows tie at 0 and fall back to being evicted oldest first
+                db.execSQL("ALTER TABLE article ADD COLUMN last_accessed_at integer not null DEFAULT 0");
+                db.execSQL(tables[0].getIndexStatements()[3]);
+            } catch(Exception e) { }
+        }
+
+        if (oldVersion < 8) {
+            try {
+                // existing rows get their hash the next time their content is written
+                db.execSQL("ALTER TABLE content ADD COLUMN content_hash text");
+                db.execSQL(tables[1].getIndexStatements()[1]);
+                db.execSQL(tables[1].getTriggerStatements()[0]);
+                db.execSQL(tables[1].getTriggerStatements()[1]);
+            } catch(Exception e) { }
+        }
+
+        if (oldVersion < 9) {
+            try {
+                // one grouped pass over the articles, much quicker than the background migrations
+                db.execSQL(tables[5].getCreateStatement());
+                db.execSQL(tables[5].getIndexStatements()[0]);
+                db.execSQL(ArticleCountModel.getFillStatement());
+                db.execSQL(tables[5].getTriggerStatements()[0]);
+                db.execSQL(tables[5].getTriggerStatements()[1]);
+                db.execSQL(tables[5].getTriggerStatements()[2]);
+            } catch(Exception e) { }
+        }
+
+        if (oldVersion < 10) {
+            // sqlite can't add a foreign key to an existing table, so the content table is
+            // rebuilt. Unlike the steps that only add to the schema, stopping part of the way
+            // through would leave the content in content_old, so the rebuild is a transaction of
+            // its own and a failure fails the upgrade rather than being skipped.
+            db.beginTransaction();
+            try {
+                // content left behind by deleted articles is dropped first, while the trigger is
+                // still there to hand a shared body over to another row
+                db.execSQL("delete from content where article_id not in (select _id from article)");
+                db.execSQL("ALTER TABLE content RENAME TO content_old");
+                db.execSQL("drop index if exists article_content_index");
+                db.execSQL("drop index if exists content_hash_content_index");
+                db.execSQL("drop trigger if exists content_delete_handoff");
+                db.execSQL("drop trigger if exists content_update_handoff");
+                db.execSQL(tables[1].getCreateStatement());
+                db.execSQL("insert into content (_id, article_id, content, content_hash) " +
+                        "select _id, article_id, content, content_hash from content_old");
+                db.execSQL("drop table content_old");
+                db.execSQL(tables[1].getIndexStatements()[0]);
+                db.execSQL(tables[1].getIndexStatements()[1]);
+                db.execSQL(tables[1].getTriggerStatements()[0]);
+                db.execSQL(tables[1].getTriggerStatements()[1]);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        if (oldVersion < 11) {
+            try {
+                // coming from before 10, the rebuilt table already has these
+                db.execSQL("ALTER TABLE content ADD COLUMN content_path text");
+                db.execSQL("ALTER TABLE content ADD COLUMN content_length integer");
+            } catch(Exception e) { }
+
+            try {
+                // the handoff now skips rows whose body is in a file
+                db.execSQL("drop trigger if exists content_delete_handoff");
+                db.execSQL("drop trigger if exists content_update_handoff");
+                db.execSQL(tables[1].getTriggerStatements()[0]);
+                db.execSQL(tables[1].getTriggerStatements()[1]);
+            } catch(Exception e) { }
+        }
+
+        if (oldVersion < 12) {
+            try {
+                db.execSQL(tables[6].getCreateStatement());
+            } catch(Exception e) { }
+        }
+
+        if (oldVersion < 13) {
+            try {
+                db.execSQL("ALTER TABLE article ADD COLUMN url_hash integer");
+                db.execSQL(tables[0].getIndexStatements()[4]);
+            } catch(Exception e) { }
+
+            // the urls are hashed in the background, DataSource looks articles up by their url
+            // until every row has its hash
+            urlHashPending = true;
+        }
+
+        if (oldVersion < 14) {
+            // turning on auto vacuum rebuilds the whole file, which can't happen inside the
+            // upgrade's transaction, so it is done in the background once the database is open
+            autoVacuumPending = true;
+        }
+
+        if (oldVersion < 15) {
+            try {
+                // coming from before 10, the rebuilt table already has it
+                db.execSQL("ALTER TABLE content ADD COLUMN search_text text");
+            } catch(Exception e) { }
+
+            // the search table reads its text from the article and content tables now, rather
+            // than keeping a copy of it. The body text moves over to the content rows and the
+            // table is created again, empty, to be filled in the background. Like the content
+            // rebuild in 10, a failure here fails the upgrade rather than losing the text.
+            if (oldVersion >= 6) {
+                db.execSQL("update content set search_text = (select body from article_search " +
+                        "where docid = content.article_id)");
+            }
+
+            db.execSQL("drop table if exists article_search");
+            db.execSQL(ArticleSearchModel.getSourceStatement());
+            db.execSQL(tables[4].getCreateStatement());
+            searchRebuildPending = true;
+        }
+
+        if (oldVersion < 16) {
+            try {
+                // one pass over the content table, after which the triggers keep the total
+                db.execSQL(tables[7].getCreateStatement());
+                db.execSQL(ContentSizeModel.getFillStatement());
+                db.execSQL(tables[7].getTriggerStatements()[0]);
+                db.execSQL(tables[7].getTriggerStatements()[1]);
+                db.execSQL(tables[7].getTriggerStatements()[2]);
             } catch(Exception e) { }
         }
     }
 
+    /**
+     * Whether some articles were stored before urls were hashed and are still waiting for theirs,
+     * in which case articles have to be looked up by their url rather than its hash.
+     */
+    public boolean isUrlHashPending() {
+        return urlHashPending;
+    }
+
+    /**
+     * Runs the data migrations that are too slow for onUpgrade on a background thread. Each one
+     * works a chunk at a time, so that every write transaction stays short.
+     */
+    private void startBackgroundMigrations(final SQLiteDatabase db) {
+        // left set until the urls are hashed, since lookups check it to know which way to go
+        final boolean hashUrls = urlHashPending;
+        final boolean compressContent = contentCompressionPending;
+        final boolean rebuildSearch = searchRebuildPending;
+        final boolean indexContent = searchIndexPending;
+        final boolean enableAutoVacuum = autoVacuumPending;
+        contentCompressionPending = false;
+        searchRebuildPending = false;
+        searchIndexPending = false;
+        autoVacuumPending = false;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean compressed = !compressContent;
+                boolean rebuilt = !rebuildSearch;
+                try {
+                    // first, since lookups are slower until it is done
+                    while (hashUrls && hashUrlChunk(db, URL_HASH_CHUNK) > 0) {
+                        Thread.yield();
+                    }
+
+                    urlHashPending = false;
+
+                    while (compressContent && compressContentChunk(db, CONTENT_COMPRESSION_CHUNK) > 0) {
+                        Thread.yield();
+                    }
+
+                    compressed = true;
+
+                    // before the body text is indexed below, which takes out what this put in
+                    long lastArticleId = 0;
+                    while (rebuildSearch && lastArticleId != -1) {
+                        lastArticleId = rebuildSearchChunk(db, lastArticleId, SEARCH_REBUILD_CHUNK);
+                        Thread.yield();
+                    }
+
+                    rebuilt = true;
+
+                    lastArticleId = 0;
+                    while (indexContent && lastArticleId != -1) {
+                        lastArticleId = indexContentChunk(db, lastArticleId, SEARCH_INDEX_CHUNK);
+                        Thread.yield();
+                    }
+
+                    // last, so that the rebuilt file leaves out what compression freed up
+                    if (enableAutoVacuum) {
+                        enableIncrementalVacuum(db);
+                    }
+                } catch (Exception e) {
+                    // the database was closed underneath us, pick back up the next time it opens
+                    contentCompressionPending = !compressed;
+                    searchRebuildPending = !rebuilt;
+                    searchIndexPending = indexContent;
+                    autoVacuumPending = enableAutoVacuum;
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Switches the database over to incremental auto vacuum, so that DataSource.reclaimFreePages()
+     * can give free pages back a few at a time. This rebuilds the whole file and holds the write
+     * lock while it does, but it only ever runs once: right after the database is created, while
+     * it is still empty, or in the background after upgrading an existing one.
+     *
+     * @param db the database to convert.
+     */
+    @VisibleForTesting
+    void enableIncrementalVacuum(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+    }
+
+    /**
+     * Compresses up to the provided number of plain text content rows.
+     *
+     * @param db the database to migrate.
+     * @param limit the maximum number of rows to convert.
+     * @return the number of rows that were converted.
+     */
+    @VisibleForTesting
+    int compressContentChunk(SQLiteDatabase db, int limit) {
+        SQLiteStatement statement = db.compileStatement("update " + ContentModel.TABLE +
+                " set " + ContentModel.COLUMN_CONTENT + "=? where " + ContentModel.COLUMN_ID + "=?");
+        int converted = 0;
+
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("select " + ContentModel.COLUMN_ID + ", " +
+                    ContentModel.COLUMN_CONTENT + " from " + ContentModel.TABLE + " where " +
+                    "typeof(" + ContentModel.COLUMN_CONTENT + ") = 'text' limit " + limit, null);
+
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    statement.bindBlob(1, ContentCompressor.compress(cursor.getString(1)));
+                    statement.bindLong(2, cursor.getLong(0));
+                    statement.executeUpdateDelete();
+                    converted++;
+                }
+
+                cursor.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+
+        return converted;
+    }
+
+    /**
+     * Indexes the next chunk of articles, in article id order, into the search table that the
+     * upgrade to 15 created again. Articles that were indexed by a write in the meantime are
+     * skipped.
+     *
+     * @param db the database to migrate.
+     * @param afterArticleId only articles with a larger id are indexed.
+     * @param limit the maximum number of articles to go through.
+     * @return the id of the last article that was gone through, or -1 when there are none left.
+     */
+    @VisibleForTesting
+    long rebuildSearchChunk(SQLiteDatabase db, long afterArticleId, int limit) {
+        long lastArticleId = -1;
+
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("select max(" + ArticleModel.COLUMN_ID + ") from (select " +
+                    ArticleModel.COLUMN_ID + " from " + ArticleModel.TABLE + " where " +
+                    ArticleModel.COLUMN_ID + " > " + afterArticleId + " order by " +
+                    ArticleModel.COLUMN_ID + " limit " + limit + ")", null);
+
+            if (cursor != null) {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    lastArticleId = cursor.getLong(0);
+                }
+
+                cursor.close();
+            }
+
+            // the search table finds every article through the view, whether it is indexed or
+            // not, so the ones that are come from its docsize table, which only has those
+            if (lastArticleId != -1) {
+                db.execSQL(ArticleSearchModel.getIndexStatement("rowid between " +
+                        (afterArticleId + 1) + " and " + lastArticleId + " and rowid not in " +
+                        "(select docid from " + ArticleSearchModel.TABLE + "_docsize where " +
+                        "docid between " + (afterArticleId + 1) + " and " + lastArticleId + ")"));
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return lastArticleId;
+    }
+
+    /**
+     * Fills in the search text of the next chunk of articles, in article id order, and indexes
+     * it. These are the articles stored before the search table existed, which were indexed
+     * without their body.
+     *
+     * @param db the database to migrate.
+     * @param afterArticleId only articles with a larger id are indexed.
+     * @param limit the maximum number of articles to index.
+     * @return the id of the last article that was indexed, or -1 when there are none left.
+     */
+    @VisibleForTesting
+    long indexContentChunk(SQLiteDatabase db, long afterArticleId, int limit) {
+        SQLiteStatement delete = db.compileStatement("delete from " + ArticleSearchModel.TABLE +
+                " where " + ArticleSearchModel.COLUMN_DOCID + "=?");
+        SQLiteStatement update = db.compileStatement("update " + ContentModel.TABLE + " set " +
+                ContentModel.COLUMN_SEARCH_TEXT + "=? where " + ContentModel.COLUMN_ARTICLE_ID +
+                "=?");
+        SQLiteStatement index = db.compileStatement(
+                ArticleSearchModel.getIndexStatement("rowid=?"));
+        long lastArticleId = -1;
+
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("select " + ContentModel.COLUMN_ARTICLE_ID + ", " +
+                    ContentModel.COLUMN_CONTENT + " from " + ContentModel.TABLE + " where " +
+                    ContentModel.COLUMN_ARTICLE_ID + " > " + afterArticleId + " order by " +
+                    ContentModel.COLUMN_ARTICLE_ID + " limit " + limit, null);
+
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    lastArticleId = cursor.getLong(0);
+                    String body = SearchIndex.plainText(ContentCompressor.read(cursor, 1));
+
+                    // out of the index before the text changes, see ArticleSearchModel
+                    if (body != null) {
+                        delete.bindLong(1, lastArticleId);
+                        delete.executeUpdateDelete();
+
+                        update.bindString(1, body);
+                        update.bindLong(2, lastArticleId);
+                        update.executeUpdateDelete();
+
+                        index.bindLong(1, lastArticleId);
+                        index.executeInsert();
+                    }
+                }
+
+                cursor.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            delete.close();
+            update.close();
+            index.close();
+        }
+
+        return lastArticleId;
+    }
+
+    /**
+     * Fills in the url hash for up to the provided number of articles that don't have one yet.
+     *
+     * @param db the database to migrate.
+     * @param limit the maximum number of articles to hash.
+     * @return the number of articles that were hashed.
+     */
+    @VisibleForTesting
+    int hashUrlChunk(SQLiteDatabase db, int limit) {
+        SQLiteStatement statement = db.compileStatement("update " + ArticleModel.TABLE +
+                " set " + ArticleModel.COLUMN_URL_HASH + "=? where " + ArticleModel.COLUMN_ID + "=?");
+        int hashed = 0;
+
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("select " + ArticleModel.COLUMN_ID + ", " +
+                    ArticleModel.COLUMN_URL + " from " + ArticleModel.TABLE + " where " +
+                    ArticleModel.COLUMN_URL_HASH + " is null limit " + limit, null);
+
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    statement.bindLong(1, UrlHasher.hash(cursor.getString(1)));
+                    statement.bindLong(2, cursor.getLong(0));
+                    statement.executeUpdateDelete();
+                    hashed++;
+                }
+
+                cursor.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+
+        return hashed;
+    }
+
     public void onDrop(SQLiteDatabase db) {
         for (DatabaseTable table : tables) {
             db.execSQL("drop table if exists " + table.getTableName());
         }
+
+        db.execSQL("drop view if exists " + ArticleSearchModel.SOURCE);
     }
 
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Remembers the urls that the article api couldn't parse, or that aren't articles, so that they
+ * aren't sent to the api again right away. A url that isn't an article is left alone for a week.
+ * One that failed is retried after a minute, then after twice as long for every failure in a
+ * row, up to a day.
+ *
+ * DataSource keeps these in the failed_url table as well, and fills this from it the first time
+ * it is needed.
+ *
+ * Entries are dropped once they can no longer matter. A url that isn't an article is dropped as
+ * soon as it is due again. A failed one keeps its count of failures in a row for its next
+ * backoff, so it is only dropped once it has been due for as long as the longest backoff,
+ * without failing again.
+ */
+final class FailedUrls {
+
+    static final long NOT_ARTICLE_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+    static final long FIRST_RETRY_MILLIS = 60 * 1000;
+    static final long MAX_RETRY_MILLIS = 24 * 60 * 60 * 1000;
+
+    // how often the entries are gone through for the ones to drop, at most
+    static final long PRUNE_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * A url that shouldn't be parsed again until its retry time.
+     */
+    static final class Entry {
+
+        final boolean notArticle;
+        final int failures;
+        final long retryAt;
+
+        Entry(boolean notArticle, int failures, long retryAt) {
+            this.notArticle = notArticle;
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean loaded;
+    private long nextPruneAt;
+
+    /**
+     * Checks whether the entries have been filled from the database yet.
+     */
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Fills in the entries that were read from the database.
+     *
+     * @param stored the stored entries, by url.
+     * @param now the current time.
+     */
+    synchronized void load(Map<String, Entry> stored, long now) {
+        // anything recorded while the table was being read is newer
+        for (Map.Entry<String, Entry> entry : stored.entrySet()) {
+            if (!entries.containsKey(entry.getKey()) && !isStale(entry.getValue(), now)) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Checks whether a url should be left alone for now.
+     *
+     * @param url the url, without its query parameters.
+     * @param now the current time.
+     * @return true if the url failed or wasn't an article, and isn't due to be retried yet.
+     */
+    synchronized boolean isFailed(String url, long now) {
+        Entry entry = entries.get(url);
+        if (entry == null) {
+            return false;
+        }
+
+        if (isStale(entry, now)) {
+            entries.remove(url);
+        }
+
+        return now < entry.retryAt;
+    }
+
+    /**
+     * Records that the api couldn't parse a url.
+     *
+     * @param url the url, without its query parameters.
+     * @param now the current time.
+     * @return the entry to store.
+     */
+    synchronized Entry failed(String url, long now) {
+        prune(now);
+        Entry previous = entries.get(url);
+        int failures = previous == null || previous.notArticle ? 1 : previous.failures + 1;
+
+        Entry entry = new Entry(false, failures, now + retryDelay(failures));
+        entries.put(url, entry);
+        return entry;
+    }
+
+    /**
+     * Records that a url isn't an article.
+     *
+     * @param url the url, without its query parameters.
+     * @param now the current time.
+     * @return the entry to store.
+     */
+    synchronized Entry notArticle(String url, long now) {
+        prune(now);
+        Entry entry = new Entry(true, 0, now + NOT_ARTICLE_MILLIS);
+        entries.put(url, entry);
+        return entry;
+    }
+
+    /**
+     * Forgets a url, once it has parsed into an article.
+     *
+     * @param url the url, without its query parameters.
+     * @return true if the url was known to have failed.
+     */
+    synchronized boolean remove(String url) {
+        return entries.remove(url) != null;
+    }
+
+    /**
+     * Forgets every url.
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Checks whether an entry can be dropped, see the class comment.
+     *
+     * @param entry the entry.
+     * @param now the current time.
+     * @return true once the entry no longer affects whether or when its url is retried.
+     */
+    static boolean isStale(Entry entry, long now) {
+        return entry.notArticle ? now >= entry.retryAt : now >= entry.retryAt + MAX_RETRY_MILLIS;
+    }
+
+    // drops the stale entries, at most once per interval, so the entries don't keep growing with
+    // every url that has ever failed
+    private void prune(long now) {
+        if (now < nextPruneAt) {
+            return;
+        }
+
+        nextPruneAt = now + PRUNE_INTERVAL_MILLIS;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (isStale(iterator.next(), now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets how long to wait before trying a url again.
+     *
+     * @param failures the number of times in a row that it has failed, including this one.
+     * @return the delay in milliseconds.
+     */
+    static long retryDelay(int failures) {
+        if (failures > 20) {
+            return MAX_RETRY_MILLIS;
+        }
+
+        return Math.min(FIRST_RETRY_MILLIS << (failures - 1), MAX_RETRY_MILLIS);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells observers when the tables they care about have been written to. The DataSource publishes
+ * the tables that each of its writes touched, once the write has been committed.
+ *
+ * Observers are called on the thread that made the write, so they should only schedule work
+ * and return quickly.
+ */
+public class InvalidationTracker {
+
+    /**
+     * Listener for table invalidation events.
+     */
+    public interface Observer {
+
+        /**
+         * Called after a write to one or more of the observed tables.
+         *
+         * @param tables the observed tables that were written to.
+         */
+        void onInvalidated(Set<String> tables);
+
+    }
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts telling an observer about writes to the provided tables.
+     *
+     * @param observer the observer to notify.
+     * @param tables the names of the tables to observe.
+     */
+    public void addObserver(Observer observer, String... tables) {
+        registrations.add(new Registration(observer,
+                new HashSet<>(Arrays.asList(tables))));
+    }
+
+    /**
+     * Stops notifying an observer.
+     *
+     * @param observer the observer to remove.
+     */
+    public void removeObserver(Observer observer) {
+        for (Registration registration : registrations) {
+            if (registration.observer == observer) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Checks whether anything is observing, so that writers can skip working out what changed.
+     */
+    public boolean hasObservers() {
+        return !registrations.isEmpty();
+    }
+
+    /**
+     * Notifies the observers of the provided tables. The DataSource calls this for its own
+     * writes. Call it after writing to the database some other way, such as with execSql().
+     *
+     * @param tables the names of the tables that were written to.
+     */
+    public void notifyInvalidated(String... tables) {
+        notifyInvalidated(new HashSet<>(Arrays.asList(tables)));
+    }
+
+    void notifyInvalidated(Set<String> tables) {
+        for (Registration registration : registrations) {
+            Set<String> invalidated = null;
+            for (String table : tables) {
+                if (registration.tables.contains(table)) {
+                    if (invalidated == null) {
+                        invalidated = new HashSet<>();
+                    }
+
+                    invalidated.add(table);
+                }
+            }
+
+            if (invalidated != null) {
+                registration.observer.onInvalidated(Collections.unmodifiableSet(invalidated));
+            }
+        }
+    }
+
+    private static class Registration {
+
+        private final Observer observer;
+        private final Set<String> tables;
+
+        Registration(Observer observer, Set<String> tables) {
+            this.observer = observer;
+            this.tables = tables;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A query that runs again whenever one of the tables it reads from is written to. A burst of
+ * writes only runs it once: the first write schedules the query a short time later, and any
+ * others before it starts are covered by that run.
+ *
+ * Create one through AsyncDataSource.observe(), and stop() it when the results are no longer
+ * being shown.
+ *
+ * @param <T> the type of the query result.
+ */
+public class ObservableQuery<T> implements InvalidationTracker.Observer {
+
+    private final InvalidationTracker tracker;
+    private final String[] tables;
+    private final Callable<T> query;
+    private final Executor readers;
+    private final ScheduledExecutorService scheduler;
+    private final long debounceMillis;
+    private final DataSourceCallback<T> callback;
+    private final Executor callbackExecutor;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean active = false;
+
+    ObservableQuery(InvalidationTracker tracker, String[] tables, Callable<T> query,
+                    Executor readers, ScheduledExecutorService scheduler, long debounceMillis,
+                    DataSourceCallback<T> callback, Executor callbackExecutor) {
+        this.tracker = tracker;
+        this.tables = tables;
+        this.query = query;
+        this.readers = readers;
+        this.scheduler = scheduler;
+        this.debounceMillis = debounceMillis;
+        this.callback = callback;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Starts observing the tables and runs the query for the first time.
+     */
+    void start() {
+        active = true;
+        tracker.addObserver(this, tables);
+
+        scheduled.set(true);
+        readers.execute(runQuery);
+    }
+
+    /**
+     * Stops observing. The callback won't be called again, even if a query is in progress.
+     */
+    public void stop() {
+        active = false;
+        tracker.removeObserver(this);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public void onInvalidated(Set<String> tables) {
+        if (active && scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    readers.execute(runQuery);
+                }
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private final Runnable runQuery = new Runnable() {
+        @Override
+        public void run() {
+            // a write from here on needs another run to be seen
+            scheduled.set(false);
+            if (!active) {
+                return;
+            }
+
+            T result;
+            try {
+                result = query.call();
+            } catch (Exception e) {
+                // the database was closed underneath us, the next write will try again
+                return;
+            }
+
+            if (active) {
+                AsyncDataSource.deliver(result, callback, callbackExecutor);
+            }
+        }
+    };
+}
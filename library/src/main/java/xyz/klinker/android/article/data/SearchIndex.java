@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.jsoup.Jsoup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import xyz.klinker.android.article.data.model.ArticleSearchModel;
+
+/**
+ * Helpers for the full text search table: turning article html into indexable text, turning
+ * user input into a safe match expression and ranking the matches.
+ */
+final class SearchIndex {
+
+    private static final String[] COLUMNS = {
+            ArticleSearchModel.COLUMN_TITLE,
+            ArticleSearchModel.COLUMN_DESCRIPTION,
+            ArticleSearchModel.COLUMN_AUTHOR,
+            ArticleSearchModel.COLUMN_BODY
+    };
+
+    private static final String[] COLUMN_WEIGHTS = { "4.0", "2.0", "2.0", "1.0" };
+
+    // every ranked term adds a lookup for each column, so a long query is only ranked on its
+    // first few words. All of them still have to match.
+    private static final int MAX_RANKED_TERMS = 8;
+
+    private SearchIndex() {
+
+    }
+
+    /**
+     * Strips the html down to the text a user would actually read.
+     *
+     * @param html the article content.
+     * @return the plain text, or null if there was no content.
+     */
+    static String plainText(String html) {
+        if (html == null) {
+            return null;
+        }
+
+        return Jsoup.parse(html).text();
+    }
+
+    /**
+     * Splits free form user input into the words to search for. Anything that isn't a letter or
+     * a digit separates words, so characters with a meaning to fts, like quotes or a dash, are
+     * dropped.
+     *
+     * @param query the text the user searched for.
+     * @return the words, empty if the query has nothing to search for.
+     */
+    static List<String> terms(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) {
+            return terms;
+        }
+
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(c);
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+
+        return terms;
+    }
+
+    /**
+     * Builds an fts match expression out of free form user input. Every word is quoted so that
+     * nothing in it can be read as an operator.
+     *
+     * @param query the text the user searched for.
+     * @return the match expression, or null if the query has nothing to search for.
+     */
+    static String matchExpression(String query) {
+        return matchExpression(terms(query));
+    }
+
+    private static String matchExpression(List<String> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+
+            match.append('"').append(term).append('"');
+        }
+
+        return match.toString();
+    }
+
+    /**
+     * Builds the sql that scores a row of the search table, for a query that matches it against
+     * ?1. Each term found in a column adds that column's weight, divided by the number of rows
+     * with the term in that column, so a hit counts for more when the term is rare across the
+     * whole index, and hits in the title count for more than hits in the body.
+     *
+     * Every term and column is one lookup in the index that sqlite runs once per query, not once
+     * per row, so the matches can be ordered and paged without leaving sqlite.
+     *
+     * @param terms the words to search for, from terms().
+     * @return the expression, higher is better. Its arguments come from queryArguments().
+     */
+    static String rankExpression(List<String> terms) {
+        StringBuilder rank = new StringBuilder();
+        int argument = 2;
+        for (int term = 0; term < rankedTerms(terms); term++) {
+            for (int column = 0; column < COLUMNS.length; column++) {
+                String matches = " from " + ArticleSearchModel.TABLE + " where " +
+                        ArticleSearchModel.TABLE + " match ?" + argument++;
+                if (rank.length() > 0) {
+                    rank.append(" + ");
+                }
+
+                rank.append("(case when ").append(ArticleSearchModel.COLUMN_DOCID)
+                        .append(" in (select ").append(ArticleSearchModel.COLUMN_DOCID)
+                        .append(matches).append(") then ").append(COLUMN_WEIGHTS[column])
+                        .append(" / (select count(*)").append(matches).append(") else 0 end)");
+            }
+        }
+
+        return rank.toString();
+    }
+
+    /**
+     * Builds the arguments for a query that uses rankExpression(): the match expression for the
+     * whole query, then one match for each term in each column.
+     *
+     * @param terms the words to search for, from terms().
+     * @return the arguments, in the order the expression numbers them.
+     */
+    static String[] queryArguments(List<String> terms) {
+        String[] arguments = new String[1 + rankedTerms(terms) * COLUMNS.length];
+        arguments[0] = matchExpression(terms);
+
+        int argument = 1;
+        for (int term = 0; term < rankedTerms(terms); term++) {
+            for (String column : COLUMNS) {
+                // a column filter only takes a bare word, lower case so that it can't be read as
+                // one of the AND, OR, NOT or NEAR operators
+                arguments[argument++] = column + ":" + lowerCaseAscii(terms.get(term));
+            }
+        }
+
+        return arguments;
+    }
+
+    private static int rankedTerms(List<String> terms) {
+        return Math.min(terms.size(), MAX_RANKED_TERMS);
+    }
+
+    // the tokenizer only folds the case of ascii letters, so the others are left as they are
+    private static String lowerCaseAscii(String term) {
+        StringBuilder lower = new StringBuilder(term.length());
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            lower.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+
+        return lower.toString();
+    }
+}
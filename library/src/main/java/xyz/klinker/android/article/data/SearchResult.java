@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+/**
+ * A single article matching a search, along with a short piece of the matching text.
+ */
+public class SearchResult {
+
+    private Article article;
+    private String snippet;
+    private double rank;
+
+    public SearchResult(Article article, String snippet, double rank) {
+        this.article = article;
+        this.snippet = snippet;
+        this.rank = rank;
+    }
+
+    /**
+     * Gets the matching article. The content is not loaded, use DataSource.getArticle() for that.
+     */
+    public Article getArticle() {
+        return article;
+    }
+
+    /**
+     * Gets the text around the best match, with the matching terms wrapped in <b> tags.
+     */
+    public String getSnippet() {
+        return snippet;
+    }
+
+    /**
+     * Gets the relevance of the result, higher is better.
+     */
+    public double getRank() {
+        return rank;
+    }
+}
@@ -87,4 +87,43 @@ public class Source implements DatabaseModel {
     public int hashCode() {
         return this.name.hashCode() + this.imageUrl.hashCode() + this.categoryName.hashCode();
     }
+
+    /**
+     * Reads sources from a cursor, matching up the columns only once for the whole cursor.
+     */
+    public static final class Mapper extends CursorMapper<Source> {
+
+        private final int id;
+        private final int name;
+        private final int imageUrl;
+        private final int remoteId;
+        private final int categoryId;
+        private final int categoryName;
+
+        public Mapper(Cursor cursor) {
+            super(cursor);
+
+            id = index("s" + SourceModel.COLUMN_ID);
+            name = index("s" + SourceModel.COLUMN_NAME);
+            imageUrl = index("s" + SourceModel.COLUMN_IMAGE_URL);
+            remoteId = index("s" + SourceModel.COLUMN_REMOTE_ID);
+            categoryId = index("c" + CategoryModel.COLUMN_ID);
+            categoryName = index("c" + CategoryModel.COLUMN_NAME);
+        }
+
+        @Override
+        protected Source create() {
+            return new Source();
+        }
+
+        @Override
+        protected void fill(Source source, Cursor cursor) {
+            if (id != -1) source.id = cursor.getLong(id);
+            if (name != -1) source.name = cursor.getString(name);
+            if (imageUrl != -1) source.imageUrl = cursor.getString(imageUrl);
+            if (remoteId != -1) source.remoteId = cursor.getLong(remoteId);
+            if (categoryId != -1) source.categoryId = cursor.getLong(categoryId);
+            if (categoryName != -1) source.categoryName = cursor.getString(categoryName);
+        }
+    }
 }
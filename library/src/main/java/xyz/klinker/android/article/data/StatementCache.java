@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds on to compiled statements for as long as the database stays open, so that the hot
+ * writes are parsed once and then only rebound.
+ *
+ * A statement keeps its bindings between uses, so a caller takes it out with acquire() and has
+ * it to itself until it hands it back with release(). Nothing is locked while the statement
+ * runs: a caller waiting on a statement while another one holds the connection and waits on that
+ * same statement would deadlock. If two callers want the same statement at once, the second one
+ * is given a newly compiled copy.
+ */
+class StatementCache {
+
+    private final Map<String, SQLiteStatement> idle = new HashMap<>();
+    private final Set<SQLiteStatement> acquired = new HashSet<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Takes the compiled statement for the provided sql out of the cache, compiling it if there
+     * isn't one free. Every call must be balanced with a call to release().
+     *
+     * @param database the database to compile against.
+     * @param sql the statement to compile.
+     * @return the compiled statement, which no other caller will be given until it is released.
+     */
+    synchronized SQLiteStatement acquire(SQLiteDatabase database, String sql) {
+        SQLiteStatement statement = idle.remove(sql);
+
+        if (statement == null) {
+            misses.incrementAndGet();
+            statement = database.compileStatement(sql);
+        } else {
+            hits.incrementAndGet();
+        }
+
+        acquired.add(statement);
+        return statement;
+    }
+
+    /**
+     * Hands a statement back to the cache. Its bindings are cleared first, so that it doesn't
+     * hold on to a large body until the next time that it is used.
+     *
+     * @param sql the sql that the statement was acquired for.
+     * @param statement the statement from acquire().
+     */
+    void release(String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+
+        synchronized (this) {
+            if (acquired.remove(statement) && !idle.containsKey(sql)) {
+                idle.put(sql, statement);
+                return;
+            }
+        }
+
+        // the cache was cleared while it was out, or a copy was handed back first
+        statement.close();
+    }
+
+    /**
+     * Closes all of the compiled statements that aren't in use. Those that are get closed when
+     * they are released. Should be called before the database is closed.
+     */
+    synchronized void clear() {
+        for (SQLiteStatement statement : idle.values()) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+
+        idle.clear();
+        acquired.clear();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+}
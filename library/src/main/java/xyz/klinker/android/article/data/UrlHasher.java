@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+/**
+ * Hashes article urls into the integer keys that article lookups go through. An index over a
+ * 64-bit key is a fraction of the size of one over the urls, which mostly share a long prefix,
+ * so more of it stays in sqlite's page cache and each probe compares a single integer.
+ *
+ * Different urls can share a hash, so a lookup still compares the url itself on the row that it
+ * finds.
+ */
+final class UrlHasher {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private UrlHasher() {
+
+    }
+
+    /**
+     * Hashes the provided url with 64-bit FNV-1a, taking a character at a time instead of
+     * encoding it to bytes first. The stored hashes depend on this, so it can't change without a
+     * migration that rehashes every article.
+     *
+     * @param url the url, without its query parameters.
+     * @return the hash.
+     */
+    static long hash(String url) {
+        long hash = OFFSET_BASIS;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= PRIME;
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data.model;
+
+/**
+ * Model holding the number of articles from each source, bucketed by the hour they were inserted
+ * in. The rows are kept up to date by triggers on the article table, so that the category counts
+ * can add up a few buckets instead of going through every article.
+ *
+ * The counts are kept per source rather than per category, because a source can be moved to
+ * another category when the sources are refreshed. The source and category tables are small
+ * enough to join at query time.
+ */
+public final class ArticleCountModel implements DatabaseTable {
+
+    public static final String TABLE = "article_count";
+    public static final String COLUMN_SOURCE_ID = "source_id";
+    public static final String COLUMN_HOUR = "hour";
+    public static final String COLUMN_COUNT = "count";
+
+    public static final long BUCKET_MILLIS = 60 * 60 * 1000;
+
+    private static final String DATABASE_CREATE = "create table if not exists " +
+            TABLE + " (" +
+            COLUMN_SOURCE_ID + " integer not null, " +
+            COLUMN_HOUR + " integer not null, " +
+            COLUMN_COUNT + " integer not null, " +
+            "primary key (" + COLUMN_SOURCE_ID + ", " + COLUMN_HOUR + ")" +
+            ");";
+
+    // covers the window query, so it never has to go to the table
+    private static final String[] INDEXES = {
+            "create index if not exists hour_article_count_index on " + TABLE +
+                    " (" + COLUMN_HOUR + ", " + COLUMN_SOURCE_ID + ", " + COLUMN_COUNT + ");"
+    };
+
+    private static final String[] TRIGGERS = {
+            "create trigger if not exists article_count_insert after insert on " +
+                    ArticleModel.TABLE + " when new." + ArticleModel.COLUMN_SOURCE_ID +
+                    " is not null begin " + increment("new") + " end;",
+            "create trigger if not exists article_count_delete after delete on " +
+                    ArticleModel.TABLE + " when old." + ArticleModel.COLUMN_SOURCE_ID +
+                    " is not null begin " + decrement("old") + " end;",
+            "create trigger if not exists article_count_update after update of " +
+                    ArticleModel.COLUMN_SOURCE_ID + ", " + ArticleModel.COLUMN_INSERTED_AT +
+                    " on " + ArticleModel.TABLE + " when new." + ArticleModel.COLUMN_SOURCE_ID +
+                    " is not old." + ArticleModel.COLUMN_SOURCE_ID + " or " + hour("new") +
+                    " != " + hour("old") + " begin " + decrement("old") + " " +
+                    increment("new") + " end;"
+    };
+
+    /**
+     * Builds the backfill for articles that were stored before the counts were kept.
+     */
+    public static String getFillStatement() {
+        return "insert into " + TABLE + " (" + COLUMN_SOURCE_ID + ", " + COLUMN_HOUR + ", " +
+                COLUMN_COUNT + ") select " + ArticleModel.COLUMN_SOURCE_ID + ", " +
+                ArticleModel.COLUMN_INSERTED_AT + " / " + BUCKET_MILLIS + ", count(*) from " +
+                ArticleModel.TABLE + " where " + ArticleModel.COLUMN_SOURCE_ID +
+                " is not null group by 1, 2";
+    }
+
+    private static String hour(String row) {
+        return row + "." + ArticleModel.COLUMN_INSERTED_AT + " / " + BUCKET_MILLIS;
+    }
+
+    private static String bucket(String row) {
+        return COLUMN_SOURCE_ID + " = " + row + "." + ArticleModel.COLUMN_SOURCE_ID + " and " +
+                COLUMN_HOUR + " = " + hour(row);
+    }
+
+    // the select skips the bucket when the source id is null, for updates that clear it
+    private static String increment(String row) {
+        return "insert or ignore into " + TABLE + " (" + COLUMN_SOURCE_ID + ", " + COLUMN_HOUR +
+                ", " + COLUMN_COUNT + ") select " + row + "." + ArticleModel.COLUMN_SOURCE_ID +
+                ", " + hour(row) + ", 0 where " + row + "." + ArticleModel.COLUMN_SOURCE_ID +
+                " is not null; " +
+                "update " + TABLE + " set " + COLUMN_COUNT + " = " + COLUMN_COUNT + " + 1 where " +
+                bucket(row) + ";";
+    }
+
+    // empty buckets are removed, so that a category without articles isn't listed with zero
+    private static String decrement(String row) {
+        return "update " + TABLE + " set " + COLUMN_COUNT + " = " + COLUMN_COUNT + " - 1 where " +
+                bucket(row) + "; " +
+                "delete from " + TABLE + " where " + bucket(row) + " and " + COLUMN_COUNT +
+                " <= 0;";
+    }
+
+    @Override
+    public String getCreateStatement() {
+        return DATABASE_CREATE;
+    }
+
+    @Override
+    public String getTableName() {
+        return TABLE;
+    }
+
+    @Override
+    public String[] getIndexStatements() {
+        return INDEXES;
+    }
+
+    @Override
+    public String[] getTriggerStatements() {
+        return TRIGGERS;
+    }
+
+}
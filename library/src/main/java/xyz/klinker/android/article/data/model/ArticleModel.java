@@ -36,6 +36,8 @@ public final class ArticleModel implements DatabaseTable {
     public static final String COLUMN_IS_ARTICLE = "is_article";
     public static final String COLUMN_SAVED = "saved";
     public static final String COLUMN_SOURCE_ID = "source_id";
+    public static final String COLUMN_LAST_ACCESSED_AT = "last_accessed_at";
+    public static final String COLUMN_URL_HASH = "url_hash";
 
     private static final String DATABASE_CREATE = "create table if not exists " +
             TABLE + " (" +
@@ -52,14 +54,26 @@ public final class ArticleModel implements DatabaseTable {
             COLUMN_INSERTED_AT + " integer not null, " +
             COLUMN_IS_ARTICLE + " integer not null, " +
             COLUMN_SAVED + " integer not null, " +
-            COLUMN_SOURCE_ID + " integer " +
+            COLUMN_SOURCE_ID + " integer, " +
+            COLUMN_LAST_ACCESSED_AT + " integer not null default 0, " +
+            COLUMN_URL_HASH + " integer" +
             ");";
 
+    // url already gets an index from its unique constraint, which keeps the urls unique, but
+    // lookups go through the much smaller one over the url hash. The rest match the list queries
+    // so that they can walk an index in inserted_at order instead of sorting the whole table.
     private static final String[] INDEXES = {
-            "create index if not exists url_article_index on " + TABLE +
-                    " (" + COLUMN_URL + ");",
-            "create index if not exists source_id_article_index on " + TABLE +
-                    " (" + COLUMN_SOURCE_ID + ");"
+            "create index if not exists inserted_at_article_index on " + TABLE +
+                    " (" + COLUMN_INSERTED_AT + ");",
+            "create index if not exists saved_inserted_at_article_index on " + TABLE +
+                    " (" + COLUMN_SAVED + ", " + COLUMN_INSERTED_AT + ");",
+            "create index if not exists source_id_inserted_at_article_index on " + TABLE +
+                    " (" + COLUMN_SOURCE_ID + ", " + COLUMN_INSERTED_AT + ");",
+            "create index if not exists saved_last_accessed_at_article_index on " + TABLE +
+                    " (" + COLUMN_SAVED + ", " + COLUMN_LAST_ACCESSED_AT + ", " +
+                    COLUMN_INSERTED_AT + ");",
+            "create index if not exists url_hash_article_index on " + TABLE +
+                    " (" + COLUMN_URL_HASH + ");"
     };
 
     @Override
@@ -77,4 +91,9 @@ public final class ArticleModel implements DatabaseTable {
         return INDEXES;
     }
 
+    @Override
+    public String[] getTriggerStatements() {
+        return new String[0];
+    }
+
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data.model;
+
+import android.os.Build;
+
+/**
+ * Full text search index over the cached articles. Each row uses the article's id as its docid
+ * and indexes the article's title, description and author, along with the plain text of its
+ * content, not the html.
+ *
+ * The table doesn't keep a copy of that text. It is an external content table that reads it
+ * from the article and content tables through the view below, both for snippets and to find
+ * what to take out of the index when a row is deleted. So a row has to be deleted before the
+ * text it indexed changes, and inserted again from the view afterwards.
+ *
+ * External content tables arrived in sqlite 3.7.9, which shipped with jelly bean. Before it, the
+ * table keeps its own copy of what is inserted into it, and is written to the same way.
+ */
+public final class ArticleSearchModel implements DatabaseTable {
+
+    public static final String TABLE = "article_search";
+    public static final String SOURCE = "article_search_source";
+    public static final String COLUMN_DOCID = "docid";
+    public static final String COLUMN_TITLE = "title";
+    public static final String COLUMN_DESCRIPTION = "description";
+    public static final String COLUMN_AUTHOR = "author";
+    public static final String COLUMN_BODY = "body";
+
+    private static final String COLUMNS = COLUMN_TITLE + ", " +
+            COLUMN_DESCRIPTION + ", " +
+            COLUMN_AUTHOR + ", " +
+            COLUMN_BODY;
+
+    private static final String DATABASE_CREATE = "create virtual table if not exists " +
+            TABLE + " using fts4(" +
+            COLUMNS + ", " +
+            "content=\"" + SOURCE + "\", " +
+            "tokenize=porter" +
+            ");";
+
+    private static final String DATABASE_CREATE_WITH_COPY = "create virtual table if not exists " +
+            TABLE + " using fts4(" +
+            COLUMNS + ", " +
+            "tokenize=porter" +
+            ");";
+
+    // the rowid column is what the search table looks a docid up by
+    private static final String SOURCE_CREATE = "create view if not exists " + SOURCE +
+            " as select a." + ArticleModel.COLUMN_ID + " as rowid, " +
+            "a." + ArticleModel.COLUMN_TITLE + " as " + COLUMN_TITLE + ", " +
+            "a." + ArticleModel.COLUMN_DESCRIPTION + " as " + COLUMN_DESCRIPTION + ", " +
+            "a." + ArticleModel.COLUMN_AUTHOR + " as " + COLUMN_AUTHOR + ", " +
+            "c." + ContentModel.COLUMN_SEARCH_TEXT + " as " + COLUMN_BODY + " " +
+            "from " + ArticleModel.TABLE + " a left outer join " + ContentModel.TABLE + " c " +
+            "on c." + ContentModel.COLUMN_ARTICLE_ID + " = a." + ArticleModel.COLUMN_ID + ";";
+
+    private static final String[] INDEXES = { };
+
+    /**
+     * Builds the view over the article and content tables that the search table reads from.
+     */
+    public static String getSourceStatement() {
+        return SOURCE_CREATE;
+    }
+
+    /**
+     * Builds the insert that indexes the articles matching a condition on the view's rowid, from
+     * the text that the view holds for them.
+     *
+     * @param where the condition, for example "rowid in (1,2)".
+     */
+    public static String getIndexStatement(String where) {
+        return "insert into " + TABLE + " (" + COLUMN_DOCID + ", " + COLUMNS + ") select rowid, " +
+                COLUMNS + " from " + SOURCE + " where " + where;
+    }
+
+    @Override
+    public String getCreateStatement() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ?
+                DATABASE_CREATE : DATABASE_CREATE_WITH_COPY;
+    }
+
+    @Override
+    public String getTableName() {
+        return TABLE;
+    }
+
+    @Override
+    public String[] getIndexStatements() {
+        return INDEXES;
+    }
+
+    @Override
+    public String[] getTriggerStatements() {
+        return new String[0];
+    }
+
+}
@@ -49,4 +49,9 @@ public class CategoryModel implements DatabaseTable {
     public String[] getIndexStatements() {
         return INDEXES;
     }
+
+    @Override
+    public String[] getTriggerStatements() {
+        return new String[0];
+    }
 }
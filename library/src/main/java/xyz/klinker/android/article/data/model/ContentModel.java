@@ -20,6 +20,24 @@ package xyz.klinker.android.article.data.model;
  * Model containing article content from the server. This is separate from the article model
  * so that we can keep that table small and light. This one will store blobs of text and each
  * entry could get quite large potentially.
+ *
+ * The content is stored deflated as a blob. Rows written by older versions may still hold
+ * plain text until the background migration in DatabaseSQLiteHelper gets to them.
+ *
+ * Each body is stored along with a hash of its html. Articles whose content has the same hash
+ * share one stored body: the first row holds it, the others leave the content null and point to
+ * it through the hash. The triggers below hand the body over to one of those rows when the row
+ * holding it is deleted or replaced.
+ *
+ * A body too large for the database is written to a file instead, see ContentFileStore. Its row
+ * leaves the content null and holds the name of the file and the length of the compressed body.
+ * Those bodies are never shared, so the triggers don't hand a body over to a row with a file.
+ *
+ * Each row also keeps the plain text of its body, which is what the search table indexes. The
+ * search table reads it from here, through ArticleSearchModel's view, rather than keeping a copy.
+ *
+ * A content row is deleted along with its article, through the foreign key. DatabaseSQLiteHelper
+ * turns foreign keys on for each connection, since SQLite leaves them off by default.
  */
 public final class ContentModel implements DatabaseTable {
 
@@ -27,17 +45,50 @@ public final class ContentModel implements DatabaseTable {
     public static final String COLUMN_ID = "_id";
     public static final String COLUMN_ARTICLE_ID = "article_id";
     public static final String COLUMN_CONTENT = "content";
+    public static final String COLUMN_CONTENT_HASH = "content_hash";
+    public static final String COLUMN_CONTENT_PATH = "content_path";
+    public static final String COLUMN_CONTENT_LENGTH = "content_length";
+    public static final String COLUMN_SEARCH_TEXT = "search_text";
 
     private static final String DATABASE_CREATE = "create table if not exists " +
             TABLE + " (" +
             COLUMN_ID + " integer primary key, " +
-            COLUMN_ARTICLE_ID + " integer not null, " +
-            COLUMN_CONTENT + " text" +
+            COLUMN_ARTICLE_ID + " integer not null references " + ArticleModel.TABLE + "(" +
+                    ArticleModel.COLUMN_ID + ") on delete cascade, " +
+            COLUMN_CONTENT + " blob, " +
+            COLUMN_CONTENT_HASH + " text, " +
+            COLUMN_CONTENT_PATH + " text, " +
+            COLUMN_CONTENT_LENGTH + " integer, " +
+            COLUMN_SEARCH_TEXT + " text" +
             ");";
 
     private static final String[] INDEXES = {
             "create index if not exists article_content_index on " + TABLE +
-                    " (" + COLUMN_ARTICLE_ID + ");"
+                    " (" + COLUMN_ARTICLE_ID + ");",
+            "create index if not exists content_hash_content_index on " + TABLE +
+                    " (" + COLUMN_CONTENT_HASH + ");"
+    };
+
+    // the row that takes over the body, if any other row is sharing it
+    private static final String NEXT_SHARING_ROW = "(select " + COLUMN_ID + " from " + TABLE +
+            " where " + COLUMN_CONTENT_HASH + " = old." + COLUMN_CONTENT_HASH + " and " +
+            COLUMN_CONTENT + " is null and " + COLUMN_CONTENT_PATH + " is null and " + COLUMN_ID +
+            " != old." + COLUMN_ID + " limit 1)";
+
+    private static final String[] TRIGGERS = {
+            "create trigger if not exists content_delete_handoff after delete on " + TABLE +
+                    " when old." + COLUMN_CONTENT + " is not null and old." +
+                    COLUMN_CONTENT_HASH + " is not null begin " +
+                    "update " + TABLE + " set " + COLUMN_CONTENT + " = old." + COLUMN_CONTENT +
+                    " where " + COLUMN_ID + " = " + NEXT_SHARING_ROW + "; end;",
+            "create trigger if not exists content_update_handoff after update of " +
+                    COLUMN_CONTENT + ", " + COLUMN_CONTENT_HASH + " on " + TABLE +
+                    " when old." + COLUMN_CONTENT + " is not null and old." +
+                    COLUMN_CONTENT_HASH + " is not null and (new." + COLUMN_CONTENT +
+                    " is null or new." + COLUMN_CONTENT_HASH + " is not old." +
+                    COLUMN_CONTENT_HASH + ") begin " +
+                    "update " + TABLE + " set " + COLUMN_CONTENT + " = old." + COLUMN_CONTENT +
+                    " where " + COLUMN_ID + " = " + NEXT_SHARING_ROW + "; end;"
     };
 
     @Override
@@ -55,4 +106,9 @@ public final class ContentModel implements DatabaseTable {
         return INDEXES;
     }
 
+    @Override
+    public String[] getTriggerStatements() {
+        return TRIGGERS;
+    }
+
 }
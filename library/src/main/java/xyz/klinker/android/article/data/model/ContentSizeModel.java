@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data.model;
+
+/**
+ * Model holding the total size of the stored content, in bytes, as a single row. The row is
+ * kept up to date by triggers on the content table, so that checking the cache against its
+ * storage budget reads one row instead of adding up every body.
+ *
+ * A body counts for the length of its compressed blob, or the length of its file when it is
+ * stored in one. A row sharing another row's body doesn't count, since it stores nothing.
+ */
+public final class ContentSizeModel implements DatabaseTable {
+
+    public static final String TABLE = "content_size";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_BYTES = "bytes";
+
+    private static final String DATABASE_CREATE = "create table if not exists " +
+            TABLE + " (" +
+            COLUMN_ID + " integer primary key, " +
+            COLUMN_BYTES + " integer not null" +
+            ");";
+
+    private static final String[] INDEXES = { };
+
+    private static final String[] TRIGGERS = {
+            "create trigger if not exists content_size_insert after insert on " +
+                    ContentModel.TABLE + " begin " + add(size("new")) + " end;",
+            "create trigger if not exists content_size_delete after delete on " +
+                    ContentModel.TABLE + " begin " + add("-" + size("old")) + " end;",
+            "create trigger if not exists content_size_update after update of " +
+                    ContentModel.COLUMN_CONTENT + ", " + ContentModel.COLUMN_CONTENT_LENGTH +
+                    " on " + ContentModel.TABLE + " begin " +
+                    add(size("new") + " - " + size("old")) + " end;"
+    };
+
+    /**
+     * Builds the statement that adds up the content that is already stored, for databases that
+     * had content before the total was kept.
+     */
+    public static String getFillStatement() {
+        return "insert or replace into " + TABLE + " (" + COLUMN_ID + ", " + COLUMN_BYTES +
+                ") select 0, coalesce(sum(" + size(ContentModel.TABLE) + "), 0) from " +
+                ContentModel.TABLE;
+    }
+
+    private static String size(String row) {
+        return "coalesce(length(" + row + "." + ContentModel.COLUMN_CONTENT + "), " + row + "." +
+                ContentModel.COLUMN_CONTENT_LENGTH + ", 0)";
+    }
+
+    // the row is created by the first write, like the buckets in ArticleCountModel
+    private static String add(String bytes) {
+        return "insert or ignore into " + TABLE + " (" + COLUMN_ID + ", " + COLUMN_BYTES +
+                ") values (0, 0); " +
+                "update " + TABLE + " set " + COLUMN_BYTES + " = " + COLUMN_BYTES + " + (" +
+                bytes + ") where " + COLUMN_ID + " = 0;";
+    }
+
+    @Override
+    public String getCreateStatement() {
+        return DATABASE_CREATE;
+    }
+
+    @Override
+    public String getTableName() {
+        return TABLE;
+    }
+
+    @Override
+    public String[] getIndexStatements() {
+        return INDEXES;
+    }
+
+    @Override
+    public String[] getTriggerStatements() {
+        return TRIGGERS;
+    }
+
+}
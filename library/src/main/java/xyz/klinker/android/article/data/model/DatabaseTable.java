@@ -42,4 +42,12 @@ public interface DatabaseTable {
      */
     String[] getIndexStatements();
 
+    /**
+     * Gets statements that create the triggers which keep the table consistent with the others.
+     * These are run after every table and index has been created.
+     *
+     * @return an array of SQLite create trigger statements.
+     */
+    String[] getTriggerStatements();
+
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data.model;
+
+/**
+ * Model holding the urls that the article api couldn't parse, or that turned out not to be
+ * articles, so that opening them again can go straight to the browser instead of waiting on the
+ * api. Each row is kept until its retry time, after which the url is sent to the api again.
+ *
+ * The table is kept small: a url that parses into an article is removed from it, and rows that
+ * are long past their retry time are pruned when the table is loaded.
+ */
+public final class FailedUrlModel implements DatabaseTable {
+
+    public static final String TABLE = "failed_url";
+    public static final String COLUMN_URL = "url";
+    public static final String COLUMN_NOT_ARTICLE = "not_article";
+    public static final String COLUMN_FAILURES = "failures";
+    public static final String COLUMN_RETRY_AT = "retry_at";
+
+    private static final String DATABASE_CREATE = "create table if not exists " +
+            TABLE + " (" +
+            COLUMN_URL + " text primary key, " +
+            COLUMN_NOT_ARTICLE + " integer not null, " +
+            COLUMN_FAILURES + " integer not null, " +
+            COLUMN_RETRY_AT + " integer not null" +
+            ");";
+
+    private static final String[] INDEXES = { };
+
+    @Override
+    public String getCreateStatement() {
+        return DATABASE_CREATE;
+    }
+
+    @Override
+    public String getTableName() {
+        return TABLE;
+    }
+
+    @Override
+    public String[] getIndexStatements() {
+        return INDEXES;
+    }
+
+    @Override
+    public String[] getTriggerStatements() {
+        return new String[0];
+    }
+}
@@ -58,4 +58,9 @@ public class SourceModel implements DatabaseTable {
     public String[] getIndexStatements() {
         return INDEXES;
     }
+
+    @Override
+    public String[] getTriggerStatements() {
+        return new String[0];
+    }
 }
@@ -47,6 +47,10 @@ public abstract class ArticleRealDataSuite extends ArticleRobolectricSuite {
 
         source = new DataSource(database);
         insertData();
+
+        // the fixtures load in no particular order, so foreign keys are only turned on once
+        // they're all in, the way DatabaseSQLiteHelper.onConfigure() has them for the app
+        database.setForeignKeyConstraintsEnabled(true);
     }
 
     @After
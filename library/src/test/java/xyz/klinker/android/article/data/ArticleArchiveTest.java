@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.util.JsonReader;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import xyz.klinker.android.article.ArticleRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArticleArchiveTest extends ArticleRobolectricSuite {
+
+    @Test
+    public void roundTrip() throws Exception {
+        Article article = new Article();
+        article.url = "http://test.com/";
+        article.alias = "test";
+        article.title = "title \"quoted\"";
+        article.description = "description";
+        article.image = "http://test.com/image.png";
+        article.author = "author";
+        article.source = "source";
+        article.domain = "test.com";
+        article.duration = 12000;
+        article.insertedAt = 1497559438000L;
+        article.isArticle = true;
+        article.saved = true;
+        article.sourceId = 100L;
+        article.content = "<p>first line\nsecond line</p>" +
+                "<p>\u00fcn\u00efc\u00f6d\u00e9 \u6587\u7ae0</p>";
+
+        StringWriter writer = new StringWriter();
+        ArticleArchive.write(writer, article);
+        String line = writer.toString();
+        assertEquals(line.length() - 1, line.indexOf('\n'));
+
+        Article read = ArticleArchive.read(reader(line));
+        assertEquals(article.url, read.url);
+        assertEquals(article.alias, read.alias);
+        assertEquals(article.title, read.title);
+        assertEquals(article.description, read.description);
+        assertEquals(article.image, read.image);
+        assertEquals(article.author, read.author);
+        assertEquals(article.source, read.source);
+        assertEquals(article.domain, read.domain);
+        assertEquals(article.duration, read.duration);
+        assertEquals(article.insertedAt, read.insertedAt);
+        assertTrue(read.isArticle);
+        assertTrue(read.saved);
+        assertEquals(100L, (long) read.sourceId);
+        assertEquals(article.content, read.content);
+    }
+
+    @Test
+    public void roundTrip_nulls() throws Exception {
+        Article article = new Article();
+        article.url = "http://test.com/";
+        article.sourceId = null;
+
+        StringWriter writer = new StringWriter();
+        ArticleArchive.write(writer, article);
+
+        Article read = ArticleArchive.read(reader(writer.toString()));
+        assertEquals("http://test.com/", read.url);
+        assertNull(read.title);
+        assertNull(read.content);
+        assertNull(read.sourceId);
+        assertFalse(read.saved);
+    }
+
+    @Test
+    public void read_severalLines() throws Exception {
+        StringWriter writer = new StringWriter();
+        for (int i = 0; i < 3; i++) {
+            Article article = new Article();
+            article.url = "http://test.com/" + i;
+            ArticleArchive.write(writer, article);
+        }
+
+        JsonReader reader = reader(writer.toString());
+        assertEquals("http://test.com/0", ArticleArchive.read(reader).url);
+        assertEquals("http://test.com/1", ArticleArchive.read(reader).url);
+        assertEquals("http://test.com/2", ArticleArchive.read(reader).url);
+        assertNull(ArticleArchive.read(reader));
+    }
+
+    @Test
+    public void read_skipsUnknownNames() throws Exception {
+        Article read = ArticleArchive.read(reader("{\"tags\":[\"a\",{\"b\":1}]," +
+                "\"url\":\"http://test.com/\",\"rating\":4.5,\"saved\":true}\n"));
+
+        assertEquals("http://test.com/", read.url);
+        assertTrue(read.saved);
+    }
+
+    @Test
+    public void read_empty() throws Exception {
+        assertNull(ArticleArchive.read(reader("")));
+    }
+
+    private static JsonReader reader(String archive) {
+        JsonReader reader = new JsonReader(new StringReader(archive));
+        reader.setLenient(true);
+        return reader;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import xyz.klinker.android.article.ArticleSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class ArticleCacheTest extends ArticleSuite {
+
+    private ArticleCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ArticleCache(10000);
+    }
+
+    @Test
+    public void getAfterPut() {
+        Article article = article(1, "http://test.com/1", 10);
+        cache.put(article.url, article, cache.getGeneration());
+
+        Article cached = cache.get("http://test.com/1");
+        assertNotNull(cached);
+        assertNotSame(article, cached);
+        assertEquals(article.content, cached.content);
+        assertEquals(1, cached.id);
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        Article article = article(1, "http://test.com/1", 10);
+        cache.put(article.url, article, cache.getGeneration());
+
+        article.saved = true;
+        cache.get("http://test.com/1").title = "changed";
+
+        Article cached = cache.get("http://test.com/1");
+        assertFalse(cached.saved);
+        assertEquals("title", cached.title);
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        Article article = article(1, "http://test.com/1", 10);
+        assertNull(cache.get(article.url));
+        cache.put(article.url, article, cache.getGeneration());
+        cache.get(article.url);
+        cache.get(article.url);
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void staleGenerationIsNotKept() {
+        long generation = cache.getGeneration();
+        cache.remove(5L);
+
+        Article article = article(1, "http://test.com/1", 10);
+        cache.put(article.url, article, generation);
+        assertNull(cache.get(article.url));
+    }
+
+    @Test
+    public void removeById() {
+        cache.put("http://test.com/1", article(1, "http://test.com/1", 10), cache.getGeneration());
+        cache.put("http://test.com/2", article(2, "http://test.com/2", 10), cache.getGeneration());
+        cache.put("http://test.com/3", article(3, "http://test.com/3", 10), cache.getGeneration());
+
+        cache.remove(3L, 1L);
+
+        assertNull(cache.get("http://test.com/1"));
+        assertNotNull(cache.get("http://test.com/2"));
+        assertNull(cache.get("http://test.com/3"));
+    }
+
+    @Test
+    public void removeByUrl() {
+        cache.put("http://test.com/1", article(1, "http://test.com/1", 10), cache.getGeneration());
+        cache.remove("http://test.com/1");
+
+        assertNull(cache.get("http://test.com/1"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void clear() {
+        cache.put("http://test.com/1", article(1, "http://test.com/1", 10), cache.getGeneration());
+        cache.clear();
+
+        assertNull(cache.get("http://test.com/1"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void leastRecentlyReadIsDroppedFirst() {
+        // each one weighs a little over 3000 bytes, so only three fit
+        for (int i = 1; i <= 3; i++) {
+            cache.put("http://test.com/" + i, article(i, "http://test.com/" + i, 1400),
+                    cache.getGeneration());
+        }
+
+        cache.get("http://test.com/1");
+        cache.put("http://test.com/4", article(4, "http://test.com/4", 1400), cache.getGeneration());
+
+        assertNotNull(cache.get("http://test.com/1"));
+        assertNull(cache.get("http://test.com/2"));
+        assertNotNull(cache.get("http://test.com/3"));
+        assertNotNull(cache.get("http://test.com/4"));
+    }
+
+    @Test
+    public void tooLargeIsNotKept() {
+        Article article = article(1, "http://test.com/1", 10000);
+        cache.put(article.url, article, cache.getGeneration());
+
+        assertNull(cache.get(article.url));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void disabled() {
+        cache.setMaxBytes(0);
+
+        Article article = article(1, "http://test.com/1", 10);
+        cache.put(article.url, article, cache.getGeneration());
+        assertNull(cache.get(article.url));
+    }
+
+    @Test
+    public void trimMemory() {
+        for (int i = 1; i <= 3; i++) {
+            cache.put("http://test.com/" + i, article(i, "http://test.com/" + i, 1400),
+                    cache.getGeneration());
+        }
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertNotNull(cache.get("http://test.com/1"));
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertNull(cache.get("http://test.com/2"));
+        assertNotNull(cache.get("http://test.com/1"));
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void lowMemory() {
+        cache.put("http://test.com/1", article(1, "http://test.com/1", 10), cache.getGeneration());
+        cache.onLowMemory();
+        assertEquals(0, cache.getSize());
+    }
+
+    private static Article article(long id, String url, int contentLength) {
+        StringBuilder content = new StringBuilder(contentLength);
+        for (int i = 0; i < contentLength; i++) {
+            content.append('a');
+        }
+
+        Article article = new Article();
+        article.id = id;
+        article.url = url;
+        article.title = "title";
+        article.content = content.toString();
+        return article;
+    }
+}
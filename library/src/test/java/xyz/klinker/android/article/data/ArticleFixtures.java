@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the articles that the data tests write, so that each test class doesn't keep its own
+ * copy of the same fields.
+ */
+final class ArticleFixtures {
+
+    private ArticleFixtures() {
+    }
+
+    /**
+     * Builds an article with a short body.
+     *
+     * @param url the article's url.
+     */
+    static Article createArticle(String url) {
+        return createArticle(url, "test title", "<p>test paragraph</p>");
+    }
+
+    /**
+     * Builds an article with the provided title and body.
+     *
+     * @param url the article's url.
+     * @param title the article's title.
+     * @param content the article's html, or null for an article without its content.
+     */
+    static Article createArticle(String url, String title, String content) {
+        Article article = new Article();
+        article.url = url;
+        article.title = title;
+        article.content = content;
+        article.isArticle = true;
+        return article;
+    }
+
+    /**
+     * Builds a batch of articles with every field filled in, the way a feed would be cached.
+     *
+     * @param urlPrefix the urls start with this, followed by the article's index.
+     * @param count the number of articles.
+     */
+    static List<Article> createArticles(String urlPrefix, int count) {
+        List<Article> articles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Article article = createArticle(urlPrefix + i, "test title " + i,
+                    "<p>test paragraph " + i + "</p>");
+            article.alias = "alias";
+            article.description = "test description " + i;
+            article.image = "http://test.com/image" + i;
+            article.author = "jake klinker";
+            article.source = "google.com";
+            article.domain = "google.com";
+            article.duration = 1;
+            article.insertedAt = i + 1;
+            articles.add(article);
+        }
+
+        return articles;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+
+import xyz.klinker.android.article.ArticleRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArticleSummaryTest extends ArticleRobolectricSuite {
+
+    @Test
+    public void fillFromCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                "_id",
+                "url",
+                "title",
+                "image",
+                "domain",
+                "name",
+                "inserted_at",
+                "saved"
+        });
+
+        cursor.addRow(new Object[]{
+                1L,
+                "http://test",
+                "test title",
+                "image url",
+                "google.com",
+                "test source name",
+                2,
+                1
+        });
+
+        cursor.moveToFirst();
+        ArticleSummary summary = new ArticleSummary(cursor);
+
+        assertEquals(1L, summary.id);
+        assertEquals("http://test", summary.url);
+        assertEquals("test title", summary.title);
+        assertEquals("image url", summary.image);
+        assertEquals("google.com", summary.domain);
+        assertEquals("test source name", summary.sourceModelName);
+        assertEquals(2, summary.insertedAt);
+        assertTrue(summary.saved);
+    }
+}
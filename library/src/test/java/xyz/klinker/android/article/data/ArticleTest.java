@@ -21,10 +21,13 @@ import android.database.MatrixCursor;
 
 import org.junit.Test;
 
+import java.util.List;
+
 import xyz.klinker.android.article.ArticleRobolectricSuite;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ArticleTest extends ArticleRobolectricSuite {
@@ -93,6 +96,46 @@ public class ArticleTest extends ArticleRobolectricSuite {
         assertEquals("test source image url", article.sourceModelImageUrl);
     }
 
+    @Test
+    public void mapper_readAll() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                "_id",
+                "url",
+                "title",
+                "inserted_at",
+                "saved"
+        });
+
+        cursor.addRow(new Object[]{ 1L, "http://test/1", "title 1", 1, 0 });
+        cursor.addRow(new Object[]{ 2L, "http://test/2", "title 2", 2, 1 });
+
+        List<Article> articles = new Article.Mapper(cursor).readAll();
+
+        assertEquals(2, articles.size());
+        assertEquals(1L, articles.get(0).id);
+        assertEquals("http://test/1", articles.get(0).url);
+        assertEquals("title 1", articles.get(0).title);
+        assertEquals(1, articles.get(0).insertedAt);
+        assertFalse(articles.get(0).saved);
+        assertEquals(2L, articles.get(1).id);
+        assertTrue(articles.get(1).saved);
+
+        // columns that aren't in the cursor are left alone
+        assertNull(articles.get(0).content);
+        assertNull(articles.get(0).sourceId);
+    }
+
+    @Test
+    public void mapper_duplicateColumnName() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{ "_id", "url", "_id" });
+        cursor.addRow(new Object[]{ 1L, "http://test", 2L });
+        cursor.moveToFirst();
+
+        // a join with a second _id column has always filled the id from the last one
+        assertEquals(2L, new Article.Mapper(cursor).read().id);
+        assertEquals(2L, new Article(cursor).id);
+    }
+
     @Test
     public void fillFromIntent() {
         Intent intent = new Intent();
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xyz.klinker.android.article.ArticleRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncDataSourceTest extends ArticleRobolectricSuite {
+
+    private AsyncDataSource async;
+
+    @Mock
+    private DataSource source;
+
+    @Before
+    public void setUp() {
+        async = new AsyncDataSource(source, Executors.newFixedThreadPool(2),
+                Executors.newSingleThreadScheduledExecutor(), 100, 50);
+    }
+
+    @After
+    public void tearDown() {
+        async.shutdown();
+    }
+
+    @Test
+    public void read() throws Exception {
+        Article article = new Article();
+        when(source.getArticle("http://test.com/")).thenReturn(article);
+
+        assertSame(article, async.getArticle("http://test.com/", null, null).get());
+        verify(source).open();
+        verify(source).close();
+    }
+
+    @Test
+    public void callbackOnExecutor() throws Exception {
+        final Article article = new Article();
+        final List<Article> results = Collections.synchronizedList(new ArrayList<Article>());
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final List<Runnable> callbacks = Collections.synchronizedList(new ArrayList<Runnable>());
+        when(source.getArticle("http://test.com/")).thenReturn(article);
+
+        async.getArticle("http://test.com/", new DataSourceCallback<Article>() {
+            @Override
+            public void onResult(Article result) {
+                results.add(result);
+                delivered.countDown();
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                callbacks.add(command);
+            }
+        }).get();
+
+        // nothing is delivered until the callback executor runs it
+        assertTrue(results.isEmpty());
+        assertEquals(1, callbacks.size());
+
+        callbacks.get(0).run();
+        assertTrue(delivered.await(1, TimeUnit.SECONDS));
+        assertSame(article, results.get(0));
+    }
+
+    @Test
+    public void writesRunInOrder() throws Exception {
+        Article first = new Article();
+        Article second = new Article();
+
+        async.insertArticle(first, null, null);
+        async.updateArticleContent(second, null, null);
+        async.deleteArticle(1L, null, null).get();
+
+        InOrder order = inOrder(source);
+        order.verify(source).insertArticle(first);
+        order.verify(source).updateArticleContent(second);
+        order.verify(source).deleteArticle(1L);
+    }
+
+    @Test
+    public void savedStateCoalesced() throws Exception {
+        Article article = new Article();
+        article.id = 5L;
+
+        Future<Void> write = null;
+        for (int i = 0; i < 5; i++) {
+            article.saved = !article.saved;
+            write = async.updateSavedArticleState(article);
+        }
+
+        write.get();
+
+        ArgumentCaptor<Article> written = ArgumentCaptor.forClass(Article.class);
+        verify(source, times(1)).updateSavedArticleState(written.capture());
+        assertEquals(5L, written.getValue().id);
+        assertTrue(written.getValue().saved);
+    }
+
+    @Test
+    public void savedStateFlushedBeforeOtherWrites() throws Exception {
+        Article article = new Article();
+        article.id = 5L;
+        article.saved = true;
+
+        async.updateSavedArticleState(article);
+        async.deleteArticle(5L, null, null).get();
+
+        InOrder order = inOrder(source);
+        order.verify(source).updateSavedArticleState(any(Article.class));
+        order.verify(source).deleteArticle(5L);
+    }
+
+    @Test
+    public void savedStateFailureReachesTheFuture() throws Exception {
+        RuntimeException failure = new RuntimeException("disk full");
+        doThrow(failure).when(source).updateSavedArticleState(any(Article.class));
+        Article article = new Article();
+        article.id = 5L;
+        article.saved = true;
+
+        Future<Void> write = async.updateSavedArticleState(article);
+        try {
+            write.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+
+        // the writer carries on with the writes after it
+        async.deleteArticle(5L, null, null).get();
+        verify(source).deleteArticle(5L);
+    }
+
+    @Test
+    public void savedStateForDifferentArticles() throws Exception {
+        Article first = new Article();
+        first.id = 1L;
+        first.saved = true;
+        Article second = new Article();
+        second.id = 2L;
+        second.saved = false;
+
+        async.updateSavedArticleState(first);
+        async.updateSavedArticleState(second).get();
+
+        verify(source, times(2)).updateSavedArticleState(any(Article.class));
+    }
+
+    @Test
+    public void savedStateWrittenAfterCoalesceWindow() throws Exception {
+        Article article = new Article();
+        article.id = 5L;
+        article.saved = true;
+
+        Future<Void> write = async.updateSavedArticleState(article);
+        assertFalse(write.isDone());
+
+        write.get(1, TimeUnit.SECONDS);
+        verify(source).updateSavedArticleState(any(Article.class));
+    }
+
+    @Test
+    public void observedQueryRunsOncePerBurst() throws Exception {
+        InvalidationTracker tracker = new InvalidationTracker();
+        when(source.getInvalidationTracker()).thenReturn(tracker);
+        final AtomicInteger runs = new AtomicInteger();
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+
+        ObservableQuery<Integer> query = async.observe(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return runs.incrementAndGet();
+            }
+        }, new DataSourceCallback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                results.add(result);
+            }
+        }, null, "article");
+
+        Thread.sleep(200);
+        assertEquals(1, runs.get());
+
+        for (int i = 0; i < 5; i++) {
+            tracker.notifyInvalidated("article");
+        }
+
+        Thread.sleep(200);
+        assertEquals(2, runs.get());
+
+        tracker.notifyInvalidated("source");
+        Thread.sleep(200);
+        assertEquals(2, runs.get());
+
+        query.stop();
+        tracker.notifyInvalidated("article");
+        Thread.sleep(200);
+        assertEquals(2, runs.get());
+        assertEquals(2, results.size());
+        assertFalse(tracker.hasObservers());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.Test;
+
+import xyz.klinker.android.article.ArticleSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentCompressorTest extends ArticleSuite {
+
+    @Test
+    public void roundTrip() {
+        String html = "<p>test paragraph</p><p>\u00fcn\u00efc\u00f6d\u00e9 \u2014 \u6587\u7ae0</p>";
+        assertEquals(html, ContentCompressor.decompress(ContentCompressor.compress(html)));
+    }
+
+    @Test
+    public void emptyContent() {
+        assertEquals("", ContentCompressor.decompress(ContentCompressor.compress("")));
+    }
+
+    @Test
+    public void nullContent() {
+        assertNull(ContentCompressor.compress(null));
+        assertNull(ContentCompressor.decompress(null));
+    }
+
+    @Test
+    public void largeContentShrinks() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            html.append("<p>paragraph ").append(i).append(" of a long form article</p>");
+        }
+
+        byte[] compressed = ContentCompressor.compress(html.toString());
+        assertTrue(compressed.length < html.length() / 4);
+        assertEquals(html.toString(), ContentCompressor.decompress(compressed));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import xyz.klinker.android.article.ArticleSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentFileStoreTest extends ArticleSuite {
+
+    @Rule
+    public TemporaryFolder cache = new TemporaryFolder();
+
+    private ContentFileStore store;
+
+    @Before
+    public void setUp() {
+        store = new ContentFileStore(cache.getRoot(), 16);
+    }
+
+    @Test
+    public void accepts() {
+        assertFalse(store.accepts(null));
+        assertFalse(store.accepts(new byte[15]));
+        assertTrue(store.accepts(new byte[16]));
+    }
+
+    @Test
+    public void roundTrip() {
+        String html = "<p>test paragraph</p><p>\u00fcn\u00efc\u00f6d\u00e9 \u2014 \u6587\u7ae0</p>";
+        byte[] body = ContentCompressor.compress(html);
+
+        assertEquals("3-a", store.write(3, "a", body));
+        assertEquals(html, store.read("3-a", body.length));
+        assertFalse(file("3-a.tmp").exists());
+    }
+
+    @Test
+    public void writeKeepsPreviousBody() {
+        byte[] first = ContentCompressor.compress("first");
+        store.write(3, "a", first);
+        byte[] second = ContentCompressor.compress("second");
+        store.write(3, "b", second);
+
+        // the committed row still points at the first file until the new one is committed
+        assertEquals("first", store.read("3-a", first.length));
+        assertEquals("second", store.read("3-b", second.length));
+    }
+
+    @Test
+    public void missingFile() {
+        assertNull(store.read("3", 100));
+    }
+
+    @Test
+    public void corruptFile() {
+        store.write(3, "a", new byte[] { 1, 2, 3 });
+        assertNull(store.read("3-a", 3));
+    }
+
+    @Test
+    public void delete() {
+        store.write(3, "a", ContentCompressor.compress("first"));
+        store.write(4, "b", ContentCompressor.compress("second"));
+        store.write(5, "c", ContentCompressor.compress("third"));
+
+        store.delete(Arrays.asList("3-a", "4-b"));
+
+        assertFalse(file("3-a").exists());
+        assertFalse(file("4-b").exists());
+        assertTrue(file("5-c").exists());
+    }
+
+    @Test
+    public void deleteUnreferenced() throws Exception {
+        store.write(3, "a", ContentCompressor.compress("first"));
+        store.write(4, "b", ContentCompressor.compress("second"));
+        assertTrue(file("5-c.tmp").createNewFile());
+        store.write(6, "d", ContentCompressor.compress("fourth"));
+        assertTrue(file("6-d").setLastModified(System.currentTimeMillis() + 60000));
+
+        long modifiedBefore = System.currentTimeMillis() + 1000;
+        assertEquals(2, store.deleteUnreferenced(
+                new HashSet<>(Collections.singletonList("3-a")), modifiedBefore));
+
+        assertTrue(file("3-a").exists());
+        assertFalse(file("4-b").exists());
+        assertFalse(file("5-c.tmp").exists());
+
+        // too new to tell whether its row is still being written
+        assertTrue(file("6-d").exists());
+    }
+
+    @Test
+    public void deleteUnreferenced_nothingWritten() {
+        assertEquals(0, store.deleteUnreferenced(new HashSet<String>(), Long.MAX_VALUE));
+    }
+
+    @Test
+    public void clear() {
+        store.write(3, "a", ContentCompressor.compress("first"));
+        store.write(4, "b", ContentCompressor.compress("second"));
+
+        store.clear();
+
+        assertFalse(file("3-a").exists());
+        assertFalse(file("4-b").exists());
+    }
+
+    @Test
+    public void clear_nothingWritten() {
+        store.clear();
+    }
+
+    private File file(String name) {
+        return new File(new File(cache.getRoot(), "article_content"), name);
+    }
+}
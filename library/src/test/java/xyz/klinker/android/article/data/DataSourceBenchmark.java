@@ -0,0 +1,669 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import xyz.klinker.android.article.ArticleRealDataSuite;
+import xyz.klinker.android.article.ArticleRobolectricSuite;
+import xyz.klinker.android.article.ArticleUtils;
+import xyz.klinker.android.article.data.model.ArticleModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static xyz.klinker.android.article.data.ArticleFixtures.createArticles;
+
+/**
+ * Rough timings for the DataSource hot paths. These run against Robolectric's SQLite, so the
+ * absolute numbers say little about a device, but the ratios between two approaches are useful.
+ * Each benchmark asserts that the new approach keeps its lead over the old one. The measured
+ * figures are printed together once the class has run, passing or not, so they end up in the
+ * test report's standard output, and on the console with -Pbenchmark.
+ *
+ * The regular test run leaves this class out, see library/build.gradle. Run it with
+ * ./gradlew :library:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+@Config(sdk = 25)
+public class DataSourceBenchmark extends ArticleRobolectricSuite {
+
+    // timings on a shared machine wobble, so the new approach passes as long as it comes within
+    // this factor of the old one. The regressions worth catching are far larger.
+    private static final double TIMING_TOLERANCE = 1.25;
+
+    // reading a compressed body pays for inflating it, in return for copying far fewer bytes
+    private static final double COMPRESSED_READ_TOLERANCE = 2;
+
+    private static final long MAX_RECORD_NANOS = 1000;
+    private static final double MAX_SEARCH_PAGE_MILLIS = 100;
+
+    // every figure measured in this run, in the order the benchmarks ran
+    private static final List<String> results = new ArrayList<>();
+
+    private SQLiteDatabase database;
+    private DatabaseSQLiteHelper helper;
+    private DataSource source;
+
+    @Before
+    public void setUp() {
+        database = SQLiteDatabase.create(null);
+        helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
+        helper.onCreate(database);
+        source = new DataSource(database);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+        helper.close();
+    }
+
+    @AfterClass
+    public static void printResults() {
+        System.out.println("DataSourceBenchmark results:");
+        for (String result : results) {
+            System.out.println("  " + result);
+        }
+    }
+
+    @Test
+    public void insertArticles_1k() {
+        compareInserts(1000);
+    }
+
+    @Test
+    public void insertArticles_10k() {
+        compareInserts(10000);
+    }
+
+    private void compareInserts(int rows) {
+        List<Article> perRow = createArticles("http://test.com/row/", rows);
+        long start = System.nanoTime();
+        for (Article article : perRow) {
+            source.insertArticle(article);
+        }
+        long perRowNanos = System.nanoTime() - start;
+
+        List<Article> batch = createArticles("http://test.com/batch/", rows);
+        start = System.nanoTime();
+        source.insertArticles(batch);
+        long batchNanos = System.nanoTime() - start;
+
+        assertEquals(rows * 2, source.getAllArticles().getCount());
+        report("insert " + rows + " rows", perRowNanos, batchNanos);
+    }
+
+    @Test
+    public void articleSummaries_10k() {
+        List<Article> articles = createArticles("http://test.com/list/", 10000);
+        for (Article article : articles) {
+            article.description = "a description that is a couple of sentences long, the same " +
+                    "way the ones from the article api are. It isn't shown in the list.";
+        }
+
+        source.insertArticles(articles);
+
+        Cursor cursor = source.getAllArticles();
+        long articleBytes = cursorBytes(cursor);
+        long start = System.nanoTime();
+        List<Article> fullArticles = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            fullArticles.add(new Article(cursor));
+        }
+        long articleNanos = System.nanoTime() - start;
+        cursor.close();
+
+        cursor = source.getAllArticleSummaries();
+        long summaryBytes = cursorBytes(cursor);
+        start = System.nanoTime();
+        List<ArticleSummary> summaries = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            summaries.add(new ArticleSummary(cursor));
+        }
+        long summaryNanos = System.nanoTime() - start;
+        cursor.close();
+
+        assertEquals(fullArticles.size(), summaries.size());
+        assertTrue(String.format("list 10k rows size: articles %d bytes, summaries %d bytes",
+                articleBytes, summaryBytes), summaryBytes < articleBytes);
+        report("list 10k rows", articleNanos, summaryNanos);
+    }
+
+    @Test
+    public void cursorMapping_10k() {
+        String[] columns = new String[] { "_id", "alias", "url", "title", "description", "image",
+                "author", "source", "domain", "duration", "inserted_at", "is_article", "saved",
+                "source_id", "name", "image_url", "last_accessed_at" };
+        MatrixCursor cursor = new MatrixCursor(columns, 10000);
+        for (int i = 0; i < 10000; i++) {
+            cursor.addRow(new Object[] { i, "alias", "http://test.com/" + i, "title " + i,
+                    "description " + i, "http://test.com/image" + i, "jake klinker", "google.com",
+                    "google.com", 1, i, 1, 0, 100, "source", "http://test.com/source", 0 });
+        }
+
+        // warm up both paths before timing them
+        mapEachRow(cursor);
+        mapWithMapper(cursor);
+
+        long start = System.nanoTime();
+        mapEachRow(cursor);
+        long perRowNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        mapWithMapper(cursor);
+        long mapperNanos = System.nanoTime() - start;
+
+        report("map 10k rows", perRowNanos, mapperNanos);
+    }
+
+    private static List<Article> mapEachRow(Cursor cursor) {
+        List<Article> articles = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            articles.add(new Article(cursor));
+        }
+
+        return articles;
+    }
+
+    private static List<Article> mapWithMapper(Cursor cursor) {
+        cursor.moveToPosition(-1);
+        return new Article.Mapper(cursor).readAll();
+    }
+
+    // roughly what the rows take up in the cursor window, strings counted by their utf-8 length
+    private static long cursorBytes(Cursor cursor) {
+        long bytes = 0;
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+                    bytes += cursor.getString(i).getBytes().length;
+                } else if (cursor.getType(i) != Cursor.FIELD_TYPE_NULL) {
+                    bytes += 8;
+                }
+            }
+        }
+
+        cursor.moveToPosition(-1);
+        return bytes;
+    }
+
+    @Test
+    public void categoryCounts_100k() {
+        long now = insertCategorizedArticles();
+        long hour = 60 * 60 * 1000;
+
+        timeCategoryCounts("last day", now - 24 * hour - 1234);
+        timeCategoryCounts("last week", now - 7 * 24 * hour - 1234);
+        timeCategoryCounts("everything", 0);
+    }
+
+    @Test
+    public void categoryCountWindows_100k() {
+        long now = insertCategorizedArticles();
+        long hour = 60 * 60 * 1000;
+        long[] windows = new long[] { now - hour - 1234, now - 24 * hour - 1234,
+                now - 7 * 24 * hour - 1234 };
+
+        source.getCategoryCounts(windows);
+
+        List<CategoryCounts> separate = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            separate.clear();
+            for (long window : windows) {
+                separate.add(source.getCategoryCounts(window));
+            }
+        }
+        long separateNanos = System.nanoTime() - start;
+
+        List<CategoryCounts> together = null;
+        start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            together = source.getCategoryCounts(windows);
+        }
+        long togetherNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < windows.length; i++) {
+            assertEquals(separate.get(i).getTotalCount(), together.get(i).getTotalCount());
+        }
+
+        report("category counts for an hour, day and week of 100k articles", separateNanos,
+                togetherNanos);
+    }
+
+    // 100k articles spread over the 30 days before the returned time
+    private long insertCategorizedArticles() {
+        for (int i = 0; i < 10; i++) {
+            database.execSQL("insert into category (_id, name) values (" + i + ", 'category " + i + "')");
+        }
+
+        for (int i = 0; i < 50; i++) {
+            database.execSQL("insert into source (remote_id, name, image_url, category_id) values (" +
+                    i + ", 'source " + i + "', 'http://test.com/source', " + i % 10 + ")");
+        }
+
+        long hour = 60 * 60 * 1000;
+        long now = 30 * 24 * hour;
+        List<Article> articles = createArticles("http://test.com/category/", 100000);
+        for (int i = 0; i < articles.size(); i++) {
+            articles.get(i).sourceId = (long) (i % 50);
+            articles.get(i).insertedAt = now - (long) i * (30 * 24 * hour / articles.size());
+        }
+
+        source.insertArticles(articles);
+        return now;
+    }
+
+    private void timeCategoryCounts(String name, long timestamp) {
+        String join = "select c.name as name, count(c._id) as count from article a " +
+                "join source s on a.source_id = s.remote_id join category c on s.category_id = c._id " +
+                "where a.inserted_at > ? and a.source_id not null group by c._id order by count desc";
+        String[] args = new String[] { Long.toString(timestamp) };
+
+        int joinTotal = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            Cursor cursor = database.rawQuery(join, args);
+            joinTotal = 0;
+            while (cursor.moveToNext()) {
+                joinTotal += cursor.getInt(1);
+            }
+            cursor.close();
+        }
+        long joinNanos = System.nanoTime() - start;
+
+        int bucketTotal = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            bucketTotal = source.getCategoryCounts(timestamp).getTotalCount();
+        }
+        long bucketNanos = System.nanoTime() - start;
+
+        assertEquals(joinTotal, bucketTotal);
+        report("category counts for 100k articles, " + name, joinNanos, bucketNanos);
+    }
+
+    @Test
+    public void syncSources_500() {
+        List<Source> sources = createSources(500, "");
+        source.syncSources(sources);
+
+        // the old way to replace the list, one delete and one insert for each source
+        List<Source> replaced = createSources(500, "updated ");
+        long start = System.nanoTime();
+        for (Source stored : source.getSources()) {
+            source.deleteSource(stored.name);
+        }
+        for (Source updated : replaced) {
+            source.insertSource(updated);
+        }
+        long replaceNanos = System.nanoTime() - start;
+
+        // the same change again as a diff, along with a sync where only a few sources changed
+        start = System.nanoTime();
+        source.syncSources(createSources(500, ""));
+        long syncNanos = System.nanoTime() - start;
+
+        List<Source> fewChanged = createSources(500, "");
+        for (int i = 0; i < 10; i++) {
+            fewChanged.get(i * 50).name = "renamed " + i;
+        }
+
+        start = System.nanoTime();
+        int changes = source.syncSources(fewChanged);
+        long fewChangedNanos = System.nanoTime() - start;
+
+        assertEquals(10, changes);
+        assertEquals(500, source.getSources().size());
+        report("replace 500 sources", replaceNanos, syncNanos);
+        report("replace 500 sources, against syncing 10 changed ones", replaceNanos,
+                fewChangedNanos);
+    }
+
+    private static List<Source> createSources(int count, String namePrefix) {
+        List<Source> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Source source = new Source();
+            source.remoteId = i;
+            source.name = namePrefix + "source " + i;
+            source.imageUrl = "http://test.com/source" + i;
+            source.categoryName = "category " + i % 20;
+            sources.add(source);
+        }
+
+        return sources;
+    }
+
+    @Test
+    public void pruneArticles_10k() {
+        database.setForeignKeyConstraintsEnabled(true);
+        source.insertArticles(createArticles("http://test.com/row/", 10000));
+
+        // the old per row delete, a statement for each table and an implicit transaction for each
+        long start = System.nanoTime();
+        for (int i = 1; i <= 5000; i++) {
+            String[] id = new String[] { Integer.toString(i) };
+            database.delete("article_search", "docid=?", id);
+            database.delete("content", "article_id=?", id);
+            database.delete("article", "_id=?", id);
+        }
+        long perRowNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int deleted = source.deleteArticlesOlderThan(10001, false);
+        long bulkNanos = System.nanoTime() - start;
+
+        assertEquals(5000, deleted);
+        assertEquals(0, source.getAllArticles().getCount());
+        report("prune 5k articles", perRowNanos, bulkNanos);
+    }
+
+    @Test
+    public void metricsOverhead() {
+        DataSourceMetrics metrics = new DataSourceMetrics();
+        for (int i = 0; i < 100000; i++) {
+            metrics.record(DataSourceMetrics.Operation.GET_ARTICLE_HIT, System.nanoTime());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000000; i++) {
+            metrics.record(DataSourceMetrics.Operation.GET_ARTICLE_HIT, System.nanoTime());
+        }
+        long nanos = System.nanoTime() - start;
+
+        assertTrue(record(String.format("record a timing: %.0fns", nanos / 1000000.0)),
+                nanos / 1000000 < MAX_RECORD_NANOS);
+    }
+
+    @Test
+    public void compressedContent_fixtures() throws Exception {
+        new ArticleRealDataSuite.FixtureLoader().loadFixturesToDatabase(database);
+        compareCompression("fixture corpus", "http://test.com/", "http://test.com/2");
+    }
+
+    @Test
+    public void refreshContent_fixtures() throws Exception {
+        new ArticleRealDataSuite.FixtureLoader().loadFixturesToDatabase(database);
+        String[] urls = new String[] { "http://test.com/", "http://test.com/2" };
+
+        // the fixture rows were written before content was hashed, so the first refresh stores
+        // the hash along with the body. From then on an identical body isn't written again.
+        for (int refresh = 1; refresh <= 3; refresh++) {
+            long rows = 0;
+            long bytes = 0;
+
+            for (String url : urls) {
+                Article article = source.getArticle(url);
+                long changes = totalChanges();
+                source.updateArticleContent(article);
+
+                if (totalChanges() != changes) {
+                    rows += totalChanges() - changes;
+                    bytes += ContentCompressor.compress(article.content).length +
+                            SearchIndex.plainText(article.content).getBytes().length;
+                }
+            }
+
+            // every refresh used to rewrite the body and its search text
+            long rewrittenBytes = 0;
+            for (String url : urls) {
+                String content = source.getArticle(url).content;
+                rewrittenBytes += ContentCompressor.compress(content).length +
+                        SearchIndex.plainText(content).getBytes().length;
+            }
+
+            String message = record(String.format("refresh %d of the fixture content: %d rows, " +
+                    "%d bytes written (%d bytes without the hash check)", refresh, rows, bytes,
+                    rewrittenBytes));
+            assertTrue(message, bytes <= rewrittenBytes);
+            if (refresh > 1) {
+                assertEquals(message, 0, rows);
+            }
+        }
+    }
+
+    private long totalChanges() {
+        Cursor cursor = database.rawQuery("select total_changes()", null);
+        cursor.moveToFirst();
+        long changes = cursor.getLong(0);
+        cursor.close();
+        return changes;
+    }
+
+    @Test
+    public void compressedContent_longForm() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            html.append("<p>Paragraph ").append(i)
+                    .append(" of a long form article, with the usual amount of markup.</p>");
+        }
+
+        // write the rows as legacy plain text, the way they were stored before compression
+        for (int i = 0; i < 50; i++) {
+            String url = "http://test.com/long/" + i;
+            database.execSQL("insert into article (_id, url, url_hash, inserted_at, is_article, " +
+                    "saved) values (?, ?, ?, 1, 1, 0)", new Object[] { i + 1, url,
+                    UrlHasher.hash(url) });
+            database.execSQL("insert into content (article_id, content) values (?, ?)",
+                    new Object[] { i + 1, html.toString() });
+        }
+
+        compareCompression("long form corpus", "http://test.com/long/0", "http://test.com/long/1");
+    }
+
+    @Test
+    public void getArticle_cached() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            html.append("<p>Paragraph ").append(i)
+                    .append(" of a long form article, with the usual amount of markup.</p>");
+        }
+
+        List<Article> articles = createArticles("http://test.com/cached/", 20);
+        for (Article article : articles) {
+            article.content = html.toString();
+        }
+
+        source.insertArticles(articles);
+
+        // opening an article, then opening it again a little later
+        String[] urls = new String[articles.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = articles.get(i).url;
+        }
+
+        source.setArticleCacheSize(0);
+        long uncachedNanos = timeReads(urls);
+
+        source.setArticleCacheSize(ArticleCache.DEFAULT_MAX_BYTES);
+        long hits = source.getArticleCacheHits();
+        long misses = source.getArticleCacheMisses();
+        long cachedNanos = timeReads(urls);
+        hits = source.getArticleCacheHits() - hits;
+        misses = source.getArticleCacheMisses() - misses;
+
+        report("read " + urls.length * 1000 + " long form articles", uncachedNanos, cachedNanos);
+
+        // only the first read of each article misses
+        assertEquals(record(String.format("article cache hit rate: %.1f%%",
+                100.0 * hits / Math.max(1, hits + misses))), urls.length, misses);
+    }
+
+    private void compareCompression(String name, String... urls) {
+        // every read should go to the database here
+        source.setArticleCacheSize(0);
+
+        long textBytes = storedContentBytes();
+        long textNanos = timeReads(urls);
+
+        while (helper.compressContentChunk(database, 25) > 0) { }
+
+        long compressedBytes = storedContentBytes();
+        long compressedNanos = timeReads(urls);
+
+        assertTrue(record(String.format("%s size: text %d bytes, compressed %d bytes", name,
+                textBytes, compressedBytes)), compressedBytes < textBytes);
+        report(name + " read " + urls.length * 1000 + " articles", textNanos, compressedNanos,
+                COMPRESSED_READ_TOLERANCE);
+    }
+
+    private long storedContentBytes() {
+        Cursor cursor = database.rawQuery("select sum(length(cast(content as blob))) from content", null);
+        cursor.moveToFirst();
+        long bytes = cursor.getLong(0);
+        cursor.close();
+        return bytes;
+    }
+
+    private long timeReads(String... urls) {
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            for (String url : urls) {
+                source.getArticle(url);
+            }
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void urlLookup_100k() {
+        List<Article> articles = createArticles(
+                "https://www.example.com/2017/05/a-fairly-typical-article-slug-for-a-story-", 100000);
+        for (Article article : articles) {
+            article.content = null;
+        }
+
+        source.insertArticles(articles);
+
+        String[] urls = new String[10000];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = articles.get((int) ((i * 7919L) % articles.size())).url + "?utm_source=feed";
+        }
+
+        // the article table's unique index on url, the way every lookup used to go
+        String byUrl = "select * from article where url=?";
+        String byHash = "select * from article where url_hash=? and +url=?";
+        timeLookups(byUrl, false, urls);
+        timeLookups(byHash, true, urls);
+
+        long urlNanos = timeLookups(byUrl, false, urls);
+        long hashNanos = timeLookups(byHash, true, urls);
+
+        // both indexes are built again from scratch, so that neither has been split by inserts
+        database.execSQL("drop index url_hash_article_index");
+        long hashIndexBytes = usedBytesAfter(new ArticleModel().getIndexStatements()[4]);
+        long urlIndexBytes = usedBytesAfter("create index benchmark_url_index on article (url)");
+
+        assertTrue(String.format("100k url index size: text %d bytes, hash %d bytes",
+                urlIndexBytes, hashIndexBytes), hashIndexBytes < urlIndexBytes);
+        report("look up 10k urls in 100k articles", urlNanos, hashNanos);
+    }
+
+    private long timeLookups(String sql, boolean hashed, String... urls) {
+        long start = System.nanoTime();
+        for (String url : urls) {
+            url = ArticleUtils.removeUrlParameters(url);
+            String[] args = hashed ? new String[] { Long.toString(UrlHasher.hash(url)), url } :
+                    new String[] { url };
+
+            Cursor cursor = database.rawQuery(sql, args);
+            assertEquals(1, cursor.getCount());
+            cursor.close();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    // how many bytes of pages the statement takes up
+    private long usedBytesAfter(String sql) {
+        long before = usedBytes();
+        database.execSQL(sql);
+        return usedBytes() - before;
+    }
+
+    private long usedBytes() {
+        return (pragma("page_count") - pragma("freelist_count")) * pragma("page_size");
+    }
+
+    private long pragma(String name) {
+        Cursor cursor = database.rawQuery("pragma " + name, null);
+        cursor.moveToFirst();
+        long value = cursor.getLong(0);
+        cursor.close();
+        return value;
+    }
+
+    @Test
+    public void searchArticles_50k() {
+        List<Article> articles = createArticles("http://test.com/search/", 50000);
+        for (int i = 0; i < articles.size(); i++) {
+            articles.get(i).content = "<p>A story about topic" + (i % 1000) + " and topic" +
+                    (i % 7) + ", with a few more ordinary words in it.</p>";
+        }
+
+        source.insertArticles(articles);
+
+        // a rare term matches 50 articles, a common one matches about 7k
+        timeSearch("rare term", "topic123");
+        timeSearch("common term", "topic3");
+        timeSearch("two terms", "topic3 story");
+    }
+
+    private void timeSearch(String name, String query) {
+        assertEquals(20, source.searchArticles(query, 20, 0).size());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            source.searchArticles(query, 20, i * 20);
+        }
+
+        double pageMillis = (System.nanoTime() - start) / 20 / 1000000.0;
+        assertTrue(record(String.format("search 50k articles for %s: %.2fms per page", name,
+                pageMillis)), pageMillis < MAX_SEARCH_PAGE_MILLIS);
+    }
+
+    private static void report(String name, long beforeNanos, long afterNanos) {
+        report(name, beforeNanos, afterNanos, TIMING_TOLERANCE);
+    }
+
+    // fails when the new approach takes more than the tolerance times the old one
+    private static void report(String name, long beforeNanos, long afterNanos, double tolerance) {
+        assertTrue(record(String.format("%s: before %dms, after %dms (%.1fx)", name,
+                beforeNanos / 1000000, afterNanos / 1000000,
+                (double) beforeNanos / Math.max(1, afterNanos))),
+                afterNanos <= beforeNanos * tolerance);
+    }
+
+    // keeps a figure for the summary, and hands it back for the assertion's message
+    private static String record(String result) {
+        results.add(result);
+        return result;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import xyz.klinker.android.article.ArticleRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static xyz.klinker.android.article.data.ArticleFixtures.createArticle;
+
+public class DataSourceConcurrencyTest extends ArticleRobolectricSuite {
+
+    private static final int READERS = 4;
+    private static final int WRITERS = 2;
+    private static final int OPERATIONS = 100;
+
+    // how long readsDuringLongWrite() holds its write transaction open
+    private static final long WRITE_TRANSACTION_MILLIS = 2000;
+
+    // regression bound for the reads running alongside that transaction. They have connections
+    // of their own in write-ahead-log mode, so they take a few milliseconds. A read that queued
+    // behind the writer, as they all did before, would take the rest of the transaction.
+    private static final long MAX_P99_READ_MILLIS = WRITE_TRANSACTION_MILLIS / 10;
+
+    // far longer than the writes take, only threads that are stuck waiting on each other are
+    // still running by then
+    private static final long DEADLOCK_TIMEOUT_MILLIS = 30000;
+
+    private DataSource source;
+
+    @Before
+    public void setUp() {
+        source = DataSource.get(RuntimeEnvironment.application);
+        source.open();
+        source.clearTables();
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        DataSource.resetInstance();
+    }
+
+    @Test
+    public void concurrentReadersAndWriters() throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < WRITERS; i++) {
+            final int writer = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                    shared.open();
+
+                    try {
+                        start.await();
+                        for (int j = 0; j < OPERATIONS; j++) {
+                            shared.insertArticle(createArticle("http://test.com/" + writer + "/" + j));
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        shared.close();
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < READERS; i++) {
+            final int reader = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                    shared.open();
+
+                    try {
+                        start.await();
+                        for (int j = 0; j < OPERATIONS; j++) {
+                            shared.getArticle("http://test.com/" + (reader % WRITERS) + "/" + j);
+                            Cursor cursor = shared.getAllArticles();
+                            cursor.getCount();
+                            cursor.close();
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        shared.close();
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue("errors during concurrent access: " + errors, errors.isEmpty());
+
+        Cursor articles = source.getAllArticles();
+        assertEquals(WRITERS * OPERATIONS, articles.getCount());
+        articles.close();
+    }
+
+    @Test
+    public void readsDuringLongWrite() throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        final AtomicBoolean readsDoneWhileWriting = new AtomicBoolean();
+        List<Long> readLatencies = new ArrayList<>();
+
+        for (int j = 0; j < OPERATIONS; j++) {
+            source.insertArticle(createArticle("http://test.com/" + j));
+        }
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                shared.open();
+                shared.beginTransaction();
+
+                try {
+                    shared.insertArticle(createArticle("http://test.com/writing"));
+                    writing.countDown();
+                    readsDoneWhileWriting.set(
+                            readsDone.await(WRITE_TRANSACTION_MILLIS, TimeUnit.MILLISECONDS));
+                    shared.setTransactionSuccessful();
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    shared.endTransaction();
+                    shared.close();
+                }
+            }
+        });
+
+        writer.start();
+        assertTrue("writer never started", writing.await(DEADLOCK_TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS));
+
+        for (int j = 0; j < OPERATIONS; j++) {
+            long startTime = System.nanoTime();
+            source.getArticle("http://test.com/" + j);
+            Cursor cursor = source.getAllArticles();
+            cursor.getCount();
+            cursor.close();
+            readLatencies.add(System.nanoTime() - startTime);
+        }
+
+        readsDone.countDown();
+        writer.join();
+
+        assertTrue("errors during the write: " + errors, errors.isEmpty());
+        long p99 = percentile(readLatencies, 0.99) / 1000000;
+        assertTrue("reads waited for the write transaction, p99 was " + p99 + "ms",
+                readsDoneWhileWriting.get());
+        assertTrue("p99 read latency was " + p99 + "ms while a write was held open",
+                p99 < MAX_P99_READ_MILLIS);
+        assertEquals(OPERATIONS + 1, source.getAllArticles().getCount());
+    }
+
+    @Test
+    public void racingLoadsOfTheSameUrl() throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Long> ids = Collections.synchronizedList(new ArrayList<Long>());
+
+        for (int round = 0; round < OPERATIONS; round++) {
+            final String url = "http://test.com/race/" + round;
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+
+            for (int i = 0; i < 2; i++) {
+                final String content = "<p>load " + i + "</p>";
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                        shared.open();
+
+                        try {
+                            start.await();
+                            Article article = createArticle(url);
+                            article.content = content;
+                            ids.add(shared.upsertArticle(article));
+                        } catch (Throwable e) {
+                            errors.add(e);
+                        } finally {
+                            shared.close();
+                        }
+                    }
+                }));
+            }
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+
+            start.countDown();
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertTrue("errors during racing loads: " + errors, errors.isEmpty());
+            assertEquals(ids.get(ids.size() - 2), ids.get(ids.size() - 1));
+            assertTrue(source.getArticle(url).content.startsWith("<p>load "));
+        }
+
+        // exactly one article and one content row for every url
+        Cursor articles = source.getAllArticles();
+        assertEquals(OPERATIONS, articles.getCount());
+        articles.close();
+
+        Cursor content = source.rawQuery("select count(*), count(distinct article_id) from content");
+        content.moveToFirst();
+        assertEquals(OPERATIONS, content.getInt(0));
+        assertEquals(OPERATIONS, content.getInt(1));
+        content.close();
+    }
+
+    @Test
+    public void batchAndSingleInsertsKeepTheirSearchRows() throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                shared.open();
+
+                try {
+                    start.await();
+                    for (int j = 0; j < OPERATIONS / 10; j++) {
+                        List<Article> batch = new ArrayList<>();
+                        for (int k = 0; k < 10; k++) {
+                            String url = "http://test.com/batch/" + j + "/" + k;
+                            batch.add(createIndexedArticle(url));
+                        }
+
+                        shared.insertArticles(batch);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    shared.close();
+                }
+            }
+        }));
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                shared.open();
+
+                try {
+                    start.await();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        shared.insertArticle(createIndexedArticle("http://test.com/single/" + j));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    shared.close();
+                }
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue("errors during concurrent inserts: " + errors, errors.isEmpty());
+
+        // every article is indexed exactly once, under the author written for that article
+        Cursor rows = source.rawQuery("select (select count(*) from article), " +
+                "(select count(*) from article_search_docsize), " +
+                "(select count(*) from article_search where article_search match 'author:test')");
+        rows.moveToFirst();
+        assertEquals(2 * OPERATIONS, rows.getInt(0));
+        assertEquals(2 * OPERATIONS, rows.getInt(1));
+        assertEquals(2 * OPERATIONS, rows.getInt(2));
+        rows.close();
+    }
+
+    @Test
+    public void upsertsAlongsideSingleWrites() throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final long id = source.insertArticle(createArticle("http://test.com/single"));
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        // upserts hold the write transaction while they use the cached content and search
+        // statements, which the single writes use without one
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                shared.open();
+
+                try {
+                    start.await();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        Article article = createArticle("http://test.com/upsert/" + (j % 10));
+                        article.content = "<p>upsert " + j + "</p>";
+                        shared.upsertArticle(article);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    shared.close();
+                }
+            }
+        }));
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataSource shared = DataSource.get(RuntimeEnvironment.application);
+                shared.open();
+
+                try {
+                    start.await();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        Article article = createArticle("http://test.com/single");
+                        article.id = id;
+                        article.content = "<p>update " + j + "</p>";
+                        article.saved = j % 2 == 0;
+                        shared.updateArticleContent(article);
+                        shared.updateSavedArticleState(article);
+                        shared.insertArticle(createArticle("http://test.com/single/" + j));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    shared.close();
+                }
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join(DEADLOCK_TIMEOUT_MILLIS);
+            assertFalse("writers deadlocked", thread.isAlive());
+        }
+
+        assertTrue("errors during concurrent writes: " + errors, errors.isEmpty());
+        assertEquals("<p>update " + (OPERATIONS - 1) + "</p>",
+                source.getArticle("http://test.com/single").content);
+    }
+
+    @Test
+    public void sharedAcrossCallers() {
+        DataSource other = DataSource.get(RuntimeEnvironment.application);
+        other.open();
+        other.insertArticle(createArticle("http://test.com/shared"));
+        other.close();
+
+        // the first caller still holds the connection open, so this reads the same database
+        assertTrue(source.isOpen());
+        assertEquals("http://test.com/shared", source.getArticle("http://test.com/shared").url);
+    }
+
+    private static long percentile(List<Long> values, double percentile) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    // tags the search row with the url, so that it can be matched back up with its article
+    private static Article createIndexedArticle(String url) {
+        Article article = createArticle(url);
+        article.author = url;
+        return article;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import xyz.klinker.android.article.ArticleSuite;
+import xyz.klinker.android.article.data.DataSourceMetrics.Operation;
+import xyz.klinker.android.article.data.DataSourceMetrics.Timings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataSourceMetricsTest extends ArticleSuite {
+
+    private DataSourceMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new DataSourceMetrics();
+    }
+
+    @Test
+    public void bucket() {
+        assertEquals(0, DataSourceMetrics.bucket(999));
+        assertEquals(1, DataSourceMetrics.bucket(1000));
+        assertEquals(2, DataSourceMetrics.bucket(2000));
+        assertEquals(2, DataSourceMetrics.bucket(3999));
+        assertEquals(11, DataSourceMetrics.bucket(1024 * 1000));
+        assertEquals(DataSourceMetrics.BUCKETS - 1, DataSourceMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void record() {
+        long now = System.nanoTime();
+        for (int i = 0; i < 99; i++) {
+            metrics.record(Operation.INSERT, now);
+        }
+
+        // a single slow one, started a second ago
+        metrics.record(Operation.INSERT, now - 1000000000L);
+
+        Timings timings = metrics.snapshot().getTimings(Operation.INSERT);
+        assertEquals(100, timings.getCount());
+        assertTrue(timings.getMaxNanos() >= 1000000000L);
+        assertTrue(timings.getPercentileNanos(50) < 1000000000L);
+        assertEquals(timings.getMaxNanos(), timings.getPercentileNanos(100));
+        assertEquals(0, metrics.snapshot().getTimings(Operation.DELETE).getCount());
+        assertEquals(0, metrics.snapshot().getTimings(Operation.DELETE).getPercentileNanos(99));
+    }
+
+    @Test
+    public void listener() {
+        final List<Operation> operations = new ArrayList<>();
+        metrics.setListener(new DataSourceMetrics.Listener() {
+            @Override
+            public void onOperation(Operation operation, long durationNanos) {
+                operations.add(operation);
+            }
+        });
+
+        metrics.record(Operation.GET_ARTICLE_HIT, System.nanoTime());
+        metrics.setListener(null);
+        metrics.record(Operation.GET_ARTICLE_MISS, System.nanoTime());
+
+        assertEquals(1, operations.size());
+        assertEquals(Operation.GET_ARTICLE_HIT, operations.get(0));
+    }
+
+    @Test
+    public void reset() {
+        metrics.record(Operation.SEARCH, System.nanoTime());
+        metrics.reset();
+
+        Timings timings = metrics.snapshot().getTimings(Operation.SEARCH);
+        assertEquals(0, timings.getCount());
+        assertEquals(0, timings.getMaxNanos());
+    }
+}
@@ -19,24 +19,37 @@ package xyz.klinker.android.article.data;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 import xyz.klinker.android.article.ArticleRobolectricSuite;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -51,6 +64,8 @@ public class DataSourceTest extends ArticleRobolectricSuite {
     private DatabaseSQLiteHelper helper;
     @Mock
     private Cursor cursor;
+    @Mock
+    private SQLiteStatement statement;
 
     @Before
     public void setUp() {
@@ -58,6 +73,7 @@ public class DataSourceTest extends ArticleRobolectricSuite {
         source.context = RuntimeEnvironment.application;
         when(database.isOpen()).thenReturn(true);
         when(helper.getWritableDatabase()).thenReturn(database);
+        when(database.compileStatement(anyString())).thenReturn(statement);
         source.open();
     }
 
@@ -72,6 +88,15 @@ public class DataSourceTest extends ArticleRobolectricSuite {
         DataSource dataSource = DataSource.get(RuntimeEnvironment.application);
         dataSource.open();
         dataSource.close();
+        DataSource.resetInstance();
+    }
+
+    @Test
+    public void sharedInstance() {
+        DataSource first = DataSource.get(RuntimeEnvironment.application);
+        DataSource second = DataSource.get(RuntimeEnvironment.application);
+        assertSame(first, second);
+        DataSource.resetInstance();
     }
 
     @Test
@@ -83,10 +108,13 @@ public class DataSourceTest extends ArticleRobolectricSuite {
     public void clearTables() {
         source.clearTables();
 
+        verify(database).delete("article_search", null, null);
         verify(database).delete("article", null, null);
         verify(database).delete("content", null, null);
         verify(database).delete("source", null, null);
         verify(database).delete("category", null, null);
+        verify(database).delete("failed_url", null, null);
+        verify(database).inTransaction();
         verifyNoMoreInteractions(database);
     }
 
@@ -125,35 +153,140 @@ public class DataSourceTest extends ArticleRobolectricSuite {
         source.insertArticle(new Article());
 
         verify(database).insert(eq("article"), eq((String) null), any(ContentValues.class));
-        verify(database).insert(eq("content"), eq((String) null), any(ContentValues.class));
+        verify(database).insertOrThrow(eq("content"), eq((String) null), any(ContentValues.class));
+        verify(database).compileStatement(
+                "insert into article_search (docid, title, description, author, body) " +
+                        "select rowid, title, description, author, body " +
+                        "from article_search_source where rowid=?");
+        verify(statement).executeInsert();
+        verify(database).inTransaction();
+        verify(database).beginTransaction();
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
         verifyNoMoreInteractions(database);
     }
 
+    @Test
+    public void insertArticle_existingUrl() {
+        when(database.insert(eq("article"), eq((String) null), any(ContentValues.class)))
+                .thenReturn(-1L);
+
+        assertEquals(-1, source.insertArticle(new Article()));
+
+        // there is no new article for a content or search row to point at
+        verify(database, never()).insertOrThrow(anyString(), eq((String) null),
+                any(ContentValues.class));
+        verify(statement, never()).executeInsert();
+        verify(database).endTransaction();
+    }
+
+    @Test
+    public void insertArticles() {
+        when(statement.executeInsert()).thenReturn(1L, 2L, 3L, 4L);
+
+        long[] ids = source.insertArticles(Arrays.asList(new Article(), new Article()));
+
+        assertEquals(1L, ids[0]);
+        assertEquals(3L, ids[1]);
+        verify(database).beginTransaction();
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
+    @Test
+    public void insertArticles_compilesOwnStatements() {
+        source.insertArticles(Arrays.asList(new Article()));
+        source.insertArticles(Arrays.asList(new Article()));
+
+        verify(database, times(2)).compileStatement("insert or ignore into article (alias, url, " +
+                "title, description, image, author, source, domain, duration, is_article, " +
+                "saved, source_id, inserted_at, last_accessed_at, url_hash) " +
+                "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        verify(statement, times(6)).close();
+    }
+
+    @Test
+    public void upsertArticle_newArticle() {
+        Article article = new Article();
+        article.url = "http://test";
+        when(statement.executeInsert()).thenReturn(5L);
+        when(statement.executeUpdateDelete()).thenReturn(0);
+
+        assertEquals(5L, source.upsertArticle(article));
+
+        verify(database).beginTransaction();
+        verify(database).compileStatement("insert into content (article_id, content, " +
+                "content_hash, content_path, content_length, search_text) " +
+                "values (?, ?, ?, ?, ?, ?)");
+        verify(statement, times(3)).executeInsert();
+        verify(database, never()).compileStatement("select _id from article where url=?");
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
+    @Test
+    public void upsertArticle_existingArticle() {
+        Article article = new Article();
+        article.url = "http://test";
+        when(statement.executeInsert()).thenReturn(-1L);
+        when(statement.simpleQueryForLong()).thenReturn(7L, 0L, 0L);
+        when(statement.executeUpdateDelete()).thenReturn(1);
+
+        assertEquals(7L, source.upsertArticle(article));
+
+        verify(database).compileStatement("select _id from article where url=?");
+        verify(statement).bindString(1, "http://test");
+        verify(database).compileStatement("delete from article_search where docid=?");
+        verify(statement, times(3)).executeUpdateDelete();
+        verify(statement, times(2)).executeInsert();
+        verify(database, never()).compileStatement("insert into content (article_id, content, " +
+                "content_hash, content_path, content_length, search_text) " +
+                "values (?, ?, ?, ?, ?, ?)");
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
     @Test
     public void updateSavedArticleState() {
         Article article = new Article();
         article.id = 2L;
         article.saved = false;
-        ContentValues values = new ContentValues();
-        values.put("saved", false);
 
         source.updateSavedArticleState(article);
 
-        verify(database).update("article", values, "_id=?", new String[] {"2"});
+        verify(database).compileStatement("update article set saved=? where _id=?");
+        verify(statement).bindLong(1, 0);
+        verify(statement).bindLong(2, 2L);
+        verify(statement).executeUpdateDelete();
         verifyNoMoreInteractions(database);
     }
 
+    @Test
+    public void importArticles_compilesOwnSavedStatement() throws Exception {
+        Article article = new Article();
+        article.id = 2L;
+        source.updateSavedArticleState(article);
+
+        String archive = "{\"url\":\"http://test.com/\",\"saved\":true}\n";
+        source.importArticles(new ByteArrayInputStream(archive.getBytes("UTF-8")));
+
+        // the import doesn't touch the cached statement that updateSavedArticleState() uses
+        verify(database, times(2)).compileStatement("update article set saved=? where _id=?");
+        verify(statement).bindLong(1, 1);
+    }
+
     @Test
     public void updatedArticleInsertedAt() {
         Article article = new Article();
         article.id = 2L;
         article.insertedAt = 4L;
-        ContentValues values = new ContentValues();
-        values.put("inserted_at", 4L);
 
         source.updateArticleInsertedAtTimestamp(article);
 
-        verify(database).update("article", values, "_id=?", new String[] {"2"});
+        verify(database).compileStatement("update article set inserted_at=? where _id=?");
+        verify(statement).bindLong(1, 4L);
+        verify(statement).bindLong(2, 2L);
+        verify(statement).executeUpdateDelete();
         verifyNoMoreInteractions(database);
     }
 
@@ -162,25 +295,114 @@ public class DataSourceTest extends ArticleRobolectricSuite {
         Article article = new Article();
         article.id = 2L;
         article.content = "blah";
-        ContentValues values = new ContentValues();
-        values.put("content", "blah");
 
         source.updateArticleContent(article);
 
-        verify(database).update("content", values, "article_id=?", new String[] {"2"});
+        verify(database).compileStatement(
+                "select count(*) from content where article_id=? and content_hash=?");
+        verify(database).compileStatement(
+                "select count(*) from content where content_hash=? and content not null");
+        verify(database).compileStatement(
+                "update content set content=?, content_hash=?, content_path=?, content_length=?, " +
+                "search_text=? where article_id=?");
+        verify(database).compileStatement("delete from article_search where docid=?");
+        verify(database).compileStatement(
+                "insert into article_search (docid, title, description, author, body) " +
+                        "select rowid, title, description, author, body " +
+                        "from article_search_source where rowid=?");
+        verify(statement).bindBlob(eq(1), any(byte[].class));
+        verify(statement, times(2)).bindString(2, ContentCompressor.hash("blah"));
+        verify(statement).bindNull(3);
+        verify(statement).bindNull(4);
+        verify(statement).bindString(5, "blah");
+        verify(statement).bindLong(6, 2L);
+        verify(statement, times(3)).bindLong(1, 2L);
+        verify(statement, times(2)).executeUpdateDelete();
+        verify(statement).executeInsert();
+        verify(database).inTransaction();
+        verify(database).beginTransaction();
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
         verifyNoMoreInteractions(database);
     }
 
+    @Test
+    public void updateArticleContent_unchanged() {
+        Article article = new Article();
+        article.id = 2L;
+        article.content = "blah";
+        when(statement.simpleQueryForLong()).thenReturn(1L);
+
+        source.updateArticleContent(article);
+
+        verify(database).compileStatement(
+                "select count(*) from content where article_id=? and content_hash=?");
+        verify(statement).bindLong(1, 2L);
+        verify(statement).bindString(2, ContentCompressor.hash("blah"));
+        verify(statement, never()).executeUpdateDelete();
+        verifyNoMoreInteractions(database);
+    }
+
+    @Test
+    public void statementCache() {
+        Article article = new Article();
+        article.id = 2L;
+
+        source.updateSavedArticleState(article);
+        source.updateSavedArticleState(article);
+        source.updateSavedArticleState(article);
+
+        verify(database).compileStatement("update article set saved=? where _id=?");
+        assertEquals(1, source.getStatementCacheMisses());
+        assertEquals(2, source.getStatementCacheHits());
+    }
+
+    @Test
+    public void statementCache_clearsBindingsOnRelease() {
+        Article article = new Article();
+        article.id = 2L;
+
+        source.updateSavedArticleState(article);
+
+        verify(statement).executeUpdateDelete();
+        verify(statement).clearBindings();
+    }
+
+    @Test
+    public void recordParseResult_failed() {
+        source.recordParseResult("http://test.com/?utm_source=feed", null);
+
+        verify(database).compileStatement("insert or replace into failed_url (url, not_article, " +
+                "failures, retry_at) values (?, ?, ?, ?)");
+        verify(statement).bindString(1, "http://test.com/");
+        verify(statement).bindLong(2, 0);
+        verify(statement).bindLong(3, 1);
+        verify(statement).executeInsert();
+    }
+
+    @Test
+    public void recordParseResult_article() {
+        Article article = new Article();
+        article.isArticle = true;
+
+        source.recordParseResult("http://test.com/", article);
+        verify(database, never()).compileStatement(anyString());
+    }
+
     @Test
     public void getArticle() {
-        when(database.query(
-                anyString(),
-                any(String[].class),
-                eq("url=?"),
-                eq(new String[] {"http://google.com"}),
-                eq((String) null),
-                eq((String) null),
-                eq((String) null)))
+        when(database.rawQuery(anyString(), eq(new String[] {
+                Long.toString(UrlHasher.hash("http://google.com")), "http://google.com"})))
+                .thenReturn(cursor);
+        when(cursor.moveToFirst()).thenReturn(true);
+        assertNotNull(source.getArticle("http://google.com"));
+    }
+
+    @Test
+    public void getArticle_urlHashPending() {
+        // the hash of an article stored before urls were hashed isn't there to find it by yet
+        when(helper.isUrlHashPending()).thenReturn(true);
+        when(database.rawQuery(anyString(), eq(new String[] {"http://google.com"})))
                 .thenReturn(cursor);
         when(cursor.moveToFirst()).thenReturn(true);
         assertNotNull(source.getArticle("http://google.com"));
@@ -188,14 +410,8 @@ public class DataSourceTest extends ArticleRobolectricSuite {
 
     @Test
     public void getArticle_noMatchingUrls() {
-        when(database.query(
-                anyString(),
-                any(String[].class),
-                eq("url=?"),
-                eq(new String[] {"http://google.com"}),
-                eq((String) null),
-                eq((String) null),
-                eq((String) null)))
+        when(database.rawQuery(anyString(), eq(new String[] {
+                Long.toString(UrlHasher.hash("http://google.com")), "http://google.com"})))
                 .thenReturn(cursor);
         when(cursor.moveToFirst()).thenReturn(false);
         assertNull(source.getArticle("http://google.com"));
@@ -236,6 +452,38 @@ public class DataSourceTest extends ArticleRobolectricSuite {
         verifyNoMoreInteractions(database);
     }
 
+    @Test
+    public void invalidationsQueuedOnOtherThreadsAreNotPublished() throws Exception {
+        final Thread main = Thread.currentThread();
+        when(database.inTransaction()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return Thread.currentThread() != main;
+            }
+        });
+
+        final List<Set<String>> invalidations = new ArrayList<>();
+        source.getInvalidationTracker().addObserver(new InvalidationTracker.Observer() {
+            @Override
+            public void onInvalidated(Set<String> tables) {
+                invalidations.add(tables);
+            }
+        }, "category", "source");
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                source.insertCategory("queued");
+            }
+        });
+        writer.start();
+        writer.join();
+        source.deleteSource("name");
+
+        assertEquals(1, invalidations.size());
+        assertEquals(Collections.singleton("source"), invalidations.get(0));
+    }
+
     @Test
     public void categoryExists() {
         when(database.query("category", null, "name=?", new String[] {"test"}, null, null, null))
@@ -332,16 +580,21 @@ public class DataSourceTest extends ArticleRobolectricSuite {
 
     @Test
     public void getCategoriesCount() {
-        when(database.query(
-                anyString(),
-                any(String[].class),
-                anyString(),
-                any(String[].class),
-                anyString(),
-                eq((String) null),
-                anyString()))
+        when(database.rawQuery(anyString(), eq(new String[] {"2", "7200000", "10800000"})))
                 .thenReturn(cursor);
-        assertNotNull(source.getCategoryCounts(1));
+        assertNotNull(source.getCategoryCounts(7200000));
+    }
+
+    @Test
+    public void getCategoriesCount_windows() {
+        when(database.rawQuery(anyString(), eq(new String[] {"1"}))).thenReturn(cursor);
+        assertEquals(2, source.getCategoryCounts(new long[] { 3600000, 7200000 }).size());
+    }
+
+    @Test
+    public void getCategoriesCount_noWindows() {
+        assertTrue(source.getCategoryCounts(new long[0]).isEmpty());
+        verifyNoMoreInteractions(database);
     }
 
     @Test
@@ -350,6 +603,24 @@ public class DataSourceTest extends ArticleRobolectricSuite {
         verify(database).insert(eq("source"), eq((String) null), any(ContentValues.class));
     }
 
+    @Test
+    public void syncSources() {
+        when(database.rawQuery(anyString(), eq((String[]) null))).thenReturn(cursor);
+
+        Source s = new Source();
+        s.remoteId = 1L;
+        s.name = "test";
+        s.imageUrl = "http://test";
+        s.categoryName = "category";
+        assertEquals(1, source.syncSources(Arrays.asList(s)));
+
+        // one category and one source inserted, all in one transaction
+        verify(statement, times(2)).executeInsert();
+        verify(database).beginTransaction();
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
     @Test
     public void deleteSource() {
         source.deleteSource("test");
@@ -359,7 +630,47 @@ public class DataSourceTest extends ArticleRobolectricSuite {
     @Test
     public void deleteArticle() {
         source.deleteArticle(1L);
-        verify(database).delete("article", "_id=?", new String[] {"1"});
-        verify(database).delete("content", "article_id=?", new String[] {"1"});
+        verify(database).beginTransaction();
+        verify(database).delete("article_search", "docid in (1)", null);
+        verify(database).delete("article", "_id in (1)", null);
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
+    @Test
+    public void deleteArticles_batched() {
+        long[] ids = new long[501];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+
+        source.deleteArticles(ids);
+        verify(database, times(2)).delete(eq("article_search"), anyString(), eq((String[]) null));
+        verify(database, times(2)).delete(eq("article"), anyString(), eq((String[]) null));
+        verify(database).delete("article", "_id in (501)", null);
+        verify(database).beginTransaction();
+    }
+
+    @Test
+    public void deleteArticles_none() {
+        assertEquals(0, source.deleteArticles(new long[0]));
+        verifyNoMoreInteractions(database);
+    }
+
+    @Test
+    public void deleteArticlesOlderThan() {
+        when(database.delete("article", "inserted_at < ? and saved = 0", new String[] {"10"}))
+                .thenReturn(3);
+
+        assertEquals(3, source.deleteArticlesOlderThan(10, true));
+        verify(database).delete("article_search",
+                "docid in (select _id from article where inserted_at < ? and saved = 0)",
+                new String[] {"10"});
+    }
+
+    @Test
+    public void searchArticles_emptyQuery() {
+        assertTrue(source.searchArticles("  \"- ", 10, 0).isEmpty());
+        verifyNoMoreInteractions(database);
     }
 }
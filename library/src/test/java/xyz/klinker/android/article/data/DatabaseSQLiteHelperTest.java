@@ -17,18 +17,31 @@
 package xyz.klinker.android.article.data;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.robolectric.RuntimeEnvironment;
 
 import xyz.klinker.android.article.ArticleRobolectricSuite;
+import xyz.klinker.android.article.data.model.ArticleCountModel;
 import xyz.klinker.android.article.data.model.ArticleModel;
+import xyz.klinker.android.article.data.model.ArticleSearchModel;
 import xyz.klinker.android.article.data.model.CategoryModel;
 import xyz.klinker.android.article.data.model.ContentModel;
+import xyz.klinker.android.article.data.model.ContentSizeModel;
+import xyz.klinker.android.article.data.model.FailedUrlModel;
 import xyz.klinker.android.article.data.model.SourceModel;
 
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -44,12 +57,38 @@ public class DatabaseSQLiteHelperTest extends ArticleRobolectricSuite {
         helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
     }
 
+    @Test
+    public void onConfigure() {
+        helper.onConfigure(database);
+        verify(database).setForeignKeyConstraintsEnabled(true);
+    }
+
     @Test
     public void onCreate() {
         helper.onCreate(database);
         verifyCreateStatement();
     }
 
+    @Test
+    public void onOpen_created() {
+        helper.onCreate(database);
+        helper.onOpen(database);
+
+        // the new database is still empty, so the vacuum doesn't wait for a background thread
+        InOrder order = inOrder(database);
+        order.verify(database).execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        order.verify(database).execSQL("VACUUM");
+
+        helper.onOpen(database);
+        verify(database).execSQL("VACUUM");
+    }
+
+    @Test
+    public void onOpen_existing() {
+        helper.onOpen(database);
+        verify(database, never()).execSQL("VACUUM");
+    }
+
     @Test
     public void onUpgrade_1to2() {
         helper.onUpgrade(database, 1, 2);
@@ -90,6 +129,135 @@ public class DatabaseSQLiteHelperTest extends ArticleRobolectricSuite {
         verify4Upgrade();
     }
 
+    @Test
+    public void onUpgrade4to5() {
+        helper.onUpgrade(database, 4, 5);
+        verify5Upgrade();
+    }
+
+    @Test
+    public void onUpgrade5to6() {
+        helper.onUpgrade(database, 5, 6);
+        verify6Upgrade();
+    }
+
+    @Test
+    public void onUpgrade6to7() {
+        helper.onUpgrade(database, 6, 7);
+        verify7Upgrade();
+    }
+
+    @Test
+    public void onUpgrade7to8() {
+        helper.onUpgrade(database, 7, 8);
+        verify8Upgrade();
+    }
+
+    @Test
+    public void onUpgrade8to9() {
+        helper.onUpgrade(database, 8, 9);
+        verify9Upgrade();
+    }
+
+    @Test
+    public void onUpgrade9to10() {
+        helper.onUpgrade(database, 9, 10);
+        verify10Upgrade();
+    }
+
+    @Test
+    public void onUpgrade9to10_failure() {
+        SQLiteException failure = new SQLiteException("disk I/O error");
+        doThrow(failure).when(database).execSQL("insert into content (_id, article_id, content, " +
+                "content_hash) select _id, article_id, content, content_hash from content_old");
+
+        // the upgrade fails rather than carrying on with the content still in content_old
+        try {
+            helper.onUpgrade(database, 9, 10);
+            fail();
+        } catch (SQLiteException e) {
+            assertSame(failure, e);
+        }
+
+        verify(database, never()).execSQL("drop table content_old");
+        verify(database, never()).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
+    @Test
+    public void onUpgrade10to11() {
+        helper.onUpgrade(database, 10, 11);
+        verify11Upgrade();
+    }
+
+    @Test
+    public void onUpgrade11to12() {
+        helper.onUpgrade(database, 11, 12);
+        verify(database).execSQL(new FailedUrlModel().getCreateStatement());
+    }
+
+    @Test
+    public void onUpgrade12to13() {
+        helper.onUpgrade(database, 12, 13);
+        verify(database).execSQL("ALTER TABLE article ADD COLUMN url_hash integer");
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[4]);
+
+        // the urls are hashed on a background thread, and looked up without it until then
+        verify(database, never()).beginTransaction();
+        assertTrue(helper.isUrlHashPending());
+    }
+
+    @Test
+    public void onUpgrade13to14() {
+        // the vacuum can't run inside the upgrade's transaction, it waits for the database to open
+        helper.onUpgrade(database, 13, 14);
+        verify(database, never()).execSQL("VACUUM");
+    }
+
+    @Test
+    public void onUpgrade14to15() {
+        helper.onUpgrade(database, 14, 15);
+
+        // the body text moves to the content rows before the old table and its copy are dropped
+        InOrder order = inOrder(database);
+        order.verify(database).execSQL("ALTER TABLE content ADD COLUMN search_text text");
+        order.verify(database).execSQL("update content set search_text = (select body from " +
+                "article_search where docid = content.article_id)");
+        order.verify(database).execSQL("drop table if exists article_search");
+        order.verify(database).execSQL(ArticleSearchModel.getSourceStatement());
+        order.verify(database).execSQL(new ArticleSearchModel().getCreateStatement());
+    }
+
+    @Test
+    public void onUpgrade5to15_noSearchTableToCopy() {
+        helper.onUpgrade(database, 5, 15);
+        verify(database, never()).execSQL("update content set search_text = (select body from " +
+                "article_search where docid = content.article_id)");
+        verify(database).execSQL(ArticleSearchModel.getSourceStatement());
+    }
+
+    @Test
+    public void onUpgrade15to16() {
+        helper.onUpgrade(database, 15, 16);
+
+        // the existing content is added up before the triggers start keeping the total
+        InOrder order = inOrder(database);
+        order.verify(database).execSQL(new ContentSizeModel().getCreateStatement());
+        order.verify(database).execSQL(ContentSizeModel.getFillStatement());
+        order.verify(database).execSQL(new ContentSizeModel().getTriggerStatements()[0]);
+        order.verify(database).execSQL(new ContentSizeModel().getTriggerStatements()[1]);
+        order.verify(database).execSQL(new ContentSizeModel().getTriggerStatements()[2]);
+    }
+
+    @Test
+    public void enableIncrementalVacuum() {
+        helper.enableIncrementalVacuum(database);
+
+        InOrder order = inOrder(database);
+        order.verify(database).execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        order.verify(database).execSQL("VACUUM");
+    }
+
     @Test
     public void onDrop() {
         helper.onDrop(database);
@@ -101,12 +269,30 @@ public class DatabaseSQLiteHelperTest extends ArticleRobolectricSuite {
         verify(database).execSQL(new ContentModel().getCreateStatement());
         verify(database).execSQL(new SourceModel().getCreateStatement());
         verify(database).execSQL(new CategoryModel().getCreateStatement());
+        verify(database).execSQL(new ArticleSearchModel().getCreateStatement());
+        verify(database).execSQL(new ArticleCountModel().getCreateStatement());
+        verify(database).execSQL(new FailedUrlModel().getCreateStatement());
+        verify(database).execSQL(ArticleSearchModel.getSourceStatement());
         verify(database).execSQL(new ArticleModel().getIndexStatements()[0]);
         verify(database).execSQL(new ArticleModel().getIndexStatements()[1]);
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[2]);
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[3]);
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[4]);
         verify(database).execSQL(new ContentModel().getIndexStatements()[0]);
+        verify(database).execSQL(new ContentModel().getIndexStatements()[1]);
         verify(database).execSQL(new SourceModel().getIndexStatements()[0]);
         verify(database).execSQL(new SourceModel().getIndexStatements()[1]);
         verify(database).execSQL(new CategoryModel().getIndexStatements()[0]);
+        verify(database).execSQL(new ContentModel().getTriggerStatements()[0]);
+        verify(database).execSQL(new ContentModel().getTriggerStatements()[1]);
+        verify(database).execSQL(new ArticleCountModel().getIndexStatements()[0]);
+        verify(database).execSQL(new ArticleCountModel().getTriggerStatements()[0]);
+        verify(database).execSQL(new ArticleCountModel().getTriggerStatements()[1]);
+        verify(database).execSQL(new ArticleCountModel().getTriggerStatements()[2]);
+        verify(database).execSQL(new ContentSizeModel().getCreateStatement());
+        verify(database).execSQL(new ContentSizeModel().getTriggerStatements()[0]);
+        verify(database).execSQL(new ContentSizeModel().getTriggerStatements()[1]);
+        verify(database).execSQL(new ContentSizeModel().getTriggerStatements()[2]);
         verifyNoMoreInteractions(database);
     }
 
@@ -121,11 +307,83 @@ public class DatabaseSQLiteHelperTest extends ArticleRobolectricSuite {
         verify(database).execSQL(new SourceModel().getIndexStatements()[1]);
         verify(database).execSQL(new CategoryModel().getIndexStatements()[0]);
         verify(database).execSQL("ALTER TABLE article ADD COLUMN source_id integer");
-        verify(database).execSQL(new ArticleModel().getIndexStatements()[1]);
+        verify(database).execSQL("create index if not exists source_id_article_index on article (source_id);");
     }
 
     private void verify4Upgrade() {
-        // do nothing for now, fill with more database migrations.
+        verify(database).execSQL("drop index if exists url_article_index");
+        verify(database).execSQL("drop index if exists source_id_article_index");
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[0]);
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[1]);
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[2]);
+    }
+
+    private void verify5Upgrade() {
+        // content is compressed in the background once the database opens, not during upgrade
+    }
+
+    private void verify6Upgrade() {
+        verify(database).execSQL(new ArticleSearchModel().getCreateStatement());
+        verify(database).execSQL("insert into article_search (docid, title, description, author) " +
+                "select _id, title, description, author from article");
+    }
+
+    private void verify7Upgrade() {
+        verify(database).execSQL(
+                "ALTER TABLE article ADD COLUMN last_accessed_at integer not null DEFAULT 0");
+        verify(database).execSQL(new ArticleModel().getIndexStatements()[3]);
+    }
+
+    private void verify8Upgrade() {
+        // the later upgrades rebuild the content table's index and triggers again
+        verify(database).execSQL("ALTER TABLE content ADD COLUMN content_hash text");
+        verify(database, atLeastOnce()).execSQL(new ContentModel().getIndexStatements()[1]);
+        verify(database, atLeastOnce()).execSQL(new ContentModel().getTriggerStatements()[0]);
+        verify(database, atLeastOnce()).execSQL(new ContentModel().getTriggerStatements()[1]);
+    }
+
+    private void verify9Upgrade() {
+        verify(database).execSQL(new ArticleCountModel().getCreateStatement());
+        verify(database).execSQL(new ArticleCountModel().getIndexStatements()[0]);
+        verify(database).execSQL("insert into article_count (source_id, hour, count) " +
+                "select source_id, inserted_at / 3600000, count(*) from article " +
+                "where source_id is not null group by 1, 2");
+        verify(database).execSQL(new ArticleCountModel().getTriggerStatements()[0]);
+        verify(database).execSQL(new ArticleCountModel().getTriggerStatements()[1]);
+        verify(database).execSQL(new ArticleCountModel().getTriggerStatements()[2]);
+    }
+
+    private void verify10Upgrade() {
+        InOrder order = inOrder(database);
+        order.verify(database).beginTransaction();
+        order.verify(database).execSQL(
+                "delete from content where article_id not in (select _id from article)");
+        order.verify(database).execSQL("ALTER TABLE content RENAME TO content_old");
+        order.verify(database).execSQL("drop index if exists article_content_index");
+        order.verify(database).execSQL("drop index if exists content_hash_content_index");
+        order.verify(database).execSQL("drop trigger if exists content_delete_handoff");
+        order.verify(database).execSQL("drop trigger if exists content_update_handoff");
+        order.verify(database).execSQL(new ContentModel().getCreateStatement());
+        order.verify(database).execSQL("insert into content (_id, article_id, content, " +
+                "content_hash) select _id, article_id, content, content_hash from content_old");
+        order.verify(database).execSQL("drop table content_old");
+        order.verify(database).execSQL(new ContentModel().getIndexStatements()[0]);
+        order.verify(database).execSQL(new ContentModel().getIndexStatements()[1]);
+        order.verify(database).execSQL(new ContentModel().getTriggerStatements()[0]);
+        order.verify(database).execSQL(new ContentModel().getTriggerStatements()[1]);
+        order.verify(database).setTransactionSuccessful();
+        order.verify(database).endTransaction();
+    }
+
+    private void verify11Upgrade() {
+        verify(database).execSQL("ALTER TABLE content ADD COLUMN content_path text");
+        verify(database).execSQL("ALTER TABLE content ADD COLUMN content_length integer");
+
+        InOrder order = inOrder(database);
+        order.verify(database).execSQL("drop trigger if exists content_delete_handoff");
+        order.verify(database).execSQL("drop trigger if exists content_update_handoff");
+        order.verify(database).execSQL(new ContentModel().getTriggerStatements()[0]);
+        order.verify(database).execSQL(new ContentModel().getTriggerStatements()[1]);
     }
 
     private void verifyDropStatement() {
@@ -133,6 +391,11 @@ public class DatabaseSQLiteHelperTest extends ArticleRobolectricSuite {
         verify(database).execSQL("drop table if exists content");
         verify(database).execSQL("drop table if exists source");
         verify(database).execSQL("drop table if exists category");
+        verify(database).execSQL("drop table if exists article_search");
+        verify(database).execSQL("drop table if exists article_count");
+        verify(database).execSQL("drop table if exists failed_url");
+        verify(database).execSQL("drop table if exists content_size");
+        verify(database).execSQL("drop view if exists article_search_source");
         verifyNoMoreInteractions(database);
     }
 }
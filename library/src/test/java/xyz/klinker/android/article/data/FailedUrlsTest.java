@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import xyz.klinker.android.article.ArticleSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FailedUrlsTest extends ArticleSuite {
+
+    private static final String URL = "http://test.com/";
+
+    private FailedUrls failedUrls;
+
+    @Before
+    public void setUp() {
+        failedUrls = new FailedUrls();
+    }
+
+    @Test
+    public void unknownUrl() {
+        assertFalse(failedUrls.isFailed(URL, 0));
+    }
+
+    @Test
+    public void failedBacksOff() {
+        FailedUrls.Entry entry = failedUrls.failed(URL, 0);
+        assertEquals(1, entry.failures);
+        assertEquals(60 * 1000, entry.retryAt);
+        assertTrue(failedUrls.isFailed(URL, 59 * 1000));
+        assertFalse(failedUrls.isFailed(URL, 60 * 1000));
+
+        entry = failedUrls.failed(URL, 60 * 1000);
+        assertEquals(2, entry.failures);
+        assertEquals(3 * 60 * 1000, entry.retryAt);
+    }
+
+    @Test
+    public void retryDelay() {
+        assertEquals(60 * 1000, FailedUrls.retryDelay(1));
+        assertEquals(2 * 60 * 1000, FailedUrls.retryDelay(2));
+        assertEquals(16 * 60 * 1000, FailedUrls.retryDelay(5));
+        assertEquals(FailedUrls.MAX_RETRY_MILLIS, FailedUrls.retryDelay(12));
+        assertEquals(FailedUrls.MAX_RETRY_MILLIS, FailedUrls.retryDelay(100));
+    }
+
+    @Test
+    public void notArticle() {
+        failedUrls.failed(URL, 0);
+        FailedUrls.Entry entry = failedUrls.notArticle(URL, 0);
+
+        assertTrue(entry.notArticle);
+        assertTrue(failedUrls.isFailed(URL, FailedUrls.NOT_ARTICLE_MILLIS - 1));
+        assertFalse(failedUrls.isFailed(URL, FailedUrls.NOT_ARTICLE_MILLIS));
+
+        // a failure after that starts backing off from the beginning again
+        assertEquals(1, failedUrls.failed(URL, 0).failures);
+    }
+
+    @Test
+    public void remove() {
+        failedUrls.failed(URL, 0);
+
+        assertTrue(failedUrls.remove(URL));
+        assertFalse(failedUrls.remove(URL));
+        assertFalse(failedUrls.isFailed(URL, 0));
+    }
+
+    @Test
+    public void load() {
+        assertFalse(failedUrls.isLoaded());
+        failedUrls.failed(URL, 1000);
+
+        Map<String, FailedUrls.Entry> stored = new HashMap<>();
+        stored.put(URL, new FailedUrls.Entry(false, 3, 0));
+        stored.put("http://test.com/2", new FailedUrls.Entry(true, 0, 5000));
+        stored.put("http://test.com/3", new FailedUrls.Entry(true, 0, 1000));
+        failedUrls.load(stored, 1000);
+
+        // what was recorded in the meantime wins over what was stored
+        assertTrue(failedUrls.isLoaded());
+        assertTrue(failedUrls.isFailed(URL, 1000));
+        assertTrue(failedUrls.isFailed("http://test.com/2", 1000));
+
+        // and a row that is already due isn't kept
+        assertFalse(failedUrls.remove("http://test.com/3"));
+    }
+
+    @Test
+    public void staleEntriesDropped() {
+        failedUrls.failed(URL, 0);
+        failedUrls.notArticle("http://test.com/2", 0);
+        assertFalse(FailedUrls.isStale(failedUrls.failed("http://test.com/3", 0), 0));
+
+        // a failed url keeps its count while it is due, for its next backoff
+        long due = 60 * 1000;
+        assertFalse(FailedUrls.isStale(new FailedUrls.Entry(false, 1, due), due));
+        assertTrue(FailedUrls.isStale(new FailedUrls.Entry(false, 1, due),
+                due + FailedUrls.MAX_RETRY_MILLIS));
+        assertTrue(FailedUrls.isStale(new FailedUrls.Entry(true, 0, due), due));
+
+        // recording another url goes through the entries and drops the ones that are stale
+        failedUrls.failed("http://test.com/4", due + FailedUrls.MAX_RETRY_MILLIS);
+        assertFalse(failedUrls.remove(URL));
+        assertTrue(failedUrls.remove("http://test.com/2"));
+    }
+
+    @Test
+    public void dueNotArticleDroppedWhenChecked() {
+        failedUrls.notArticle(URL, 0);
+
+        assertFalse(failedUrls.isFailed(URL, FailedUrls.NOT_ARTICLE_MILLIS));
+        assertFalse(failedUrls.remove(URL));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import xyz.klinker.android.article.ArticleSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InvalidationTrackerTest extends ArticleSuite {
+
+    private InvalidationTracker tracker;
+    private List<Set<String>> calls;
+    private InvalidationTracker.Observer observer;
+
+    @Before
+    public void setUp() {
+        tracker = new InvalidationTracker();
+        calls = new ArrayList<>();
+        observer = new InvalidationTracker.Observer() {
+            @Override
+            public void onInvalidated(Set<String> tables) {
+                calls.add(tables);
+            }
+        };
+    }
+
+    @Test
+    public void onlyObservedTablesArePassed() {
+        tracker.addObserver(observer, "article", "source");
+        tracker.notifyInvalidated("article", "content", "article_search");
+
+        assertEquals(1, calls.size());
+        assertEquals(1, calls.get(0).size());
+        assertTrue(calls.get(0).contains("article"));
+    }
+
+    @Test
+    public void unrelatedTablesAreIgnored() {
+        tracker.addObserver(observer, "category");
+        tracker.notifyInvalidated("article", "content");
+
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void removeObserver() {
+        tracker.addObserver(observer, "article");
+        assertTrue(tracker.hasObservers());
+
+        tracker.removeObserver(observer);
+        tracker.notifyInvalidated("article");
+
+        assertFalse(tracker.hasObservers());
+        assertTrue(calls.isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import org.junit.Test;
+
+import xyz.klinker.android.article.ArticleRealDataSuite;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Makes sure the list queries keep using an index in inserted_at order. If one of these fails
+ * after a schema change, the query has gone back to a full scan plus a temporary sort.
+ */
+public class QueryPlanTest extends ArticleRealDataSuite {
+
+    @Test
+    public void allArticles() {
+        String plan = explain(null, "inserted_at desc");
+        assertTrue(plan, plan.contains("inserted_at_article_index"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void savedArticles() {
+        String plan = explain("saved=1", "inserted_at desc");
+        assertTrue(plan, plan.contains("saved_inserted_at_article_index"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void articlesForSource() {
+        String plan = explain("source_id=100", "inserted_at desc");
+        assertTrue(plan, plan.contains("source_id_inserted_at_article_index"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void articlesPageAfterToken() {
+        String plan = explain("inserted_at <= 5 and (inserted_at < 5 or a._id < 3)",
+                "inserted_at desc, a._id desc");
+        assertTrue(plan, plan.contains("inserted_at_article_index (inserted_at<?)"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void articlesForSourcePageAfterToken() {
+        String plan = explain("source_id=100 and inserted_at <= 5 and (inserted_at < 5 or a._id < 3)",
+                "inserted_at desc, a._id desc");
+        assertTrue(plan, plan.contains("source_id_inserted_at_article_index (source_id=? AND inserted_at<?)"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void articleByUrl() {
+        Cursor cursor = source.rawQuery(
+                "explain query plan select * from article where url='http://test.com/'");
+        String plan = readPlan(cursor);
+        assertTrue(plan, plan.contains("INDEX"));
+        assertFalse(plan, plan.contains("url_article_index"));
+    }
+
+    private String explain(String selection, String orderBy) {
+        String query = SQLiteQueryBuilder.buildQueryString(false, DataSource.ARTICLE_SOURCE_JOIN,
+                null, selection, null, null, orderBy, null);
+        return readPlan(source.rawQuery("explain query plan " + query));
+    }
+
+    private static String readPlan(Cursor cursor) {
+        StringBuilder plan = new StringBuilder();
+        int detail = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detail)).append("\n");
+        }
+
+        cursor.close();
+        return plan.toString();
+    }
+}
@@ -17,10 +17,22 @@
 package xyz.klinker.android.article.data;
 
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
 
 import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import xyz.klinker.android.article.ArticleRealDataSuite;
 
@@ -28,8 +40,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static xyz.klinker.android.article.data.ArticleFixtures.createArticle;
 
 public class SQLiteQueryTest extends ArticleRealDataSuite {
 
@@ -78,6 +93,44 @@ public class SQLiteQueryTest extends ArticleRealDataSuite {
         assertNotNull(article.sourceModelImageUrl);
     }
 
+    @Test
+    public void getAllArticleSummaries() {
+        Cursor summaries = source.getAllArticleSummaries();
+        assertEquals(8, summaries.getCount());
+        assertEquals(8, summaries.getColumnCount());
+
+        summaries.moveToFirst();
+        ArticleSummary summary = new ArticleSummary(summaries);
+        assertEquals(8, summary.id);
+        assertEquals("http://test.com/8", summary.url);
+        assertEquals("article 8", summary.title);
+        assertEquals("http://test.com/image8", summary.image);
+        assertEquals("klinker.xyz", summary.domain);
+        assertEquals("test 3", summary.sourceModelName);
+        assertEquals(8, summary.insertedAt);
+        assertFalse(summary.saved);
+        summaries.close();
+    }
+
+    @Test
+    public void getSavedArticleSummaries() {
+        Cursor summaries = source.getSavedArticleSummaries();
+        assertEquals(1, summaries.getCount());
+
+        summaries.moveToFirst();
+        ArticleSummary summary = new ArticleSummary(summaries);
+        assertEquals(1, summary.id);
+        assertTrue(summary.saved);
+        summaries.close();
+    }
+
+    @Test
+    public void getArticleSummariesForSource() {
+        assertEquals(3, source.getArticleSummariesForSource(100L).getCount());
+        assertEquals(2, source.getArticleSummariesForSource(101L).getCount());
+        assertEquals(1, source.getArticleSummariesForSource(102L).getCount());
+    }
+
     @Test
     public void getSavedArticles() {
         Cursor savedArticles = source.getSavedArticles();
@@ -152,9 +205,56 @@ public class SQLiteQueryTest extends ArticleRealDataSuite {
 
         source.insertArticle(article);
         assertEquals(9, source.getAllArticles().getCount());
+        long contentRows = count("select count(*) from content");
 
-        source.insertArticle(article);
+        assertEquals(-1, source.insertArticle(article));
         assertEquals(9, source.getAllArticles().getCount());
+        assertEquals(contentRows, count("select count(*) from content"));
+    }
+
+    @Test
+    public void insertArticles() {
+        List<Article> articles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Article article = new Article();
+            article.url = "http://test.com/batch/" + i + "?utm_source=test";
+            article.title = "batch " + i;
+            article.content = "<p>batch content " + i + "</p>";
+            article.isArticle = true;
+            articles.add(article);
+        }
+
+        long[] ids = source.insertArticles(articles);
+
+        assertEquals(3, ids.length);
+        assertEquals(11, source.getAllArticles().getCount());
+        for (int i = 0; i < 3; i++) {
+            Article article = source.getArticle("http://test.com/batch/" + i);
+            assertEquals(ids[i], article.id);
+            assertEquals("<p>batch content " + i + "</p>", article.content);
+            assertNotEquals(0, article.insertedAt);
+        }
+    }
+
+    @Test
+    public void insertArticles_duplicateUrl() {
+        Article existing = new Article();
+        existing.url = "http://test.com/";
+        existing.content = "should not overwrite";
+
+        Article fresh = new Article();
+        fresh.url = "http://test.com/fresh";
+        fresh.content = "fresh content";
+
+        List<Article> articles = new ArrayList<>();
+        articles.add(existing);
+        articles.add(fresh);
+        long[] ids = source.insertArticles(articles);
+
+        assertEquals(-1, ids[0]);
+        assertNotEquals(-1, ids[1]);
+        assertEquals(9, source.getAllArticles().getCount());
+        assertEquals("First test article content.", source.getArticle("http://test.com/").content);
     }
 
     @Test
@@ -188,6 +288,140 @@ public class SQLiteQueryTest extends ArticleRealDataSuite {
         assertEquals(1, source.getArticlesForSource(102L).getCount());
     }
 
+    @Test
+    public void getArticlesPage() {
+        ArticlePage page = source.getArticlesPage(null, 3);
+        assertPage(page, 8, 7, 6);
+        assertTrue(page.hasNextPage());
+
+        page = source.getArticlesPage(page.getNextPageToken(), 3);
+        assertPage(page, 5, 4, 3);
+        assertTrue(page.hasNextPage());
+
+        page = source.getArticlesPage(page.getNextPageToken(), 3);
+        assertPage(page, 2, 1);
+        assertFalse(page.hasNextPage());
+        assertNull(page.getNextPageToken());
+    }
+
+    @Test
+    public void getArticlesPage_exactFit() {
+        ArticlePage page = source.getArticlesPage(null, 4);
+        page = source.getArticlesPage(page.getNextPageToken(), 4);
+        assertPage(page, 4, 3, 2, 1);
+        assertFalse(page.hasNextPage());
+    }
+
+    @Test
+    public void getArticlesPage_sharedTimestamp() {
+        for (String url : new String[] { "http://test.com/3", "http://test.com/4", "http://test.com/5" }) {
+            Article article = source.getArticle(url);
+            article.insertedAt = 4L;
+            source.updateArticleInsertedAtTimestamp(article);
+        }
+
+        // the page boundary falls in the middle of the articles sharing a timestamp
+        ArticlePage page = source.getArticlesPage(null, 4);
+        assertPage(page, 8, 7, 6, 5);
+
+        page = source.getArticlesPage(page.getNextPageToken(), 4);
+        assertPage(page, 4, 3, 2, 1);
+    }
+
+    @Test
+    public void getSavedArticlesPage() {
+        ArticlePage page = source.getSavedArticlesPage(null, 10);
+        assertPage(page, 1);
+        assertFalse(page.hasNextPage());
+    }
+
+    @Test
+    public void getArticlesForSourcePage() {
+        ArticlePage page = source.getArticlesForSourcePage(100L, null, 2);
+        assertPage(page, 6, 4);
+        assertEquals("klinker.xyz", page.getArticles().get(0).source);
+
+        page = source.getArticlesForSourcePage(100L, page.getNextPageToken(), 2);
+        assertPage(page, 3);
+        assertFalse(page.hasNextPage());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getArticlesPage_invalidToken() {
+        source.getArticlesPage("not a token", 10);
+    }
+
+    @Test
+    public void upsertArticle_newUrl() {
+        Article article = new Article();
+        article.url = "http://test.com/new?utm_source=feed";
+        article.title = "new article";
+        article.content = "<p>new content</p>";
+        article.isArticle = true;
+
+        long id = source.upsertArticle(article);
+
+        Article stored = source.getArticle("http://test.com/new");
+        assertEquals(id, stored.id);
+        assertEquals("new article", stored.title);
+        assertEquals("<p>new content</p>", stored.content);
+        assertEquals(9, source.getAllArticles().getCount());
+    }
+
+    @Test
+    public void upsertArticle_storedWithoutContent() {
+        Article article = new Article();
+        article.url = "http://test.com/3";
+        article.title = "article 3, refreshed";
+        article.content = "<p>refreshed content</p>";
+        article.isArticle = true;
+
+        assertEquals(3, source.upsertArticle(article));
+
+        Article stored = source.getArticle("http://test.com/3");
+        assertEquals("article 3, refreshed", stored.title);
+        assertEquals("<p>refreshed content</p>", stored.content);
+        assertEquals(3, stored.insertedAt);
+        assertEquals(100L, (long) stored.sourceId);
+        assertEquals(8, source.getAllArticles().getCount());
+        assertEquals(1, source.searchArticles("refreshed", 10, 0).size());
+    }
+
+    @Test
+    public void upsertArticle_keepsSavedState() {
+        Article article = new Article();
+        article.url = "http://test.com/";
+        article.content = "<p>new content</p>";
+
+        assertEquals(1, source.upsertArticle(article));
+
+        Article stored = source.getArticle("http://test.com/");
+        assertTrue(stored.saved);
+        assertEquals("<p>new content</p>", stored.content);
+        assertEquals(1, source.getSavedArticles().getCount());
+
+        Cursor content = source.rawQuery("select count(*) from content where article_id=1");
+        content.moveToFirst();
+        assertEquals(1, content.getInt(0));
+        content.close();
+    }
+
+    @Test
+    public void upsertArticle_sameContentNewMetadata() {
+        Article article = new Article();
+        article.url = "http://test.com/new";
+        article.title = "provisional headline";
+        article.content = "<p>same content</p>";
+        source.upsertArticle(article);
+
+        article.url = "http://test.com/new";
+        article.title = "renamed headline";
+        source.upsertArticle(article);
+
+        assertEquals(1, source.searchArticles("renamed", 10, 0).size());
+        assertTrue(source.searchArticles("provisional", 10, 0).isEmpty());
+    }
+
     @Test
     public void updateArticleContent() {
         Article article = source.getArticle("http://test.com/");
@@ -198,6 +432,418 @@ public class SQLiteQueryTest extends ArticleRealDataSuite {
         assertEquals("blah", article.content);
     }
 
+    @Test
+    public void updateArticleContent_storedCompressed() {
+        Article article = source.getArticle("http://test.com/2");
+        article.content = "<p>compressed</p>";
+        source.updateArticleContent(article);
+
+        Cursor cursor = source.rawQuery(
+                "select typeof(content) from content where article_id = " + article.id);
+        cursor.moveToFirst();
+        assertEquals("blob", cursor.getString(0));
+        cursor.close();
+    }
+
+    @Test
+    public void updateArticleContent_unchangedNotWritten() {
+        Article article = source.getArticle("http://test.com/2");
+        article.content = "<p>refreshed</p>";
+        source.updateArticleContent(article);
+
+        long changes = totalChanges();
+        source.updateArticleContent(article);
+        assertEquals(changes, totalChanges());
+
+        article.content = "<p>refreshed again</p>";
+        source.updateArticleContent(article);
+        assertNotEquals(changes, totalChanges());
+        assertEquals("<p>refreshed again</p>", source.getArticle("http://test.com/2").content);
+    }
+
+    @Test
+    public void sharedContent() {
+        Article first = createArticle("http://test.com/shared/1", "first", "<p>the same body</p>");
+        Article second = createArticle("http://test.com/shared/2", "second", "<p>the same body</p>");
+        source.insertArticle(first);
+        source.insertArticle(second);
+
+        Cursor cursor = source.rawQuery("select count(*), count(content), " +
+                "count(distinct content_hash) from content where content_hash not null");
+        cursor.moveToFirst();
+        assertEquals(2, cursor.getInt(0));
+        assertEquals(1, cursor.getInt(1));
+        assertEquals(1, cursor.getInt(2));
+        cursor.close();
+
+        assertEquals("<p>the same body</p>", source.getArticle("http://test.com/shared/1").content);
+        assertEquals("<p>the same body</p>", source.getArticle("http://test.com/shared/2").content);
+
+        // the body moves over to the second article when the first one goes
+        source.deleteArticle(source.getArticle("http://test.com/shared/1"));
+        assertEquals("<p>the same body</p>", source.getArticle("http://test.com/shared/2").content);
+    }
+
+    @Test
+    public void sharedContent_ownerReplaced() {
+        source.insertArticle(createArticle("http://test.com/shared/1", "first", "<p>the same body</p>"));
+        source.insertArticle(createArticle("http://test.com/shared/2", "second", "<p>the same body</p>"));
+
+        Article first = source.getArticle("http://test.com/shared/1");
+        first.content = "<p>a new body</p>";
+        source.updateArticleContent(first);
+
+        assertEquals("<p>a new body</p>", source.getArticle("http://test.com/shared/1").content);
+        assertEquals("<p>the same body</p>", source.getArticle("http://test.com/shared/2").content);
+    }
+
+    @Test
+    public void compressLegacyContent() {
+        DatabaseSQLiteHelper helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
+
+        assertEquals(1, helper.compressContentChunk(source.getDatabase(), 1));
+        assertEquals(1, helper.compressContentChunk(source.getDatabase(), 5));
+        assertEquals(0, helper.compressContentChunk(source.getDatabase(), 5));
+
+        Cursor cursor = source.rawQuery(
+                "select count(*) from content where typeof(content) = 'text'");
+        cursor.moveToFirst();
+        assertEquals(0, cursor.getInt(0));
+        cursor.close();
+
+        assertEquals("First test article content.", source.getArticle("http://test.com/").content);
+        assertEquals("test content 2.", source.getArticle("http://test.com/2").content);
+    }
+
+    @Test
+    public void hashLegacyUrls() {
+        source.execSql("update article set url_hash = null");
+        DatabaseSQLiteHelper helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
+
+        assertNull(source.getArticle("http://test.com/"));
+        assertEquals(5, helper.hashUrlChunk(source.getDatabase(), 5));
+        assertEquals(3, helper.hashUrlChunk(source.getDatabase(), 5));
+        assertEquals(0, helper.hashUrlChunk(source.getDatabase(), 5));
+
+        assertEquals(0, count("select count(*) from article where url_hash is null"));
+        assertEquals("article 1", source.getArticle("http://test.com/").title);
+        assertEquals("article 8", source.getArticle("http://test.com/8?ref=feed").title);
+    }
+
+    @Test
+    public void searchArticles() {
+        source.insertArticle(createArticle("http://test.com/search/1", "Android databases",
+                "<p>Write ahead logging keeps sqlite fast.</p>"));
+        source.insertArticle(createArticle("http://test.com/search/2", "Cooking pasta",
+                "<p>Boil the water, then add the pasta. No databases involved.</p>"));
+
+        List<SearchResult> results = source.searchArticles("databases", 10, 0);
+        assertEquals(2, results.size());
+        assertEquals("Android databases", results.get(0).getArticle().title);
+        assertTrue(results.get(0).getRank() > results.get(1).getRank());
+        assertTrue(results.get(1).getSnippet().contains("<b>databases</b>"));
+        assertNull(results.get(0).getArticle().content);
+
+        assertEquals(1, source.searchArticles("pasta water", 10, 0).size());
+        assertEquals(1, source.searchArticles("databases", 10, 1).size());
+        assertTrue(source.searchArticles("databases", 10, 2).isEmpty());
+        assertTrue(source.searchArticles("nothing matches this", 10, 0).isEmpty());
+    }
+
+    @Test
+    public void searchArticles_rareTermsCountMore() {
+        source.insertArticle(createArticle("http://test.com/search/1", "Alpha", "<p>beta</p>"));
+        source.insertArticle(createArticle("http://test.com/search/2", "Beta", "<p>alpha</p>"));
+        source.insertArticle(createArticle("http://test.com/search/3", "Beta", "<p>gamma</p>"));
+
+        // both have one term in the title and one in the body, but more titles have beta
+        List<SearchResult> results = source.searchArticles("alpha beta", 10, 0);
+        assertEquals(2, results.size());
+        assertEquals("http://test.com/search/1", results.get(0).getArticle().url);
+        assertTrue(results.get(0).getRank() > results.get(1).getRank());
+    }
+
+    @Test
+    public void searchArticles_contentUpdated() {
+        source.insertArticle(createArticle("http://test.com/search/1", "Title", null));
+        assertTrue(source.searchArticles("lasagna", 10, 0).isEmpty());
+
+        Article article = source.getArticle("http://test.com/search/1");
+        article.content = "<p>A recipe for lasagna.</p>";
+        source.updateArticleContent(article);
+
+        assertEquals(1, source.searchArticles("lasagna", 10, 0).size());
+    }
+
+    @Test
+    public void searchArticles_deleted() {
+        long id = source.insertArticle(createArticle("http://test.com/search/1", "Lasagna", null));
+        assertEquals(1, source.searchArticles("lasagna", 10, 0).size());
+
+        source.deleteArticle(id);
+        assertTrue(source.searchArticles("lasagna", 10, 0).isEmpty());
+    }
+
+    @Test
+    public void indexLegacyContent() {
+        source.execSql("insert into article_search (docid, title, description, author) " +
+                "select _id, title, description, author from article");
+        DatabaseSQLiteHelper helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
+
+        assertEquals(1L, helper.indexContentChunk(source.getDatabase(), 0, 1));
+        assertEquals(2L, helper.indexContentChunk(source.getDatabase(), 1, 5));
+        assertEquals(-1L, helper.indexContentChunk(source.getDatabase(), 2, 5));
+
+        List<SearchResult> results = source.searchArticles("first", 10, 0);
+        assertEquals(1, results.size());
+        assertEquals("http://test.com/", results.get(0).getArticle().url);
+    }
+
+    @Test
+    public void rebuildSearchIndex() {
+        DatabaseSQLiteHelper helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
+
+        assertEquals(2L, helper.rebuildSearchChunk(source.getDatabase(), 0, 2));
+        assertEquals(1, source.searchArticles("luke", 10, 0).size());
+
+        long last = helper.rebuildSearchChunk(source.getDatabase(), 2, 100);
+        assertEquals(-1L, helper.rebuildSearchChunk(source.getDatabase(), last, 100));
+        assertEquals(7, source.searchArticles("luke", 10, 0).size());
+
+        // starting over doesn't index an article a second time
+        helper.rebuildSearchChunk(source.getDatabase(), 0, 100);
+        assertEquals(count("select count(*) from article"),
+                count("select count(*) from article_search_docsize"));
+    }
+
+    @Test
+    public void writesPublishTheirTables() {
+        List<Set<String>> invalidations = observeAllTables();
+
+        Article article = source.getArticle("http://test.com/");
+        assertTrue(invalidations.isEmpty());
+
+        article.saved = !article.saved;
+        source.updateSavedArticleState(article);
+        assertEquals(1, invalidations.size());
+        assertEquals(Collections.singleton("article"), invalidations.get(0));
+
+        source.deleteArticle(article.id);
+        assertEquals(2, invalidations.size());
+        assertTrue(invalidations.get(1).contains("article"));
+        assertTrue(invalidations.get(1).contains("content"));
+        assertTrue(invalidations.get(1).contains("article_search"));
+    }
+
+    @Test
+    public void transactionPublishesOnceWhenEnded() {
+        List<Set<String>> invalidations = observeAllTables();
+        Article article = source.getArticle("http://test.com/");
+
+        source.beginTransaction();
+        try {
+            source.updateSavedArticleState(article);
+            source.deleteSource("unused source");
+            assertTrue(invalidations.isEmpty());
+            source.setTransactionSuccessful();
+        } finally {
+            source.endTransaction();
+        }
+
+        assertEquals(1, invalidations.size());
+        assertTrue(invalidations.get(0).contains("article"));
+        assertTrue(invalidations.get(0).contains("source"));
+    }
+
+    @Test
+    public void getArticle_cached() {
+        Article first = source.getArticle("http://test.com/?utm_source=feed");
+        Article second = source.getArticle("http://test.com/");
+
+        assertEquals(1, source.getArticleCacheMisses());
+        assertEquals(1, source.getArticleCacheHits());
+        assertNotSame(first, second);
+        assertEquals(first.content, second.content);
+        assertEquals(first.lastAccessedAt, second.lastAccessedAt);
+    }
+
+    @Test
+    public void getArticle_cacheDroppedOnWrite() {
+        Article article = source.getArticle("http://test.com/2");
+        article.saved = true;
+        source.updateSavedArticleState(article);
+        assertTrue(source.getArticle("http://test.com/2").saved);
+
+        article.content = "<p>a new body</p>";
+        source.updateArticleContent(article);
+        assertEquals("<p>a new body</p>", source.getArticle("http://test.com/2").content);
+
+        source.deleteArticle(article.id);
+        assertNull(source.getArticle("http://test.com/2"));
+    }
+
+    @Test
+    public void getArticle_cacheDroppedOnRawWrite() {
+        source.getArticle("http://test.com/2");
+        source.execSql("update article set title = 'changed' where url = 'http://test.com/2'");
+        assertEquals("changed", source.getArticle("http://test.com/2").title);
+    }
+
+    @Test
+    public void getArticle_cacheDisabled() {
+        source.setArticleCacheSize(0);
+        source.getArticle("http://test.com/");
+        source.getArticle("http://test.com/");
+
+        assertEquals(0, source.getArticleCacheHits());
+        assertEquals(2, source.getArticleCacheMisses());
+    }
+
+    @Test
+    public void recordParseResult_notArticle() {
+        Article article = new Article();
+        article.isArticle = false;
+        source.recordParseResult("http://test.com/not-article?ref=feed", article);
+
+        assertTrue(source.isFailedUrl("http://test.com/not-article"));
+        assertEquals(1, count("select count(*) from failed_url where not_article = 1"));
+
+        // a new data source picks it up from the table
+        DataSource reopened = new DataSource(source.getDatabase());
+        assertTrue(reopened.isFailedUrl("http://test.com/not-article?ref=other"));
+    }
+
+    @Test
+    public void recordParseResult_failedThenArticle() {
+        source.recordParseResult("http://test.com/flaky", null);
+        source.recordParseResult("http://test.com/flaky", null);
+
+        assertTrue(source.isFailedUrl("http://test.com/flaky"));
+        assertEquals(2, count("select failures from failed_url"));
+
+        Article article = new Article();
+        article.isArticle = true;
+        source.recordParseResult("http://test.com/flaky", article);
+
+        assertFalse(source.isFailedUrl("http://test.com/flaky"));
+        assertEquals(0, count("select count(*) from failed_url"));
+    }
+
+    @Test
+    public void storingTheArticleClearsAFailedUrl() {
+        source.recordParseResult("http://test.com/flaky", null);
+        assertTrue(source.isFailedUrl("http://test.com/flaky"));
+
+        // the failed urls are checked before the database, so the stored article has to clear it
+        source.insertArticle(createArticle("http://test.com/flaky", "Flaky", "<p>body</p>"));
+
+        assertFalse(source.isFailedUrl("http://test.com/flaky"));
+        assertEquals(0, count("select count(*) from failed_url"));
+    }
+
+    @Test
+    public void isFailedUrl_staleRowsPruned() {
+        source.execSql("insert into failed_url (url, not_article, failures, retry_at) " +
+                "values ('http://test.com/old', 1, 0, 1000)");
+
+        assertFalse(source.isFailedUrl("http://test.com/old"));
+        assertEquals(0, count("select count(*) from failed_url"));
+    }
+
+    @Test
+    public void getArticle_hashCollision() {
+        source.execSql("update article set url_hash = (select url_hash from article where " +
+                "url = 'http://test.com/2') where url = 'http://test.com/3'");
+
+        assertEquals("article 2", source.getArticle("http://test.com/2").title);
+    }
+
+    @Test
+    public void insertArticle_hashesUrl() {
+        Article article = new Article();
+        article.url = "http://test.com/hashed?ref=feed";
+        source.insertArticle(article);
+        source.insertArticles(Collections.singletonList(largeArticle("http://test.com/batch")));
+
+        assertEquals(0, count("select count(*) from article where url_hash is null"));
+        assertNotNull(source.getArticle("http://test.com/hashed"));
+        assertNotNull(source.getArticle("http://test.com/batch"));
+    }
+
+    @Test
+    public void getArticle_recordsAccess() {
+        assertNotEquals(0, source.getArticle("http://test.com/2").lastAccessedAt);
+
+        // held in memory until the next eviction writes it out
+        String stored = "select last_accessed_at from article where url = 'http://test.com/2'";
+        assertEquals(0, count(stored));
+        source.evict(10);
+        assertNotEquals(0, count(stored));
+    }
+
+    @Test
+    public void evict_articleBudget() {
+        source.setStorageBudget(0, 5);
+
+        assertEquals(3, source.evict(10));
+        assertEquals(0, source.evict(10));
+        assertEquals(5, source.getAllArticles().getCount());
+
+        // the least recently used ones go first, the saved one is kept
+        assertNotNull(source.getArticle("http://test.com/"));
+        assertNull(source.getArticle("http://test.com/2"));
+        assertNull(source.getArticle("http://test.com/4"));
+        assertNotNull(source.getArticle("http://test.com/5"));
+    }
+
+    @Test
+    public void evict_recentlyReadArticleKept() {
+        source.getArticle("http://test.com/2");
+        source.setStorageBudget(0, 7);
+
+        assertEquals(1, source.evict(10));
+        assertNotNull(source.getArticle("http://test.com/2"));
+        assertNull(source.getArticle("http://test.com/3"));
+    }
+
+    @Test
+    public void evict_contentBudget() {
+        source.setStorageBudget(1, 0);
+
+        assertEquals(1, source.evict(10));
+        assertEquals(0, source.evict(10));
+
+        // the article itself is kept, its content will be downloaded again on the next open
+        assertEquals(8, source.getAllArticles().getCount());
+        assertNull(source.getArticle("http://test.com/2").content);
+        assertEquals("First test article content.", source.getArticle("http://test.com/").content);
+    }
+
+    @Test
+    public void contentSize_keptByTheTriggers() {
+        String stored = "select coalesce(sum(coalesce(length(content), content_length)), 0) " +
+                "from content";
+        assertEquals(count(stored), count("select bytes from content_size"));
+
+        Article article = source.getArticle("http://test.com/2");
+        article.content = "<p>A much longer body than the one that was stored before.</p>";
+        source.updateArticleContent(article);
+        assertEquals(count(stored), count("select bytes from content_size"));
+
+        source.setStorageBudget(1, 0);
+        source.evict(1);
+        assertEquals(count(stored), count("select bytes from content_size"));
+
+        source.deleteArticle(1L);
+        assertEquals(count(stored), count("select bytes from content_size"));
+    }
+
+    @Test
+    public void evict_noBudget() {
+        assertEquals(0, source.evict(10));
+        assertEquals(8, source.getAllArticles().getCount());
+    }
+
     @Test
     public void insertCategory() {
         assertFalse(source.categoryExists("test category"));
@@ -256,6 +902,56 @@ public class SQLiteQueryTest extends ArticleRealDataSuite {
         assertEquals("test 2", counts.getCategories().get(1).name);
     }
 
+    @Test
+    public void getCategoriesCount_followsArticleWrites() {
+        long hour = 60 * 60 * 1000;
+        Article article = source.getArticle("http://test.com/8");
+        article.insertedAt = 3 * hour + 10;
+        source.updateArticleInsertedAtTimestamp(article);
+
+        assertEquals(6, source.getCategoryCounts(0).getTotalCount());
+
+        // one full hour bucket, then only the partial hour that the window starts in
+        CategoryCounts counts = source.getCategoryCounts(2 * hour);
+        assertEquals(1, counts.getTotalCount());
+        assertEquals("test 2", counts.getCategories().get(0).name);
+        assertEquals(1, source.getCategoryCounts(3 * hour + 9).getTotalCount());
+        assertEquals(0, source.getCategoryCounts(3 * hour + 10).getCategories().size());
+
+        source.deleteArticle(article.id);
+        counts = source.getCategoryCounts(0);
+        assertEquals(5, counts.getTotalCount());
+        assertEquals(1, counts.getCategories().size());
+    }
+
+    @Test
+    public void getCategoriesCount_windows() {
+        long hour = 60 * 60 * 1000;
+        Article article = source.getArticle("http://test.com/8");
+        article.insertedAt = 3 * hour + 10;
+        source.updateArticleInsertedAtTimestamp(article);
+
+        long[] windows = new long[] { 3 * hour + 10, 3 * hour + 9, 2 * hour, 4, 0 };
+        List<CategoryCounts> counts = source.getCategoryCounts(windows);
+
+        assertEquals(windows.length, counts.size());
+        for (int i = 0; i < windows.length; i++) {
+            CategoryCounts expected = source.getCategoryCounts(windows[i]);
+            assertEquals(expected.getTotalCount(), counts.get(i).getTotalCount());
+            assertEquals(expected.getCategories().size(), counts.get(i).getCategories().size());
+
+            for (int j = 0; j < expected.getCategories().size(); j++) {
+                assertEquals(expected.getCategories().get(j).name,
+                        counts.get(i).getCategories().get(j).name);
+                assertEquals(expected.getCategories().get(j).numberArticles,
+                        counts.get(i).getCategories().get(j).numberArticles);
+            }
+        }
+
+        assertEquals(0, counts.get(0).getTotalCount());
+        assertEquals(6, counts.get(4).getTotalCount());
+    }
+
     @Test
     public void insertSource_existingCategory() {
         assertEquals(2, source.getCategoryCounts(0).getCategories().size());
@@ -307,6 +1003,74 @@ public class SQLiteQueryTest extends ArticleRealDataSuite {
         assertEquals(4, source.getSources().size());
     }
 
+    @Test
+    public void syncSources() {
+        List<Source> sources = new ArrayList<>();
+        sources.add(syncedSource(100, "test 1", "test"));
+        sources.add(syncedSource(101, "test 2 renamed", "test"));
+        sources.add(syncedSource(103, "test 4", "new category"));
+
+        assertEquals(3, source.syncSources(sources));
+
+        List<Source> stored = source.getSources();
+        assertEquals(3, stored.size());
+        assertEquals("test 1", stored.get(0).name);
+        assertEquals("test 2 renamed", stored.get(1).name);
+        assertEquals("test 4", stored.get(2).name);
+        assertEquals("new category", stored.get(2).categoryName);
+        assertEquals(sources.get(2).categoryId, stored.get(2).categoryId);
+        assertEquals(1L, (long) sources.get(0).id);
+
+        // nothing changed the second time around
+        assertEquals(0, source.syncSources(sources));
+    }
+
+    @Test
+    public void syncSources_duplicates() {
+        List<Source> sources = new ArrayList<>();
+        sources.add(syncedSource(103, "first", "test"));
+        sources.add(syncedSource(103, "second", "test"));
+
+        source.syncSources(sources);
+
+        List<Source> stored = source.getSources();
+        assertEquals(1, stored.size());
+        assertEquals("second", stored.get(0).name);
+    }
+
+    @Test
+    public void syncSources_missingName() {
+        List<Source> sources = new ArrayList<>();
+        sources.add(syncedSource(103, "test 4", "new category"));
+        sources.add(syncedSource(104, null, "test"));
+
+        try {
+            source.syncSources(sources);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // turned away before the first source was written
+            assertEquals(3, source.getSources().size());
+            assertNull(source.getSource(103));
+        }
+    }
+
+    @Test
+    public void metrics() {
+        source.getArticle("http://test.com/");
+        source.getArticle("http://test.com/missing");
+        source.getCategoryCounts(0);
+
+        DataSourceMetrics.Snapshot snapshot = source.getMetricsSnapshot();
+        assertEquals(1, snapshot.getTimings(DataSourceMetrics.Operation.GET_ARTICLE_HIT).getCount());
+        assertEquals(1, snapshot.getTimings(DataSourceMetrics.Operation.GET_ARTICLE_MISS).getCount());
+        assertEquals(1, snapshot.getTimings(DataSourceMetrics.Operation.CATEGORY_COUNTS).getCount());
+        assertEquals(0, snapshot.getTimings(DataSourceMetrics.Operation.INSERT).getCount());
+        assertEquals(8L, (long) snapshot.getTableRows().get("article"));
+        assertEquals(3L, (long) snapshot.getTableRows().get("source"));
+        assertEquals(2L, (long) snapshot.getTableRows().get("category"));
+        assertTrue(snapshot.getDatabaseBytes() > 0);
+    }
+
     @Test
     public void deleteSource() {
         int count = source.getSources().size();
@@ -328,10 +1092,480 @@ public class SQLiteQueryTest extends ArticleRealDataSuite {
         assertEquals(count - 1, source.getAllArticles().getCount());
     }
 
+    @Test
+    public void deleteArticle_cascadesToContent() {
+        source.deleteArticle(1L);
+        assertEquals(0, count("select count(*) from content where article_id = 1"));
+        assertEquals(0, count("select count(*) from article_search_docsize where docid = 1"));
+    }
+
+    @Test
+    public void deleteArticles() {
+        assertEquals(2, source.deleteArticles(new long[] { 1, 2, 100 }));
+        assertEquals(6, source.getAllArticles().getCount());
+        assertEquals(0, count("select count(*) from content where article_id in (1, 2)"));
+    }
+
+    @Test
+    public void deleteArticlesOlderThan_keepSaved() {
+        assertEquals(2, source.deleteArticlesOlderThan(4, true));
+        assertNotNull(source.getArticle("http://test.com/"));
+        assertNull(source.getArticle("http://test.com/2"));
+        assertNotNull(source.getArticle("http://test.com/4"));
+        assertEquals(0, count("select count(*) from content where article_id = 2"));
+    }
+
+    @Test
+    public void deleteArticlesOlderThan_includingSaved() {
+        assertEquals(3, source.deleteArticlesOlderThan(4, false));
+        assertNull(source.getArticle("http://test.com/"));
+        assertEquals(5, source.getAllArticles().getCount());
+    }
+
+    @Test
+    public void reclaimFreePages() {
+        DatabaseSQLiteHelper helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
+        helper.enableIncrementalVacuum(source.getDatabase());
+        long[] ids = source.insertArticles(randomArticles(200));
+        long databaseBytes = source.getMetricsSnapshot().getDatabaseBytes();
+
+        source.deleteArticles(ids);
+        long freeBytes = source.getMetricsSnapshot().getFreeBytes();
+        assertTrue(freeBytes > 0);
+
+        assertEquals(freeBytes, source.reclaimFreePages(50));
+        DataSourceMetrics.Snapshot snapshot = source.getMetricsSnapshot();
+        assertEquals(0, snapshot.getFreeBytes());
+        assertTrue(snapshot.getDatabaseBytes() < databaseBytes);
+        assertTrue(snapshot.getTimings(DataSourceMetrics.Operation.RECLAIM).getCount() > 0);
+    }
+
+    @Test
+    public void reclaimFreePages_notIncremental() {
+        source.deleteArticles(source.insertArticles(randomArticles(50)));
+        long freeBytes = source.getMetricsSnapshot().getFreeBytes();
+
+        assertEquals(0, source.reclaimFreePages(50));
+        assertEquals(freeBytes, source.getMetricsSnapshot().getFreeBytes());
+    }
+
+    @Test
+    public void reclaimFreePages_interrupted() {
+        DatabaseSQLiteHelper helper = new DatabaseSQLiteHelper(RuntimeEnvironment.application);
+        helper.enableIncrementalVacuum(source.getDatabase());
+        source.deleteArticles(source.insertArticles(randomArticles(50)));
+
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(0, source.reclaimFreePages(50));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void exportSavedArticles() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(1, source.exportSavedArticles(output));
+
+        String archive = output.toString("UTF-8");
+        assertEquals(archive.length() - 1, archive.indexOf('\n'));
+
+        JsonReader reader = new JsonReader(new StringReader(archive));
+        reader.setLenient(true);
+        Article article = ArticleArchive.read(reader);
+        assertEquals("http://test.com/", article.url);
+        assertEquals("First test article content.", article.content);
+        assertTrue(article.saved);
+        assertNull(ArticleArchive.read(reader));
+    }
+
+    @Test
+    public void exportSavedArticles_none() throws Exception {
+        source.clearTables();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertEquals(0, source.exportSavedArticles(output));
+        assertEquals(0, output.size());
+        assertEquals(0, source.importArticles(new ByteArrayInputStream(output.toByteArray())));
+    }
+
+    @Test
+    public void exportSavedArticles_largeContent() throws Exception {
+        File directory = storeLargeContentInFiles();
+        Article article = source.getArticle("http://test.com/");
+        article.content = randomArticles(1).get(0).content;
+        source.updateArticleContent(article);
+        assertTrue(contentFile(directory, article.id, article.content).exists());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        source.exportSavedArticles(output);
+        DataSource target = emptyDataSource();
+        target.importArticles(new ByteArrayInputStream(output.toByteArray()));
+
+        assertEquals(article.content, target.getArticle("http://test.com/").content);
+    }
+
+    @Test
+    public void importArticles() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        source.exportSavedArticles(output);
+
+        DataSource target = emptyDataSource();
+        assertEquals(1, target.importArticles(new ByteArrayInputStream(output.toByteArray())));
+
+        Article article = target.getArticle("http://test.com/");
+        Article original = source.getArticle("http://test.com/");
+        assertEquals(original.title, article.title);
+        assertEquals(original.insertedAt, article.insertedAt);
+        assertEquals("First test article content.", article.content);
+        assertTrue(article.saved);
+        assertEquals(1, target.getSavedArticles().getCount());
+    }
+
+    @Test
+    public void importArticles_existingUrl() throws Exception {
+        Article article = new Article();
+        article.url = "http://test.com/2";
+        article.title = "imported title";
+        article.content = "imported content";
+        article.saved = true;
+        StringWriter archive = new StringWriter();
+        ArticleArchive.write(archive, article);
+
+        int count = source.getAllArticles().getCount();
+        assertEquals(1, source.importArticles(
+                new ByteArrayInputStream(archive.toString().getBytes("UTF-8"))));
+
+        Article imported = source.getArticle("http://test.com/2");
+        assertEquals(count, source.getAllArticles().getCount());
+        assertEquals("imported title", imported.title);
+        assertEquals("imported content", imported.content);
+        assertTrue(imported.saved);
+    }
+
+    @Test
+    public void importArticles_skipsRecordsWithoutUrl() throws Exception {
+        String archive = "{\"title\":\"no url\"}\n{\"url\":\"http://test.com/new\"}\n";
+
+        assertEquals(1, source.importArticles(new ByteArrayInputStream(archive.getBytes("UTF-8"))));
+        assertNotNull(source.getArticle("http://test.com/new"));
+    }
+
+    @Test
+    public void importArticles_failedBatchKeepsFiles() throws Exception {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        article.id = source.upsertArticle(article);
+        String original = article.content;
+        source.execSql("create trigger broken_content before insert on content when " +
+                "(select url from article where _id = new.article_id) = 'http://test.com/broken' " +
+                "begin select raise(abort, 'broken'); end");
+
+        StringWriter archive = new StringWriter();
+        article.content = original + "<p>imported paragraph</p>";
+        ArticleArchive.write(archive, article);
+        ArticleArchive.write(archive, largeArticle("http://test.com/broken"));
+
+        try {
+            source.importArticles(new ByteArrayInputStream(archive.toString().getBytes("UTF-8")));
+            fail();
+        } catch (RuntimeException e) {
+            // the second article fails the batch that the first one was upserted in
+        }
+
+        assertTrue(contentFile(directory, article.id, original).exists());
+        assertFalse(contentFile(directory, article.id, article.content).exists());
+        assertEquals(original, source.getArticle("http://test.com/large").content);
+    }
+
+    @Test
+    public void exportImport_5kArticles() throws Exception {
+        List<Article> articles = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Article article = new Article();
+            article.url = "http://test.com/archive/" + i;
+            article.title = "Archived article " + i;
+            article.content = "<p>Paragraph of archived article " + i + ".</p>";
+            article.saved = true;
+            articles.add(article);
+        }
+
+        source.insertArticles(articles);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(5001, source.exportSavedArticles(output));
+
+        DataSource target = emptyDataSource();
+        assertEquals(5001, target.importArticles(new ByteArrayInputStream(output.toByteArray())));
+        assertEquals(5001, target.getSavedArticles().getCount());
+
+        for (int i = 0; i < 5000; i += 1249) {
+            Article article = target.getArticle("http://test.com/archive/" + i);
+            assertEquals("Archived article " + i, article.title);
+            assertEquals("<p>Paragraph of archived article " + i + ".</p>", article.content);
+            assertTrue(article.saved);
+        }
+    }
+
     @Test
     public void deleteArticle_nonExistant() {
         int count = source.getAllArticles().getCount();
         source.deleteArticle(-1L);
         assertEquals(count, source.getAllArticles().getCount());
     }
+
+    @Test
+    public void largeContent_storedInFile() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        long id = source.upsertArticle(article);
+        File file = contentFile(directory, id, article.content);
+
+        assertEquals(1, count("select count(*) from content where article_id = " + id +
+                " and content is null and content_path = '" + file.getName() + "'"));
+        assertTrue(file.exists());
+        assertEquals(article.content, source.getArticle("http://test.com/large").content);
+    }
+
+    @Test
+    public void largeContent_missingFile() {
+        File directory = storeLargeContentInFiles();
+        Article large = largeArticle("http://test.com/large");
+        long id = source.upsertArticle(large);
+        assertTrue(contentFile(directory, id, large.content).delete());
+
+        // the system cleared the cache, the article is kept without its content
+        Article article = source.getArticle("http://test.com/large");
+        assertNotNull(article);
+        assertNull(article.content);
+    }
+
+    @Test
+    public void largeContent_deletedWithArticle() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        long id = source.upsertArticle(article);
+
+        source.deleteArticle(id);
+        assertFalse(contentFile(directory, id, article.content).exists());
+    }
+
+    @Test
+    public void largeContent_deletedWithOldArticles() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        article.insertedAt = 1;
+        long id = source.upsertArticle(article);
+
+        source.deleteArticlesOlderThan(2, false);
+        assertFalse(contentFile(directory, id, article.content).exists());
+    }
+
+    @Test
+    public void largeContent_replacedInline() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        article.id = source.upsertArticle(article);
+        File file = contentFile(directory, article.id, article.content);
+
+        article.content = "<p>short</p>";
+        source.updateArticleContent(article);
+
+        assertFalse(file.exists());
+        assertEquals("<p>short</p>", source.getArticle("http://test.com/large").content);
+        assertEquals(0, count("select count(*) from content where content_path not null"));
+    }
+
+    @Test
+    public void largeContent_evicted() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        long id = source.upsertArticle(article);
+        source.setStorageBudget(1, 0);
+
+        while (source.evict(10) > 0) { }
+
+        assertFalse(contentFile(directory, id, article.content).exists());
+        assertNull(source.getArticle("http://test.com/large").content);
+        assertEquals(0, count("select count(*) from content where content_path not null"));
+    }
+
+    @Test
+    public void largeContent_replacedWithFile() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        article.id = source.upsertArticle(article);
+        File first = contentFile(directory, article.id, article.content);
+
+        article.content = article.content + "<p>one more paragraph</p>";
+        source.upsertArticle(article);
+
+        // the new body goes to a file of its own, the old one is only deleted after the commit
+        assertFalse(first.exists());
+        assertTrue(contentFile(directory, article.id, article.content).exists());
+        assertEquals(article.content, source.getArticle("http://test.com/large").content);
+    }
+
+    @Test
+    public void largeContent_replacedInOuterTransaction() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        article.id = source.upsertArticle(article);
+        File first = contentFile(directory, article.id, article.content);
+
+        source.beginTransaction();
+        try {
+            article.content = article.content + "<p>one more paragraph</p>";
+            source.upsertArticle(article);
+
+            // the upsert's own transaction ended, but nothing is committed until this one is
+            assertTrue(first.exists());
+            source.setTransactionSuccessful();
+        } finally {
+            source.endTransaction();
+        }
+
+        assertFalse(first.exists());
+        assertEquals(article.content, source.getArticle("http://test.com/large").content);
+    }
+
+    @Test
+    public void largeContent_outerTransactionRolledBack() {
+        File directory = storeLargeContentInFiles();
+        Article article = largeArticle("http://test.com/large");
+        article.id = source.upsertArticle(article);
+        String original = article.content;
+
+        source.beginTransaction();
+        try {
+            article.content = original + "<p>one more paragraph</p>";
+            source.upsertArticle(article);
+        } finally {
+            source.endTransaction();
+        }
+
+        // the row still points at the first body, so its file is kept and the new one is gone
+        assertTrue(contentFile(directory, article.id, original).exists());
+        assertFalse(contentFile(directory, article.id, article.content).exists());
+        assertEquals(original, source.getArticle("http://test.com/large").content);
+    }
+
+    @Test
+    public void largeContent_batchRolledBack() {
+        File directory = storeLargeContentInFiles();
+        source.execSql("create trigger broken_content before insert on content when " +
+                "(select url from article where _id = new.article_id) = 'http://test.com/broken' " +
+                "begin select raise(abort, 'broken'); end");
+        Article large = largeArticle("http://test.com/large");
+        List<Article> articles = new ArrayList<>();
+        articles.add(large);
+        articles.add(largeArticle("http://test.com/broken"));
+
+        try {
+            source.insertArticles(articles);
+            fail();
+        } catch (RuntimeException e) {
+            // the second article's content fails the whole batch
+        }
+
+        assertNull(source.getArticle("http://test.com/large"));
+        String[] names = directory.list();
+        for (int i = 0; names != null && i < names.length; i++) {
+            assertFalse(names[i].endsWith("-" + ContentCompressor.hash(large.content)));
+        }
+    }
+
+    private List<Set<String>> observeAllTables() {
+        final List<Set<String>> invalidations = new ArrayList<>();
+        source.getInvalidationTracker().addObserver(new InvalidationTracker.Observer() {
+            @Override
+            public void onInvalidated(Set<String> tables) {
+                invalidations.add(tables);
+            }
+        }, "article", "content", "article_search", "source", "category");
+
+        return invalidations;
+    }
+
+    private long totalChanges() {
+        Cursor cursor = source.rawQuery("select total_changes()");
+        cursor.moveToFirst();
+        long changes = cursor.getLong(0);
+        cursor.close();
+        return changes;
+    }
+
+    private static void assertPage(ArticlePage page, long... ids) {
+        assertEquals(ids.length, page.getArticles().size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], page.getArticles().get(i).id);
+        }
+    }
+
+    private static Source syncedSource(long remoteId, String name, String categoryName) {
+        Source source = new Source();
+        source.remoteId = remoteId;
+        source.name = name;
+        source.imageUrl = "http://test" + (remoteId - 99);
+        source.categoryName = categoryName;
+        return source;
+    }
+
+    private static DataSource emptyDataSource() {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        new DatabaseSQLiteHelper(RuntimeEnvironment.application).onCreate(database);
+        return new DataSource(database);
+    }
+
+    // bodies that barely compress, so that they take up plenty of pages
+    private static List<Article> randomArticles(int count) {
+        Random random = new Random(count);
+        List<Article> articles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder html = new StringBuilder();
+            for (int j = 0; j < 500; j++) {
+                html.append(Long.toHexString(random.nextLong()));
+            }
+
+            Article article = new Article();
+            article.url = "http://test.com/random/" + i;
+            article.content = html.toString();
+            articles.add(article);
+        }
+
+        return articles;
+    }
+
+    private long count(String sql) {
+        Cursor cursor = source.rawQuery(sql);
+        cursor.moveToFirst();
+        long count = cursor.getLong(0);
+        cursor.close();
+        return count;
+    }
+
+    private static File contentFile(File directory, long articleId, String content) {
+        return new File(directory, ContentFileStore.name(articleId,
+                ContentCompressor.hash(content)));
+    }
+
+    private File storeLargeContentInFiles() {
+        File cache = RuntimeEnvironment.application.getCacheDir();
+        source.setContentFileStore(new ContentFileStore(cache, 1024));
+        return new File(cache, "article_content");
+    }
+
+    private static Article largeArticle(String url) {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            html.append("<p>paragraph ").append(i).append(" of a long form article</p>");
+        }
+
+        Article article = new Article();
+        article.url = url;
+        article.title = "Large";
+        article.content = html.toString();
+        return article;
+    }
 }
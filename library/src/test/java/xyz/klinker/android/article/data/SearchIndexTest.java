@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import xyz.klinker.android.article.ArticleSuite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest extends ArticleSuite {
+
+    @Test
+    public void plainText() {
+        assertEquals("Title some text", SearchIndex.plainText("<h1>Title</h1><p>some <b>text</b></p>"));
+        assertNull(SearchIndex.plainText(null));
+    }
+
+    @Test
+    public void matchExpression() {
+        assertEquals("\"android\" \"sqlite\"", SearchIndex.matchExpression("android sqlite"));
+        assertEquals("\"don\" \"t\" \"panic\"", SearchIndex.matchExpression("\"don't\" -panic*"));
+        assertNull(SearchIndex.matchExpression(" \"- "));
+        assertNull(SearchIndex.matchExpression(null));
+    }
+
+    @Test
+    public void terms() {
+        assertEquals(Arrays.asList("don", "t", "panic"), SearchIndex.terms("\"don't\" -panic*"));
+        assertEquals(Collections.<String>emptyList(), SearchIndex.terms(" \"- "));
+        assertEquals(Collections.<String>emptyList(), SearchIndex.terms(null));
+    }
+
+    @Test
+    public void queryArguments() {
+        assertArrayEquals(new String[] {
+                "\"Android\" \"OR\"",
+                "title:android", "description:android", "author:android", "body:android",
+                "title:or", "description:or", "author:or", "body:or"
+        }, SearchIndex.queryArguments(Arrays.asList("Android", "OR")));
+    }
+
+    @Test
+    public void rankExpression_usesEveryArgument() {
+        String rank = SearchIndex.rankExpression(Arrays.asList("android", "sqlite"));
+        assertTrue(rank.contains("match ?2)"));
+        assertTrue(rank.contains("match ?9)"));
+        assertFalse(rank.contains("?10"));
+    }
+
+    @Test
+    public void longQueriesOnlyRankTheirFirstWords() {
+        String[] words = new String[20];
+        Arrays.fill(words, "word");
+
+        String[] arguments = SearchIndex.queryArguments(Arrays.asList(words));
+        assertEquals(33, arguments.length);
+        assertTrue(SearchIndex.rankExpression(Arrays.asList(words)).contains("match ?33)"));
+        assertFalse(SearchIndex.rankExpression(Arrays.asList(words)).contains("?34"));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import xyz.klinker.android.article.ArticleRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StatementCacheTest extends ArticleRobolectricSuite {
+
+    private static final String SQL = "update article set saved=? where _id=?";
+
+    @Mock
+    private SQLiteDatabase database;
+    @Mock
+    private SQLiteStatement first;
+    @Mock
+    private SQLiteStatement second;
+
+    private StatementCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new StatementCache();
+        when(database.compileStatement(SQL)).thenReturn(first, second);
+    }
+
+    @Test
+    public void reusesReleasedStatement() {
+        cache.release(SQL, cache.acquire(database, SQL));
+
+        assertSame(first, cache.acquire(database, SQL));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void callersAtTheSameTimeGetTheirOwn() {
+        SQLiteStatement statement = cache.acquire(database, SQL);
+        SQLiteStatement other = cache.acquire(database, SQL);
+        assertNotSame(statement, other);
+
+        cache.release(SQL, statement);
+        cache.release(SQL, other);
+
+        // only one of them is kept
+        verify(first, never()).close();
+        verify(second).close();
+        assertSame(first, cache.acquire(database, SQL));
+    }
+
+    @Test
+    public void releaseClearsBindings() {
+        cache.release(SQL, cache.acquire(database, SQL));
+        verify(first).clearBindings();
+    }
+
+    @Test
+    public void clear() {
+        cache.release(SQL, cache.acquire(database, SQL));
+        cache.clear();
+
+        verify(first).close();
+        assertSame(second, cache.acquire(database, SQL));
+    }
+
+    @Test
+    public void clear_statementInUse() {
+        SQLiteStatement statement = cache.acquire(database, SQL);
+        cache.clear();
+        verify(first, never()).close();
+
+        // closed once the caller is done with it, rather than going back into the cache
+        cache.release(SQL, statement);
+        verify(first).close();
+        assertSame(second, cache.acquire(database, SQL));
+    }
+}
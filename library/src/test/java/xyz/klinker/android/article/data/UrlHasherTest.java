@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 Jake Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.android.article.data;
+
+import org.junit.Test;
+
+import xyz.klinker.android.article.ArticleSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class UrlHasherTest extends ArticleSuite {
+
+    @Test
+    public void knownValues() {
+        // the published FNV-1a test vectors, which are all ascii
+        assertEquals(0xcbf29ce484222325L, UrlHasher.hash(""));
+        assertEquals(0xaf63dc4c8601ec8cL, UrlHasher.hash("a"));
+        assertEquals(0x85944171f73967e8L, UrlHasher.hash("foobar"));
+    }
+
+    @Test
+    public void similarUrls() {
+        assertNotEquals(UrlHasher.hash("http://test.com/2"), UrlHasher.hash("http://test.com/3"));
+        assertNotEquals(UrlHasher.hash("http://test.com/"), UrlHasher.hash("https://test.com/"));
+    }
+
+    @Test
+    public void nonAsciiUrl() {
+        assertNotEquals(UrlHasher.hash("http://test.com/\u00e9"),
+                UrlHasher.hash("http://test.com/\u00e8"));
+    }
+}
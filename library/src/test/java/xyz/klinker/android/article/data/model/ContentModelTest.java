@@ -43,6 +43,12 @@ public class ContentModelTest extends ArticleSuite {
         assertNotNull(model.getIndexStatements());
     }
 
+    @Test
+    public void triggersNotNull() {
+        assertNotNull(model.getTriggerStatements());
+        assertEquals(2, model.getTriggerStatements().length);
+    }
+
     @Test
     public void tableName() {
         assertEquals("content", model.getTableName());